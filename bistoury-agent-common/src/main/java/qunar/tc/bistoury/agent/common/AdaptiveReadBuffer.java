@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2019 Qunar, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package qunar.tc.bistoury.agent.common;
+
+import java.util.Arrays;
+
+/**
+ * 读取进程输出用的缓冲区，大小根据每次读到的数据量调整：读满就扩大，连续两次读不满一半就缩小
+ * <p>
+ * 读满时整个数组直接交给下游，不再拷贝，之后换一个新数组；没读满时只拷贝读到的部分，数组继续复用。
+ * 下游不可写时handler会阻塞，读取也就跟着暂停，读取速度只受下游消费速度限制
+ */
+class AdaptiveReadBuffer {
+
+    private static final int MIN_SIZE = 4 * 1024;
+
+    private static final int INITIAL_SIZE = 16 * 1024;
+
+    private static final int MAX_SIZE = 256 * 1024;
+
+    private byte[] buffer = new byte[INITIAL_SIZE];
+
+    private boolean decreaseNow = false;
+
+    byte[] array() {
+        return buffer;
+    }
+
+    /**
+     * 读到count个字节后调用
+     *
+     * @return 交给下游的数据，下游可以一直持有
+     */
+    byte[] take(int count) {
+        if (count == buffer.length) {
+            byte[] result = buffer;
+            buffer = new byte[Math.min(buffer.length << 1, MAX_SIZE)];
+            decreaseNow = false;
+            return result;
+        }
+
+        byte[] result = Arrays.copyOfRange(buffer, 0, count);
+        if (count <= buffer.length >> 1 && buffer.length > MIN_SIZE) {
+            if (decreaseNow) {
+                buffer = new byte[Math.max(buffer.length >> 1, MIN_SIZE)];
+                decreaseNow = false;
+            } else {
+                decreaseNow = true;
+            }
+        } else {
+            decreaseNow = false;
+        }
+        return result;
+    }
+}
@@ -17,20 +17,13 @@
 
 package qunar.tc.bistoury.agent.common;
 
-import com.google.common.util.concurrent.RateLimiter;
-
 import java.io.InputStream;
-import java.util.Arrays;
 
 /**
  * @author zhenyu.nie created on 2019 2019/7/16 18:53
  */
 public class NormalProcess extends ClosableProcess {
 
-    private static final int BUF_SIZE = 4 * 1024;
-
-    private final RateLimiter rateLimiter = RateLimiter.create(16); //限制每秒read的次数
-
     NormalProcess(Process delegate) {
         super(delegate);
     }
@@ -38,12 +31,12 @@ public class NormalProcess extends ClosableProcess {
     @Override
     public int readAndWaitFor(ResponseHandler handler) throws Exception {
         try (InputStream inputStream = getInputStream()) {
-            byte[] buffer = new byte[BUF_SIZE];
+            AdaptiveReadBuffer buffer = new AdaptiveReadBuffer();
             while (true) {
-                rateLimiter.acquire();
-                int count = inputStream.read(buffer);
+                byte[] array = buffer.array();
+                int count = inputStream.read(array, 0, array.length);
                 if (count > 0) {
-                    handler.handle(Arrays.copyOfRange(buffer, 0, count));
+                    handler.handle(buffer.take(count));
                 } else if (count < 0) {
                     break;
                 }
@@ -17,20 +17,29 @@
 
 package qunar.tc.bistoury.agent.common;
 
-import com.google.common.util.concurrent.RateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qunar.tc.bistoury.common.NamedThreadFactory;
 
-import java.io.IOException;
 import java.io.InputStream;
-import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * @author zhenyu.nie created on 2019 2019/7/16 17:01
  */
 public class UnixProcess extends ClosableProcess {
 
-    private static final int BUF_SIZE = 4 * 1024;
+    private static final Logger logger = LoggerFactory.getLogger(UnixProcess.class);
 
-    private final RateLimiter rateLimiter = RateLimiter.create(16); //限制每秒read的次数
+    private static final ExecutorService READ_EXECUTOR = Executors.newCachedThreadPool(new NamedThreadFactory("unix-process-reader", true));
+
+    private static final long DRAIN_CHECK_MILLIS = TimeUnit.SECONDS.toMillis(1);
 
     UnixProcess(Process delegate) {
         super(delegate);
@@ -40,39 +49,77 @@ public class UnixProcess extends ClosableProcess {
      * jdk这里应该是有个bug，可能出现process已经destroy，waitfor已经完成，但是InputStream的read操作阻塞住无法返回，最终死锁的状况。
      * InputStream的实现是BufferedInputStream，read操作会获取锁，但是会出现流已经调用close了read也无不返回-1，一直阻塞的时候；
      * 而内部有一个清理线程会在waitfor结束后开始清理，清理也需要获取stream的锁，结果就死锁了。
-     * 处理方式就是每次读取前先判断available的数量，不阻塞读取，发现线程结束后最后再读取一次然后返回。
      * jdk1.7会出现这个问题，1.8的java代码是一样的，
      * 如果InputStream read操作还是会阻塞住，那么肯定也会出现，但不确定native的变化会不会导致不再阻塞了
+     * <p>
+     * 处理方式是在单独的线程上阻塞读取，当前线程等待进程结束；进程结束后等读取线程把剩余的输出读完，
+     * 如果读取线程阻塞在read上超过{@link #DRAIN_CHECK_MILLIS}没有任何进展，就认为碰到了上面的问题，放弃这个线程直接返回
      */
     @Override
     public int readAndWaitFor(ResponseHandler handler) throws Exception {
-        try (InputStream inputStream = getInputStream()) {
-            byte[] buffer = new byte[BUF_SIZE];
-            while (true) {
-                rateLimiter.acquire();
-                int count = readAndSendAvailable(inputStream, buffer, handler);
-                if (count <= 0 && !isAlive()) {
-                    readAndSendAvailable(inputStream, buffer, handler);
-                    break;
+        Reader reader = new Reader(getInputStream(), handler);
+        Future<Void> reading = READ_EXECUTOR.submit(reader);
+        int exitValue;
+        try {
+            exitValue = waitFor();
+        } catch (InterruptedException e) {
+            reading.cancel(true);
+            throw e;
+        }
+
+        long lastReadCount = -1;
+        while (true) {
+            try {
+                reading.get(DRAIN_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+                return exitValue;
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof Exception ? (Exception) cause : e;
+            } catch (TimeoutException e) {
+                long readCount = reader.readCount;
+                if (reader.inRead && readCount == lastReadCount) {
+                    logger.warn("process exited but read of its output blocked, give up reading");
+                    reading.cancel(true);
+                    return exitValue;
                 }
+                lastReadCount = readCount;
             }
         }
-        return waitFor();
     }
 
-    private int readAndSendAvailable(InputStream inputStream, byte[] buffer, ResponseHandler handler) throws IOException {
-        int count = readAvailableBytes(inputStream, buffer);
-        if (count > 0) {
-            handler.handle(Arrays.copyOfRange(buffer, 0, count));
+    private static class Reader implements Callable<Void> {
+
+        private final InputStream inputStream;
+
+        private final ResponseHandler handler;
+
+        private volatile boolean inRead = false;
+
+        private volatile long readCount = 0;
+
+        Reader(InputStream inputStream, ResponseHandler handler) {
+            this.inputStream = inputStream;
+            this.handler = handler;
         }
-        return count;
-    }
 
-    private int readAvailableBytes(InputStream inputStream, byte[] buffer) throws IOException {
-        int available = inputStream.available();
-        if (available <= 0) {
-            return 0;
+        @Override
+        public Void call() throws Exception {
+            try (InputStream in = inputStream) {
+                AdaptiveReadBuffer buffer = new AdaptiveReadBuffer();
+                while (true) {
+                    byte[] array = buffer.array();
+                    inRead = true;
+                    int count = in.read(array, 0, array.length);
+                    inRead = false;
+                    if (count < 0) {
+                        return null;
+                    }
+                    readCount++;
+                    if (count > 0) {
+                        handler.handle(buffer.take(count));
+                    }
+                }
+            }
         }
-        return inputStream.read(buffer, 0, Math.min(buffer.length, available));
     }
 }
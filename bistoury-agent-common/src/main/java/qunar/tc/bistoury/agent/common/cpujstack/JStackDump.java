@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2019 Qunar, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package qunar.tc.bistoury.agent.common.cpujstack;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+
+/**
+ * 一次jstack的结果，线程信息按jstack输出中的顺序保存；
+ * 第一个线程之前的头部（时间、jvm版本）和最后一个线程之后的尾部（JNI引用数、死锁信息等）原样保存
+ */
+public class JStackDump {
+
+    public static final JStackDump EMPTY = new JStackDump("", ImmutableMap.<String, ThreadInfo>of(), "");
+
+    private static final String THREAD_SEPARATOR = "\n\n";
+
+    private final String header;
+
+    private final Map<String, ThreadInfo> threadInfos;
+
+    private final String footer;
+
+    public JStackDump(String header, Map<String, ThreadInfo> threadInfos, String footer) {
+        this.header = header;
+        this.threadInfos = threadInfos;
+        this.footer = footer;
+    }
+
+    public String getHeader() {
+        return header;
+    }
+
+    public Map<String, ThreadInfo> getThreadInfos() {
+        return threadInfos;
+    }
+
+    public String getFooter() {
+        return footer;
+    }
+
+    /**
+     * 按原来的顺序拼回完整的jstack输出，线程信息中的栈需要是完整的
+     */
+    public String toJStack() {
+        StringBuilder jstack = new StringBuilder(header);
+        for (ThreadInfo threadInfo : threadInfos.values()) {
+            jstack.append(threadInfo.getStack()).append(THREAD_SEPARATOR);
+        }
+        return jstack.append(footer).toString();
+    }
+}
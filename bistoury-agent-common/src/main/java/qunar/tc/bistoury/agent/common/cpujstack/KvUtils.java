@@ -54,14 +54,29 @@ public class KvUtils {
         }
     }
 
+    /**
+     * 只用于读取旧版本agent保存的数据
+     */
     public static String getJStackResultKey(String timestamp) {
         return CPU_JSTACK_PREFIX + timestamp + "-jstack";
     }
 
+    public static String getJStackHeaderKey(String timestamp) {
+        return CPU_JSTACK_PREFIX + timestamp + "-jstackHeader";
+    }
+
+    public static String getJStackFooterKey(String timestamp) {
+        return CPU_JSTACK_PREFIX + timestamp + "-jstackFooter";
+    }
+
     public static String getThreadInfoKey(String timestamp) {
         return CPU_JSTACK_PREFIX + timestamp + "-threadinfo";
     }
 
+    public static String getStackKey(String stackId) {
+        return CPU_JSTACK_PREFIX + "stack-" + stackId;
+    }
+
     public static String getCollectSuccessKey(String timestamp) {
         return CPU_JSTACK_PREFIX + timestamp + "-success";
     }
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2019 Qunar, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package qunar.tc.bistoury.agent.common.cpujstack;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import qunar.tc.bistoury.agent.common.kv.KvDb;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 线程栈字典，相同的线程栈只按内容的hash存一份，每分钟的线程信息只保存线程第一行和栈的id
+ * <p>
+ * 线程第一行包含tid、cpu时间等每次都会变化的信息，所以不放进字典
+ * <p>
+ * 字典单独存放，过期时间比引用它的数据长，并且每隔{@link #REWRITE_INTERVAL_HOURS}重新写一次，
+ * 保证字典中的栈不会比引用它的数据先过期
+ */
+public class StackDictionary {
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private static final char LINE_SEPARATOR = '\n';
+
+    /**
+     * 重新写入的间隔，要小于字典比普通数据多出来的过期时间
+     */
+    private static final long REWRITE_INTERVAL_HOURS = 12;
+
+    private static final int MAX_CACHED_STACKS = 10000;
+
+    private final KvDb kvDb;
+
+    private final Cache<String, Boolean> written = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED_STACKS * 10)
+            .expireAfterWrite(REWRITE_INTERVAL_HOURS, TimeUnit.HOURS)
+            .build();
+
+    private final Cache<String, String> stacks = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED_STACKS)
+            .build();
+
+    /**
+     * @param kvDb 专门存放字典的kv存储，过期时间要比引用字典的数据长
+     */
+    public StackDictionary(KvDb kvDb) {
+        this.kvDb = kvDb;
+    }
+
+    /**
+     * 把线程栈放入字典，threadInfo中只保留线程第一行；
+     * 新出现的栈写入字典成功以后才替换，写入失败时threadInfo保留完整的栈
+     */
+    public void compress(Map<String, ThreadInfo> threadInfos) {
+        Map<String, String> stackIds = Maps.newHashMap();
+        Set<String> newStackIds = Sets.newHashSet();
+        KvDb.Batch batch = kvDb.newBatch();
+        for (Map.Entry<String, ThreadInfo> entry : threadInfos.entrySet()) {
+            String stack = entry.getValue().getStack();
+            int firstLineEnd = stack == null ? -1 : stack.indexOf(LINE_SEPARATOR);
+            if (firstLineEnd < 0) {
+                continue;
+            }
+
+            String body = stack.substring(firstLineEnd + 1);
+            String stackId = HASH_FUNCTION.hashString(body, Charsets.UTF_8).toString();
+            stackIds.put(entry.getKey(), stackId);
+            if (written.getIfPresent(stackId) == null && newStackIds.add(stackId)) {
+                batch.put(KvUtils.getStackKey(stackId), body);
+            }
+        }
+
+        if (!batch.write()) {
+            return;
+        }
+        for (String stackId : newStackIds) {
+            written.put(stackId, Boolean.TRUE);
+        }
+
+        for (Map.Entry<String, String> entry : stackIds.entrySet()) {
+            ThreadInfo threadInfo = threadInfos.get(entry.getKey());
+            String stack = threadInfo.getStack();
+            threadInfo.setStack(stack.substring(0, stack.indexOf(LINE_SEPARATOR)));
+            threadInfo.setStackId(entry.getValue());
+        }
+    }
+
+    /**
+     * 从字典中还原完整的线程栈，字典中找不到时只保留线程第一行
+     */
+    public void decompress(ThreadInfo threadInfo) {
+        String stackId = threadInfo.getStackId();
+        if (Strings.isNullOrEmpty(stackId)) {
+            return;
+        }
+
+        String body = stacks.getIfPresent(stackId);
+        if (body == null) {
+            body = kvDb.get(KvUtils.getStackKey(stackId));
+            if (body == null) {
+                threadInfo.setStackId(null);
+                return;
+            }
+            stacks.put(stackId, body);
+        }
+        threadInfo.setStack(threadInfo.getStack() + LINE_SEPARATOR + body);
+        threadInfo.setStackId(null);
+    }
+
+    public void decompress(Map<String, ThreadInfo> threadInfos) {
+        for (ThreadInfo threadInfo : threadInfos.values()) {
+            decompress(threadInfo);
+        }
+    }
+}
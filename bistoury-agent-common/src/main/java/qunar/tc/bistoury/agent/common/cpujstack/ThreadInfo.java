@@ -42,6 +42,11 @@ public class ThreadInfo {
 
     private String stack;
 
+    /**
+     * 存储时stack只保留线程的第一行，其余部分放在{@link StackDictionary}中，用stackId引用
+     */
+    private String stackId;
+
     public ThreadInfo() {
     }
 
@@ -100,4 +105,12 @@ public class ThreadInfo {
     public void setCpuTime(int cpuTime) {
         this.cpuTime = cpuTime;
     }
+
+    public String getStackId() {
+        return stackId;
+    }
+
+    public void setStackId(String stackId) {
+        this.stackId = stackId;
+    }
 }
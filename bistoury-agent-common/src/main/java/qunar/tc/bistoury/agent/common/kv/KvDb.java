@@ -25,4 +25,38 @@ public interface KvDb {
     String get(String key);
 
     void put(String key, String value);
+
+    /**
+     * 创建一个批量写，调用{@link Batch#write()}时一次写入
+     */
+    Batch newBatch();
+
+    /**
+     * 按key的字典序遍历[fromKey, toKey)之间的数据，visitor返回false时停止遍历
+     */
+    void scan(String fromKey, String toKey, Visitor visitor);
+
+    /**
+     * 按key的字典序遍历以prefix开头的数据，visitor返回false时停止遍历
+     */
+    void scan(String prefix, Visitor visitor);
+
+    interface Visitor {
+
+        boolean visit(String key, byte[] value);
+    }
+
+    interface Batch {
+
+        void put(String key, String value);
+
+        void put(String key, byte[] value);
+
+        /**
+         * 写入之前放入的所有数据，同一个batch只能写入一次
+         *
+         * @return 是否写入成功
+         */
+        boolean write();
+    }
 }
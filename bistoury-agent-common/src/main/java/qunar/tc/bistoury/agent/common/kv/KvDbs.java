@@ -30,6 +30,13 @@ public class KvDbs {
 
     private static final String ROCKS_DB = "rocksdb";
 
+    private static final String STACK_DICTIONARY_ROCKS_DB = "rocksdb-stack";
+
+    /**
+     * 线程栈字典会被后写入的数据引用，过期时间要比普通数据长，多出来的时间要大于字典的重新写入间隔
+     */
+    private static final int STACK_DICTIONARY_TTL = DEFAULT_TTL + (int) TimeUnit.DAYS.toSeconds(1);
+
     private static final int DEFAULT_MAX_COMPACTIONS = 3;
 
     private static final KvDb kvDb;
@@ -41,4 +48,12 @@ public class KvDbs {
     public static KvDb getKvDb() {
         return kvDb;
     }
+
+    public static KvDb getStackDictionaryKvDb() {
+        return StackDictionaryHolder.KV_DB;
+    }
+
+    private static class StackDictionaryHolder {
+        private static final KvDb KV_DB = new RocksDBStoreImpl(BistouryStore.getStorePath(STACK_DICTIONARY_ROCKS_DB), STACK_DICTIONARY_TTL, DEFAULT_MAX_COMPACTIONS);
+    }
 }
@@ -22,13 +22,19 @@ import com.google.common.util.concurrent.MoreExecutors;
 import org.rocksdb.Options;
 import org.rocksdb.RocksDB;
 import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
 import org.rocksdb.TtlDB;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qunar.tc.bistoury.common.CharsetUtils;
 import qunar.tc.bistoury.common.NamedThreadFactory;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
@@ -47,8 +53,15 @@ public class RocksDBStoreImpl implements KvDb {
         RocksDB.loadLibrary();
     }
 
+    /**
+     * 过期数据只在compact时删除，每过ttl的一部分时间做一次全量compact，过期数据最多多保留这么久
+     */
+    private static final int COMPACT_TIMES_PER_TTL = 6;
+
     private final TtlDB rocksDB;
 
+    private final WriteOptions writeOptions = new WriteOptions();
+
     RocksDBStoreImpl(String path, int ttl, int maxCompactions) {
         try {
             ensureDirectoryExists(path);
@@ -64,14 +77,19 @@ public class RocksDBStoreImpl implements KvDb {
             this.rocksDB = TtlDB.open(options, path, ttl, false);
             LOG.info("open rocks db success, path:{}, ttl:{}", path, ttl);
 
-            startCompactRange();
+            startCompactRange(ttl);
         } catch (Exception e) {
             LOG.error("open rocks db error, path:{}, ttl:{}", path, ttl, e);
             throw new RuntimeException(e);
         }
     }
 
-    private void startCompactRange() {
+    private void startCompactRange(int ttl) {
+        if (ttl <= 0) {
+            return;
+        }
+
+        final long interval = Math.max(1, ttl / COMPACT_TIMES_PER_TTL);
         executor.scheduleWithFixedDelay(new Runnable() {
             @Override
             public void run() {
@@ -82,7 +100,7 @@ public class RocksDBStoreImpl implements KvDb {
                     LOG.error("rocks db compact range error", e);
                 }
             }
-        }, 30, 30, TimeUnit.MINUTES);
+        }, interval, interval, TimeUnit.SECONDS);
     }
 
     private void ensureDirectoryExists(final String path) {
@@ -109,6 +127,72 @@ public class RocksDBStoreImpl implements KvDb {
         }
     }
 
+    @Override
+    public Batch newBatch() {
+        return new RocksDBBatch();
+    }
+
+    @Override
+    public void scan(String fromKey, String toKey, Visitor visitor) {
+        scan(CharsetUtils.toUTF8Bytes(fromKey), CharsetUtils.toUTF8Bytes(toKey), visitor);
+    }
+
+    @Override
+    public void scan(String prefix, Visitor visitor) {
+        final byte[] from = CharsetUtils.toUTF8Bytes(prefix);
+        scan(from, prefixEnd(from), visitor);
+    }
+
+    /**
+     * @param to 为null时遍历到最后
+     */
+    private void scan(byte[] from, byte[] to, Visitor visitor) {
+        final RocksIterator iterator = rocksDB.newIterator();
+        try {
+            for (iterator.seek(from); iterator.isValid(); iterator.next()) {
+                final byte[] key = iterator.key();
+                if (to != null && compare(key, to) >= 0) {
+                    return;
+                }
+                if (!visitor.visit(CharsetUtils.toUTF8String(key), iterator.value())) {
+                    return;
+                }
+            }
+        } catch (Exception e) {
+            LOG.error("scan rocks db error, from:{}, to:{}", CharsetUtils.toUTF8String(from), to == null ? null : CharsetUtils.toUTF8String(to), e);
+        } finally {
+            iterator.close();
+        }
+    }
+
+    /**
+     * 大于所有以prefix开头的key的最小key，不存在时返回null
+     */
+    private static byte[] prefixEnd(byte[] prefix) {
+        for (int i = prefix.length - 1; i >= 0; --i) {
+            if (prefix[i] != (byte) 0xff) {
+                final byte[] end = Arrays.copyOf(prefix, i + 1);
+                end[i]++;
+                return end;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 与rocks db默认的比较方式一致，按无符号字节比较
+     */
+    private static int compare(byte[] left, byte[] right) {
+        final int length = Math.min(left.length, right.length);
+        for (int i = 0; i < length; ++i) {
+            final int diff = (left[i] & 0xff) - (right[i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return left.length - right.length;
+    }
+
     @Override
     public String get(String key) {
         try {
@@ -127,4 +211,56 @@ public class RocksDBStoreImpl implements KvDb {
             return null;
         }
     }
+
+    /**
+     * 先在内存中收集数据，写入时才创建WriteBatch，避免没有写入的batch占用native内存
+     */
+    private class RocksDBBatch implements Batch {
+
+        private final List<byte[]> keys = new ArrayList<>();
+
+        private final List<byte[]> values = new ArrayList<>();
+
+        private boolean written = false;
+
+        @Override
+        public void put(String key, String value) {
+            put(CharsetUtils.toUTF8Bytes(key), CharsetUtils.toUTF8Bytes(value));
+        }
+
+        @Override
+        public void put(String key, byte[] value) {
+            put(CharsetUtils.toUTF8Bytes(key), value);
+        }
+
+        private void put(byte[] key, byte[] value) {
+            if (key == null || key.length == 0 || value == null || value.length == 0) {
+                return;
+            }
+            keys.add(key);
+            values.add(value);
+        }
+
+        @Override
+        public boolean write() {
+            if (written) {
+                throw new IllegalStateException("batch has been written");
+            }
+            written = true;
+            if (keys.isEmpty()) {
+                return true;
+            }
+
+            try (WriteBatch writeBatch = new WriteBatch()) {
+                for (int i = 0; i < keys.size(); ++i) {
+                    writeBatch.put(keys.get(i), values.get(i));
+                }
+                rocksDB.write(writeOptions, writeBatch);
+                return true;
+            } catch (Exception e) {
+                LOG.error("write batch to rocks db error, size:{}", keys.size(), e);
+                return false;
+            }
+        }
+    }
 }
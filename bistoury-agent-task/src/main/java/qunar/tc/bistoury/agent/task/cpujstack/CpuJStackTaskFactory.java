@@ -20,6 +20,7 @@ package qunar.tc.bistoury.agent.task.cpujstack;
 import com.google.common.util.concurrent.ListeningScheduledExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import qunar.tc.bistoury.agent.common.config.AgentConfig;
+import qunar.tc.bistoury.agent.common.cpujstack.StackDictionary;
 import qunar.tc.bistoury.agent.common.kv.KvDb;
 import qunar.tc.bistoury.agent.common.kv.KvDbs;
 import qunar.tc.bistoury.agent.common.task.AgentGlobalTaskFactory;
@@ -44,7 +45,7 @@ public class CpuJStackTaskFactory implements AgentGlobalTaskFactory {
     public void start() {
         PidExecutor jstackExecutor = new JStackPidExecutor();
         PidRecordExecutor momentCpuTimePidExecutor = new MomentCpuTimeRecordExecutor(executor);
-        TaskRunner taskRunner = new TaskRunner(agentConfig, kvDb, jstackExecutor, momentCpuTimePidExecutor);
+        TaskRunner taskRunner = new TaskRunner(agentConfig, kvDb, new StackDictionary(KvDbs.getStackDictionaryKvDb()), jstackExecutor, momentCpuTimePidExecutor);
         executor.scheduleAtFixedRate(taskRunner, 5, 60, TimeUnit.SECONDS);
     }
 }
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2019 Qunar, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package qunar.tc.bistoury.agent.task.cpujstack;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qunar.tc.bistoury.agent.common.cpujstack.JStackDump;
+import qunar.tc.bistoury.agent.common.cpujstack.ThreadInfo;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 逐行解析jstack输出，读到一个线程的结束就生成该线程的信息，不需要先把整个输出读成字符串再按行切分
+ * <p>
+ * 线程以 "线程名" ... nid=xxx 开头，到空行结束，第二行为线程状态，以 - 开头的行为锁信息；
+ * 线程按输出中的顺序保存，第一个线程之前和最后一个线程之后的内容原样保存为头部和尾部
+ */
+class JStackParser {
+
+    private static final Logger logger = LoggerFactory.getLogger(JStackParser.class);
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private static final int THREAD_NAME_START_INDEX = "\"".length();
+
+    private static final String THREAD_ID_PREFIX = " nid=";
+
+    private static final String THREAD_STATE_PREFIX = "java.lang.Thread.State: ";
+
+    private static final String NO_THREAD_NAME = "NoThreadName#";
+
+    private final StringBuilder header = new StringBuilder();
+
+    private final StringBuilder footer = new StringBuilder();
+
+    private final StringBuilder stack = new StringBuilder();
+
+    private final List<String> lockLines = Lists.newArrayList();
+
+    private final Map<String, ThreadInfo> threadInfos = Maps.newLinkedHashMap();
+
+    private ThreadInfo current;
+
+    private int currentLines;
+
+    static JStackDump parse(InputStream inputStream) throws IOException {
+        JStackParser parser = new JStackParser();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, Charsets.UTF_8), READ_BUFFER_SIZE);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            parser.onLine(line);
+        }
+        parser.finishThread();
+        return new JStackDump(parser.header.toString(), parser.threadInfos, parser.footer.toString());
+    }
+
+    private void onLine(String line) {
+        if (current == null) {
+            if (line.startsWith("\"") && line.contains("nid=")) {
+                current = parseThreadFirstLine(line);
+                stack.append(line);
+                currentLines = 1;
+            } else if (threadInfos.isEmpty()) {
+                header.append(line).append('\n');
+            } else {
+                footer.append(line).append('\n');
+            }
+            return;
+        }
+
+        if (Strings.isNullOrEmpty(line)) {
+            finishThread();
+            return;
+        }
+
+        if (currentLines == 1) {
+            current.setState(parseThreadState(line));
+        } else if (line.trim().startsWith("-")) {
+            lockLines.add(line.trim());
+        }
+        stack.append('\n').append(line);
+        currentLines++;
+    }
+
+    private void finishThread() {
+        if (current == null) {
+            return;
+        }
+
+        current.setStack(stack.toString());
+        if (currentLines > 1) {
+            current.setLockOn(parseLockOn(lockLines));
+        }
+        threadInfos.put(current.getId(), current);
+
+        current = null;
+        currentLines = 0;
+        stack.setLength(0);
+        lockLines.clear();
+    }
+
+    /**
+     * 从栈底往上看，locked 表示持有了锁，wait 表示又把锁释放了（比如Object.wait）
+     */
+    private static List<String> parseLockOn(List<String> lines) {
+        if (lines.isEmpty()) {
+            return ImmutableList.of();
+        }
+
+        Set<String> lock = Sets.newLinkedHashSet();
+        for (int i = lines.size() - 1; i >= 0; i--) {
+            String line = lines.get(i);
+            int lockIdIndex = findLockIdIndex(line);
+            if (lockIdIndex < 0) {
+                continue;
+            }
+
+            int lockIdEnd = line.indexOf('>', lockIdIndex);
+            String lockId = line.substring(lockIdIndex + 1, lockIdEnd);
+            int lockIndex = indexOf(line, "lock", lockIdIndex);
+            int waitIndex = indexOf(line, "wait", lockIdIndex);
+            if (lockIndex >= 0 && (waitIndex < 0 || lockIndex < waitIndex)) {
+                lock.add(lockId);
+            } else if (waitIndex >= 0) {
+                lock.remove(lockId);
+            }
+        }
+        return ImmutableList.copyOf(lock);
+    }
+
+    private static int indexOf(String line, String str, int end) {
+        int index = line.indexOf(str);
+        return index >= 0 && index < end ? index : -1;
+    }
+
+    /**
+     * 找到第一个形如 &lt;0x...&gt; 的单词
+     */
+    private static int findLockIdIndex(String line) {
+        int index = line.indexOf('<');
+        while (index >= 0) {
+            if (index == 0 || line.charAt(index - 1) == ' ') {
+                int end = line.indexOf(' ', index);
+                if (end < 0) {
+                    end = line.length();
+                }
+                if (line.charAt(end - 1) == '>') {
+                    return index;
+                }
+            }
+            index = line.indexOf('<', index + 1);
+        }
+        return -1;
+    }
+
+    private static String parseThreadState(String line) {
+        int indexSymbol = line.indexOf(THREAD_STATE_PREFIX);
+        if (indexSymbol < 0) {
+            logger.error("illegal thread first line:\n{}", line);
+            return "";
+        }
+
+        int indexOfStateStart = indexSymbol + THREAD_STATE_PREFIX.length();
+        int indexOfStateEnd = line.indexOf(' ', indexOfStateStart);
+        if (indexOfStateEnd < 0) {
+            indexOfStateEnd = line.length();
+        }
+        return line.substring(indexOfStateStart, indexOfStateEnd);
+    }
+
+    private static ThreadInfo parseThreadFirstLine(String line) {
+        int indexAfterName = line.indexOf('"', THREAD_NAME_START_INDEX);
+        if (indexAfterName < 0) {
+            throw new IllegalArgumentException("illegal thread first line:\n" + line);
+        }
+        String name = line.substring(THREAD_NAME_START_INDEX, indexAfterName);
+        int indexOfThreadIdPrefix = line.indexOf(THREAD_ID_PREFIX, indexAfterName);
+        if (indexOfThreadIdPrefix < 0) {
+            throw new IllegalArgumentException("illegal thread first line:\n" + line);
+        }
+        int endOfThreadId = line.indexOf(' ', indexOfThreadIdPrefix + THREAD_ID_PREFIX.length());
+        if (endOfThreadId < 0) {
+            endOfThreadId = line.length();
+        }
+        String threadId = line.substring(indexOfThreadIdPrefix + THREAD_ID_PREFIX.length(), endOfThreadId);
+
+        if (Strings.isNullOrEmpty(name)) {
+            name = NO_THREAD_NAME + threadId;
+        }
+
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(name) && !Strings.isNullOrEmpty(threadId), "illegal thread first line:\n%s", line);
+        ThreadInfo threadInfo = new ThreadInfo();
+        threadInfo.setId(threadId);
+        threadInfo.setName(name);
+        threadInfo.setState("");
+        threadInfo.setStack("");
+        threadInfo.setLockOn(ImmutableList.<String>of());
+        return threadInfo;
+    }
+}
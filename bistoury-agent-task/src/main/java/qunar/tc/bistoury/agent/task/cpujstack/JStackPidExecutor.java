@@ -17,11 +17,10 @@
 
 package qunar.tc.bistoury.agent.task.cpujstack;
 
-import com.google.common.base.Charsets;
-import com.google.common.io.ByteStreams;
 import com.sun.tools.attach.VirtualMachine;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import qunar.tc.bistoury.agent.common.cpujstack.JStackDump;
 import sun.tools.attach.HotSpotVirtualMachine;
 
 import java.io.IOException;
@@ -36,7 +35,7 @@ public class JStackPidExecutor implements PidExecutor {
     private static final Logger LOGGER = LoggerFactory.getLogger(JStackPidExecutor.class);
 
     @Override
-    public String execute(int pid) {
+    public JStackDump execute(int pid) {
         VirtualMachine virtualMachine = null;
         try {
             virtualMachine = VirtualMachine.attach(String.valueOf(pid));
@@ -53,13 +52,12 @@ public class JStackPidExecutor implements PidExecutor {
                 }
             }
         }
-        return "";
+        return JStackDump.EMPTY;
     }
 
-    private String readJStackOutput(HotSpotVirtualMachine hotSpotVirtualMachine) throws IOException {
+    private JStackDump readJStackOutput(HotSpotVirtualMachine hotSpotVirtualMachine) throws IOException {
         try (InputStream inputStream = hotSpotVirtualMachine.remoteDataDump(new String[0])) {
-            byte[] bytes = ByteStreams.toByteArray(inputStream);
-            return new String(bytes, Charsets.UTF_8);
+            return JStackParser.parse(inputStream);
         }
     }
 }
@@ -17,10 +17,12 @@
 
 package qunar.tc.bistoury.agent.task.cpujstack;
 
+import qunar.tc.bistoury.agent.common.cpujstack.JStackDump;
+
 /**
  * @author zhenyu.nie created on 2019 2019/1/10 13:50
  */
 public interface PidExecutor {
 
-    String execute(int pid);
+    JStackDump execute(int pid);
 }
@@ -17,21 +17,15 @@
 
 package qunar.tc.bistoury.agent.task.cpujstack;
 
-import com.google.common.base.Joiner;
-import com.google.common.base.Preconditions;
-import com.google.common.base.Splitter;
-import com.google.common.base.Strings;
-import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
-import com.google.common.io.CharSource;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qunar.tc.bistoury.agent.common.config.AgentConfig;
+import qunar.tc.bistoury.agent.common.cpujstack.JStackDump;
 import qunar.tc.bistoury.agent.common.cpujstack.KvUtils;
+import qunar.tc.bistoury.agent.common.cpujstack.StackDictionary;
 import qunar.tc.bistoury.agent.common.cpujstack.ThreadInfo;
 import qunar.tc.bistoury.agent.common.kv.KvDb;
 import qunar.tc.bistoury.agent.common.pid.PidUtils;
@@ -40,10 +34,7 @@ import qunar.tc.bistoury.agent.task.proc.ProcUtil;
 import qunar.tc.bistoury.agent.task.proc.ProcessStateCalculator;
 import qunar.tc.bistoury.common.JacksonSerializer;
 
-import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author zhenyu.nie created on 2019 2019/1/8 19:26
@@ -52,29 +43,20 @@ public class TaskRunner implements Runnable {
 
     private static final Logger logger = LoggerFactory.getLogger(TaskRunner.class);
 
-    private static final Splitter SPACE_SPLITTER = Splitter.on(' ').trimResults().omitEmptyStrings();
-
-    private static final Joiner LINE_JOINER = Joiner.on('\n');
-
-    private static final int THREAD_NAME_START_INDEX = "\"".length();
-
-    private static final String THREAD_ID_PREFIX = " nid=";
-
-    private static final String THREAD_STATE_PREFIX = "java.lang.Thread.State: ";
-
-    private static final String NO_THREAD_NAME = "NoThreadName#";
-
     private final AgentConfig agentConfig;
 
     private final KvDb kvDb;
 
+    private final StackDictionary stackDictionary;
+
     private final PidExecutor jstackExecutor;
 
     private final PidRecordExecutor momentCpuTimeExecutor;
 
-    public TaskRunner(AgentConfig agentConfig, KvDb kvDb, PidExecutor jstackExecutor, PidRecordExecutor momentCpuTimeExecutor) {
+    public TaskRunner(AgentConfig agentConfig, KvDb kvDb, StackDictionary stackDictionary, PidExecutor jstackExecutor, PidRecordExecutor momentCpuTimeExecutor) {
         this.agentConfig = agentConfig;
         this.kvDb = kvDb;
+        this.stackDictionary = stackDictionary;
         this.jstackExecutor = jstackExecutor;
         this.momentCpuTimeExecutor = momentCpuTimeExecutor;
     }
@@ -109,25 +91,28 @@ public class TaskRunner implements Runnable {
             return;
         }
 
-        String jstackResult = jstackExecutor.execute(pid);
-
         Map<String, Double> threadMinuteTimes = ProcUtil.transformHexThreadId(ProcessStateCalculator.getInstance().threadCpuMinuteUsage(pid));
-        Map<String, ThreadInfo> threadInfos = parseThreadInfos(jstackResult);
+        JStackDump jstackDump = jstackExecutor.execute(pid);
+        Map<String, ThreadInfo> threadInfos = jstackDump.getThreadInfos();
         addThreadMinuteCpuTime(threadInfos, threadMinuteTimes);
 
+        KvDb.Batch batch = kvDb.newBatch();
         int totalTime = 0;
         for (Map.Entry<String, Double> entry : threadMinuteTimes.entrySet()) {
             Integer time = (int) (entry.getValue() * 10000);
             if (time > 0) {
-                kvDb.put(KvUtils.getThreadMinuteCpuTimeKey(timestamp, entry.getKey()), String.valueOf(time));
+                batch.put(KvUtils.getThreadMinuteCpuTimeKey(timestamp, entry.getKey()), String.valueOf(time));
                 totalTime += time;
             }
         }
 
-        kvDb.put(KvUtils.getThreadNumKey(timestamp), String.valueOf(threadMinuteTimes.size()));
-        kvDb.put(KvUtils.getThreadMinuteCpuTimeKey(timestamp), String.valueOf(totalTime));
-        kvDb.put(KvUtils.getJStackResultKey(timestamp), jstackResult);
-        kvDb.put(KvUtils.getThreadInfoKey(timestamp), JacksonSerializer.serialize(threadInfos));
+        batch.put(KvUtils.getThreadNumKey(timestamp), String.valueOf(threadMinuteTimes.size()));
+        batch.put(KvUtils.getThreadMinuteCpuTimeKey(timestamp), String.valueOf(totalTime));
+        batch.put(KvUtils.getJStackHeaderKey(timestamp), jstackDump.getHeader());
+        batch.put(KvUtils.getJStackFooterKey(timestamp), jstackDump.getFooter());
+        stackDictionary.compress(threadInfos);
+        batch.put(KvUtils.getThreadInfoKey(timestamp), JacksonSerializer.serialize(threadInfos));
+        batch.write();
         Futures.addCallback(momentCpuTimeExecutor.execute(pid), momentCpuUsageCallback(timestamp));
     }
 
@@ -136,14 +121,16 @@ public class TaskRunner implements Runnable {
             @Override
             public void onSuccess(Map<Integer, Double> momentCpuTime) {
                 Map<String, Double> transformMomentCpuTime = ProcUtil.transformHexThreadId(momentCpuTime);
+                KvDb.Batch batch = kvDb.newBatch();
                 int totalTime = 0;
                 for (Map.Entry<String, Double> entry : transformMomentCpuTime.entrySet()) {
                     int time = (int) (entry.getValue() * 10000);
-                    kvDb.put(KvUtils.getThreadMomentCpuTimeKey(timestamp, entry.getKey()), String.valueOf(time));
+                    batch.put(KvUtils.getThreadMomentCpuTimeKey(timestamp, entry.getKey()), String.valueOf(time));
                     totalTime += time;
                 }
-                kvDb.put(KvUtils.getThreadMomentCpuTimeKey(timestamp), String.valueOf(totalTime));
-                kvDb.put(KvUtils.getCollectSuccessKey(timestamp), "true");
+                batch.put(KvUtils.getThreadMomentCpuTimeKey(timestamp), String.valueOf(totalTime));
+                batch.put(KvUtils.getCollectSuccessKey(timestamp), "true");
+                batch.write();
             }
 
             @Override
@@ -165,164 +152,4 @@ public class TaskRunner implements Runnable {
             entry.getValue().setMinuteCpuTime(minuteCpuTime);
         }
     }
-
-    private Map<String, ThreadInfo> parseThreadInfos(String jstackResult) {
-        try {
-            Map<String, ThreadInfo> threadInfos = Maps.newHashMap();
-
-            List<String> lines = CharSource.wrap(jstackResult).readLines();
-            AtomicInteger index = new AtomicInteger(0);
-
-            while (index.get() < lines.size()) {
-                ThreadInfo threadInfo = parseThreadInfo(lines, index);
-                if (threadInfo != null) {
-                    threadInfos.put(threadInfo.getId(), threadInfo);
-                }
-            }
-            return threadInfos;
-        } catch (Exception e) {
-            logger.error("parse thread info error, {}", jstackResult, e);
-            throw new RuntimeException("parse thread info error");
-        }
-    }
-
-    private ThreadInfo parseThreadInfo(List<String> lines, AtomicInteger index) {
-        int firstLine = findFirstLine(lines, index);
-        if (firstLine < 0) {
-            index.set(lines.size());
-            return null;
-        }
-
-        String threadFirstLine = lines.get(firstLine);
-        ThreadInfo threadInfo = parseThreadFirstLine(threadFirstLine);
-        int secondLine = firstLine + 1;
-        if (secondLine == lines.size()) {
-            index.set(lines.size());
-            return threadInfo;
-        }
-
-        String threadSecondLine = lines.get(secondLine);
-        if (Strings.isNullOrEmpty(threadSecondLine)) {
-            index.set(secondLine);
-            return threadInfo;
-        }
-
-        String state = parseThreadState(threadSecondLine);
-        threadInfo.setState(state);
-
-        index.set(secondLine);
-        while (index.get() < lines.size() && !Strings.isNullOrEmpty(lines.get(index.get()))) {
-            index.incrementAndGet();
-        }
-
-        List<String> stackLines = lines.subList(firstLine, index.get());
-        String stack = LINE_JOINER.join(stackLines);
-        threadInfo.setStack(stack);
-
-        List<String> lockOn = parseLockOn(stackLines);
-        threadInfo.setLockOn(lockOn);
-
-        return threadInfo;
-    }
-
-    private List<String> parseLockOn(List<String> lines) {
-        if (lines.size() < 3) {
-            return ImmutableList.of();
-        }
-
-        Set<String> lock = Sets.newLinkedHashSet();
-        for (int lineIndex = lines.size() - 1; lineIndex >= 2; lineIndex--) {
-            String line = lines.get(lineIndex).trim();
-            if (line.startsWith("-")) {
-                List<String> strs = SPACE_SPLITTER.splitToList(line);
-                int lockIdIndex = findLockIdIndex(strs);
-                if (lockIdIndex < 0) {
-                    continue;
-                }
-
-                for (int i = 0; i < lockIdIndex; ++i) {
-                    String str = strs.get(i);
-                    if (str.contains("lock")) {
-                        lock.add(getLockId(strs.get(lockIdIndex)));
-                        break;
-                    } else if (str.contains("wait")) {
-                        lock.remove(strs.get(lockIdIndex));
-                        break;
-                    }
-                }
-            }
-        }
-        return ImmutableList.copyOf(lock);
-    }
-
-    private String getLockId(String input) {
-        return input.substring(1, input.length() - 1);
-    }
-
-
-    private int findLockIdIndex(List<String> strs) {
-        for (int i = 0; i < strs.size(); ++i) {
-            String str = strs.get(i);
-            if (str.startsWith("<") && str.endsWith(">")) {
-                return i;
-            }
-        }
-        return -1;
-    }
-
-    private String parseThreadState(String line) {
-        int indexSymbol = line.indexOf(THREAD_STATE_PREFIX);
-        if (indexSymbol < 0) {
-            logger.error("illegal thread first line:\n{}", line);
-            return "";
-        }
-
-        int indexOfStateStart = indexSymbol + THREAD_STATE_PREFIX.length();
-        int indexOfStateEnd = line.indexOf(' ', indexOfStateStart);
-        if (indexOfStateEnd < 0) {
-            indexOfStateEnd = line.length();
-        }
-        return line.substring(indexOfStateStart, indexOfStateEnd);
-    }
-
-    private ThreadInfo parseThreadFirstLine(String line) {
-        int indexAfterName = line.indexOf('"', THREAD_NAME_START_INDEX);
-        if (indexAfterName < 0) {
-            throw new IllegalArgumentException("illegal thread first line:\n" + line);
-        }
-        String name = line.substring(THREAD_NAME_START_INDEX, indexAfterName);
-        int indexOfThreadIdPrefix = line.indexOf(THREAD_ID_PREFIX, indexAfterName);
-        if (indexOfThreadIdPrefix < 0) {
-            throw new IllegalArgumentException("illegal thread first line:\n" + line);
-        }
-        int endOfThreadId = line.indexOf(' ', indexOfThreadIdPrefix + THREAD_ID_PREFIX.length());
-        if (endOfThreadId < 0) {
-            endOfThreadId = line.length();
-        }
-        String threadId = line.substring(indexOfThreadIdPrefix + THREAD_ID_PREFIX.length(), endOfThreadId);
-
-        if (Strings.isNullOrEmpty(name)) {
-            name = NO_THREAD_NAME + threadId;
-        }
-
-        Preconditions.checkArgument(!Strings.isNullOrEmpty(name) && !Strings.isNullOrEmpty(threadId), "illegal thread first line:\n%s", line);
-        ThreadInfo threadInfo = new ThreadInfo();
-        threadInfo.setId(threadId);
-        threadInfo.setName(name);
-        threadInfo.setState("");
-        threadInfo.setStack("");
-        threadInfo.setLockOn(ImmutableList.<String>of());
-        return threadInfo;
-    }
-
-    private int findFirstLine(List<String> lines, AtomicInteger index) {
-        while (index.get() < lines.size()) {
-            String line = lines.get(index.get());
-            if (line.startsWith("\"") && line.contains("nid=")) {
-                return index.get();
-            }
-            index.incrementAndGet();
-        }
-        return -1;
-    }
 }
@@ -17,8 +17,7 @@
 
 package qunar.tc.bistoury.agent.task.proc;
 
-import com.google.common.collect.ImmutableMap;
-
+import java.util.Collections;
 import java.util.Map;
 
 /**
@@ -34,7 +33,7 @@ public class FullState {
     public FullState(CpuState cpuState, ProcessState processState, Map<Integer, ThreadState> threadInfo) {
         this.cpuState = cpuState;
         this.processState = processState;
-        this.threadInfo = ImmutableMap.copyOf(threadInfo);
+        this.threadInfo = Collections.unmodifiableMap(threadInfo);
     }
 
     @Override
@@ -23,6 +23,11 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Collections;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
@@ -73,17 +78,16 @@ public class ProcessStateCalculator {
                 preFullState.threadInfo, currentFullState.threadInfo);
     }
 
-    public FullState getCurrentFullState(int pid) {
+    public synchronized FullState getCurrentFullState(int pid) {
         try {
             CpuState cpuState = StatParser.getInstance().parseCpuInfo();
             File processFile = new File("/proc", String.valueOf(pid));
             ProcessState processState = StatParser.getInstance().parseProcessInfo(pid);
-            File taskFile = new File(processFile, "task");
-            File[] taskFiles = taskFile.listFiles();
-            if (!taskFile.exists() || taskFiles == null) {
+            Path taskDir = Paths.get(processFile.getPath(), "task");
+            if (!Files.isDirectory(taskDir)) {
                 return null;
             }
-            Map<Integer, ThreadState> threadInfo = getThreadInfo(pid, taskFiles);
+            Map<Integer, ThreadState> threadInfo = getThreadInfo(taskDir);
             return new FullState(cpuState, processState, threadInfo);
         } catch (IOException e) {
             LOGGER.error("get current process state error");
@@ -91,15 +95,21 @@ public class ProcessStateCalculator {
         }
     }
 
-    private Map<Integer, ThreadState> getThreadInfo(int pid, File[] taskFiles) throws IOException {
-        Map<Integer, ThreadState> threadInfo = Maps.newHashMapWithExpectedSize(taskFiles.length);
-        for (File file : taskFiles) {
-            ThreadState singleThreadState = StatParser.getInstance().parseThreadInfo(pid, Integer.parseInt(file.getName()));
-            //查询时候可能线程已经死去
-            if (singleThreadState == null) {
-                continue;
+    private Map<Integer, ThreadState> getThreadInfo(Path taskDir) throws IOException {
+        Map<Integer, ThreadState> threadInfo = Maps.newHashMap();
+        try (DirectoryStream<Path> taskFiles = Files.newDirectoryStream(taskDir)) {
+            for (Path taskFile : taskFiles) {
+                int tid = Integer.parseInt(taskFile.getFileName().toString());
+                ThreadState singleThreadState = StatParser.getInstance().parseThreadInfo(tid, taskFile.resolve("stat"));
+                //查询时候可能线程已经死去
+                if (singleThreadState == null) {
+                    continue;
+                }
+                threadInfo.put(tid, singleThreadState);
             }
-            threadInfo.put(singleThreadState.tid, singleThreadState);
+        } catch (NoSuchFileException e) {
+            //进程已经退出
+            return threadInfo;
         }
         return threadInfo;
     }
@@ -26,6 +26,11 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
 
 /**
@@ -40,6 +45,20 @@ class StatParser {
     private static final StatParser INSTANCE = new StatParser();
     private static final String PROC_PATH = "/proc";
 
+    /**
+     * stat文件中 (comm) 之后的字段下标，从0开始计数
+     */
+    private static final int STATE_INDEX = 2;
+    private static final int USER_TIME_INDEX = 13;
+    private static final int SYSTEM_TIME_INDEX = 14;
+
+    private static final int BUFFER_SIZE = 4096;
+
+    /**
+     * 线程数很多时每次采样要读几千个stat文件，复用同一个buffer并直接在buffer上解析需要的字段
+     */
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
     private StatParser() {
     }
 
@@ -51,17 +70,70 @@ class StatParser {
         return CpuState.parse(getInfoList(new File(procDir, "stat")));
     }
 
-    public ThreadState parseThreadInfo(int pid, int tid) throws IOException {
-        File pidDir = new File(PROC_PATH, String.valueOf(pid));
-        if (!pidDir.exists()) {
-            throw new IllegalStateException("can not open pid directory : " + pidDir.getAbsoluteFile());
+    /**
+     * @param statPath /proc/[pid]/task/[tid]/stat
+     * @return 线程已经结束时返回null
+     */
+    public synchronized ThreadState parseThreadInfo(int tid, Path statPath) throws IOException {
+        if (!read(statPath)) {
+            return null;
         }
-        File tidDir = new File(pidDir, "task/" + String.valueOf(tid));
-        if (!tidDir.exists()) {
-            LOGGER.info("can not open tid directory : {}", tidDir.getAbsoluteFile());
+
+        //comm中可能有空格和括号，从最后一个右括号之后开始解析
+        int index = buffer.limit() - 1;
+        while (index >= 0 && buffer.get(index) != ')') {
+            index--;
+        }
+        if (index < 0) {
+            LOGGER.warn("illegal thread stat, path: {}", statPath);
             return null;
         }
-        return ThreadState.parse(getInfoList(new File(tidDir, "stat")));
+
+        index += 2;
+        char state = (char) buffer.get(index);
+        index = skipFields(index, USER_TIME_INDEX - STATE_INDEX);
+        long userTime = parseLong(index);
+        index = skipFields(index, SYSTEM_TIME_INDEX - USER_TIME_INDEX);
+        long systemTime = parseLong(index);
+        return new ThreadState(tid, state, userTime, systemTime);
+    }
+
+    private boolean read(Path path) throws IOException {
+        buffer.clear();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    break;
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        buffer.flip();
+        return true;
+    }
+
+    private int skipFields(int index, int count) {
+        int limit = buffer.limit();
+        while (count > 0 && index < limit) {
+            if (buffer.get(index++) == ' ') {
+                count--;
+            }
+        }
+        return index;
+    }
+
+    private long parseLong(int index) {
+        int limit = buffer.limit();
+        long result = 0;
+        for (; index < limit; ++index) {
+            byte b = buffer.get(index);
+            if (b < '0' || b > '9') {
+                break;
+            }
+            result = result * 10 + (b - '0');
+        }
+        return result;
     }
 
     public ProcessState parseProcessInfo(int pid) throws IOException {
@@ -0,0 +1,115 @@
+package qunar.tc.bistoury.agent.task.cpujstack;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import org.junit.Assert;
+import org.junit.Test;
+import qunar.tc.bistoury.agent.common.cpujstack.JStackDump;
+import qunar.tc.bistoury.agent.common.cpujstack.ThreadInfo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * jstack/full.txt 是记录下来的jstack输出，jstack/truncated.txt 是它在一个线程中间被截断的版本
+ */
+public class JStackParserTest {
+
+    @Test
+    public void parseAllThreads() throws IOException {
+        Map<String, ThreadInfo> threads = parse("jstack/full.txt");
+        Assert.assertEquals(9, threads.size());
+    }
+
+    @Test
+    public void lockedAndWaitingToLock() throws IOException {
+        Map<String, ThreadInfo> threads = parse("jstack/full.txt");
+
+        ThreadInfo blocked = threads.get("0x4f0e");
+        Assert.assertEquals("worker-1", blocked.getName());
+        Assert.assertEquals("BLOCKED", blocked.getState());
+        Assert.assertEquals(ImmutableList.of("0x00000000d5a3c200"), blocked.getLockOn());
+
+        ThreadInfo owner = threads.get("0x4f0d");
+        Assert.assertEquals("TIMED_WAITING", owner.getState());
+        Assert.assertEquals(ImmutableList.of("0x00000000d5a3c1f0"), owner.getLockOn());
+    }
+
+    @Test
+    public void waitingOnReleasesLock() throws IOException {
+        ThreadInfo finalizer = parse("jstack/full.txt").get("0x4ef9");
+        Assert.assertEquals("Finalizer", finalizer.getName());
+        Assert.assertEquals("WAITING", finalizer.getState());
+        Assert.assertTrue(finalizer.getLockOn().isEmpty());
+    }
+
+    @Test
+    public void parkingHoldsNoLock() throws IOException {
+        ThreadInfo parked = parse("jstack/full.txt").get("0x4f0b");
+        Assert.assertEquals("pool-1-thread-1", parked.getName());
+        Assert.assertEquals("WAITING", parked.getState());
+        Assert.assertTrue(parked.getLockOn().isEmpty());
+        Assert.assertTrue(parked.getStack().startsWith("\"pool-1-thread-1\" #18 prio=5"));
+        Assert.assertTrue(parked.getStack().endsWith("at java.lang.Thread.run(Thread.java:748)"));
+    }
+
+    @Test
+    public void daemonAndVmThreads() throws IOException {
+        Map<String, ThreadInfo> threads = parse("jstack/full.txt");
+
+        ThreadInfo daemon = threads.get("0x4f21");
+        Assert.assertEquals("Attach Listener", daemon.getName());
+        Assert.assertEquals("RUNNABLE", daemon.getState());
+
+        ThreadInfo vmThread = threads.get("0x4ef7");
+        Assert.assertEquals("VM Thread", vmThread.getName());
+        Assert.assertEquals("", vmThread.getState());
+        Assert.assertEquals("\"VM Thread\" os_prio=0 tid=0x00007f3cc80cc800 nid=0x4ef7 runnable ", vmThread.getStack());
+        Assert.assertTrue(vmThread.getLockOn().isEmpty());
+
+        Assert.assertEquals("GC task thread#0 (ParallelGC)", threads.get("0x4ef1").getName());
+        Assert.assertEquals("NoThreadName#0x4f0c", threads.get("0x4f0c").getName());
+    }
+
+    @Test
+    public void truncatedStream() throws IOException {
+        Map<String, ThreadInfo> threads = parse("jstack/truncated.txt");
+        Assert.assertEquals(4, threads.size());
+
+        ThreadInfo last = threads.get("0x4f0b");
+        Assert.assertEquals("WAITING", last.getState());
+        Assert.assertTrue(last.getLockOn().isEmpty());
+        Assert.assertTrue(last.getStack().contains("- parking to wait for"));
+        Assert.assertEquals(ImmutableList.of("0x00000000d5a3c200"), threads.get("0x4f0e").getLockOn());
+        Assert.assertEquals("", parseDump("jstack/truncated.txt").getFooter());
+    }
+
+    @Test
+    public void keepOrderHeaderAndFooter() throws IOException {
+        JStackDump dump = parseDump("jstack/full.txt");
+        Assert.assertEquals("2019-07-16 17:01:12\nFull thread dump Java HotSpot(TM) 64-Bit Server VM (25.181-b13 mixed mode):\n\n", dump.getHeader());
+        Assert.assertEquals("JNI global references: 312\n\n", dump.getFooter());
+        Assert.assertEquals(ImmutableList.of("0x4f21", "0x4f0e", "0x4f0d", "0x4f0b", "0x4ef9", "0x4f0c", "0x4ef7", "0x4ef1", "0x4f05"),
+                ImmutableList.copyOf(dump.getThreadInfos().keySet()));
+        Assert.assertEquals(read("jstack/full.txt"), dump.toJStack());
+    }
+
+    private Map<String, ThreadInfo> parse(String resource) throws IOException {
+        return parseDump(resource).getThreadInfos();
+    }
+
+    private JStackDump parseDump(String resource) throws IOException {
+        try (InputStream in = JStackParserTest.class.getClassLoader().getResourceAsStream(resource)) {
+            Assert.assertNotNull(resource, in);
+            return JStackParser.parse(in);
+        }
+    }
+
+    private String read(String resource) throws IOException {
+        try (InputStream in = JStackParserTest.class.getClassLoader().getResourceAsStream(resource)) {
+            return new String(ByteStreams.toByteArray(in), Charsets.UTF_8);
+        }
+    }
+}
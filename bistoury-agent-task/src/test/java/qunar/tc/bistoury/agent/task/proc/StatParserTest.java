@@ -1,23 +1,36 @@
 package qunar.tc.bistoury.agent.task.proc;
 
 
+import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 /**
  * @author cai.wen
  * @date 19-1-17
  */
 public class StatParserTest {
+    /**
+     * proc/thread-stat 是一个线程的stat文件，线程名中带有空格和括号
+     */
     @Test
-    public void testParser() throws IOException {
-        System.out.println(StatParser.getInstance().parseCpuInfo());
-        System.out.println(StatParser.getInstance().parseProcessInfo(3552));
-        System.out.println(StatParser.getInstance().parseThreadInfo(3552, 22715));
-        System.out.println(StatParser.getInstance().parseThreadInfo(3552, 22445));
-        System.out.println(StatParser.getInstance().parseThreadInfo(3552, 3566));
-        System.out.println(StatParser.getInstance().parseThreadInfo(3552, 3638));
+    public void testParser() throws IOException, URISyntaxException {
+        Path statPath = Paths.get(StatParserTest.class.getClassLoader().getResource("proc/thread-stat").toURI());
+        ThreadState threadState = StatParser.getInstance().parseThreadInfo(22715, statPath);
+        Assert.assertEquals(22715, threadState.tid);
+        Assert.assertEquals('S', threadState.state);
+        Assert.assertEquals(250, threadState.userTime);
+        Assert.assertEquals(31, threadState.systemTime);
+    }
+
+    @Test
+    public void threadExited() throws IOException, URISyntaxException {
+        Path statPath = Paths.get(StatParserTest.class.getClassLoader().getResource("proc/thread-stat").toURI());
+        Assert.assertNull(StatParser.getInstance().parseThreadInfo(22716, statPath.resolveSibling("no-such-thread-stat")));
     }
 
     @Test
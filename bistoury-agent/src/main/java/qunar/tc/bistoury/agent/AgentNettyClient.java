@@ -72,7 +72,7 @@ class AgentNettyClient {
         List<TaskFactory> taskFactories = ImmutableList.copyOf(ServiceLoader.load(TaskFactory.class));
         final DefaultTaskStore taskStore = new DefaultTaskStore();
         TaskProcessor taskProcessor = new TaskProcessor(taskStore, taskFactories);
-        final RequestHandler requestHandler = new RequestHandler(ImmutableList.<Processor>of(new CancelProcessor(taskStore), new HeartbeatProcessor(), new MetaRefreshProcessor(), new MetaRefreshTipProcessor(), taskProcessor));
+        final RequestHandler requestHandler = new RequestHandler(ImmutableList.<Processor>of(new CancelProcessor(taskStore), new CreditProcessor(), new HeartbeatProcessor(), new MetaRefreshProcessor(), new MetaRefreshTipProcessor(), taskProcessor));
 
         final ConnectionManagerHandler connectionManagerHandler = new ConnectionManagerHandler();
 
@@ -21,6 +21,7 @@ import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.PropertyAccessor;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
@@ -31,6 +32,9 @@ import qunar.tc.bistoury.clientside.common.meta.MetaStore;
 import qunar.tc.bistoury.clientside.common.meta.MetaStores;
 import qunar.tc.bistoury.magic.classes.MagicUtils;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * 只按照field序列化对象到JSON数据。
  * 通过getter序列化可能调用到某些危险的getXXX方法。
@@ -72,21 +76,87 @@ public class DebugJsonWriter {
         MAPPER.getSerializerProvider().setNullKeySerializer(new DebugNullKeySerializer());
     }
 
-    public static String write(Object obj) {
+    /**
+     * 每个线程复用一个输出缓冲区，超过这个大小的缓冲区用完后不再保留，避免长期占用业务应用的内存
+     */
+    private static final int MAX_POOLED_BUFFER_SIZE = 256 * 1024;
+
+    private static final ThreadLocal<SizeLimitedOutputStream> BUFFER = new ThreadLocal<>();
+
+    /**
+     * 截断时返回的前缀最多这么多字节，前缀作为字符串会被再转义一次，还要给外面的JSON对象留出位置
+     */
+    private static final int MAX_TRUNCATED_PREFIX_SIZE = 64 * 1024;
+
+    private static final int TRUNCATED_ENVELOPE_SIZE = 128;
+
+    private static final byte[] WRITE_JSON_ERROR = "write-json-error".getBytes(Charsets.UTF_8);
+
+    /**
+     * @return UTF-8编码的JSON数据，超过大小限制时返回一个截断说明的JSON对象，
+     * 形如 {"truncated":true,"limitKb":10240,"prefix":"已经序列化的内容的开头"}，整个结果不超过大小限制
+     */
+    public static byte[] write(Object obj) {
         int maxSize = META_STORE.getIntProperty(DEBUG_JSON_LIMIT_KB, LENGTH_10MB_2_KB);
+        SizeLimitedOutputStream output = borrowBuffer(maxSize * 1024);
         try {
             MagicUtils.setMagicFlag();
-            SizeLimitedOutputStream sizeLimitedOutputStream = new SizeLimitedOutputStream(maxSize * 1024);
-            MAPPER.writeValue(sizeLimitedOutputStream, obj);
-            return new String(sizeLimitedOutputStream.toByteArray(), Charsets.UTF_8);
-        } catch (SizeLimitExceededException se) {
-            logger.warn("object size greater than {}kb", maxSize);
-            return "object size greater than " + maxSize + "kb";
+            MAPPER.writeValue(output, obj);
+            return output.toByteArray();
         } catch (Throwable e) {
+            if (output.isExceeded()) {
+                logger.warn("object size greater than {}kb", maxSize);
+                return truncated(output, maxSize);
+            }
             logger.warn("qdebug write json error", e);
-            return "write-json-error";
+            return WRITE_JSON_ERROR;
         } finally {
             MagicUtils.removeMagicFlag();
+            returnBuffer(output);
+        }
+    }
+
+    /**
+     * 截断的内容不是完整的JSON，作为字符串放进一个完整的JSON对象里返回，保证调用方总是拿到合法的JSON
+     * <p>
+     * 前缀里的引号和反斜杠再转义后会变成两倍长，所以前缀最多取限制的一半，并且不超过 {@link #MAX_TRUNCATED_PREFIX_SIZE}；
+     * 结果仍然超过限制时把前缀减半重试
+     */
+    private static byte[] truncated(SizeLimitedOutputStream output, int maxSize) {
+        final int limit = maxSize * 1024;
+        int prefixSize = Math.min(MAX_TRUNCATED_PREFIX_SIZE, (limit - TRUNCATED_ENVELOPE_SIZE) / 2);
+        try {
+            while (true) {
+                Map<String, Object> result = new LinkedHashMap<>();
+                result.put("truncated", true);
+                result.put("limitKb", maxSize);
+                result.put("prefix", output.toTruncatedString(prefixSize));
+                byte[] bytes = MAPPER.writeValueAsBytes(result);
+                if (bytes.length <= limit || prefixSize <= 0) {
+                    return bytes;
+                }
+                prefixSize /= 2;
+            }
+        } catch (JsonProcessingException e) {
+            logger.warn("qdebug write truncated json error", e);
+            return WRITE_JSON_ERROR;
+        }
+    }
+
+    private static SizeLimitedOutputStream borrowBuffer(int maxSize) {
+        SizeLimitedOutputStream output = BUFFER.get();
+        if (output == null) {
+            return new SizeLimitedOutputStream(maxSize);
+        }
+        //先从线程中取走，防止同一线程上嵌套的调用共用一个缓冲区
+        BUFFER.remove();
+        output.reset(maxSize);
+        return output;
+    }
+
+    private static void returnBuffer(SizeLimitedOutputStream output) {
+        if (output.capacity() <= MAX_POOLED_BUFFER_SIZE) {
+            BUFFER.set(output);
         }
     }
 }
@@ -109,13 +109,13 @@ public class DefaultSnapshotStore implements SnapshotStore {
             return;
         }
 
-        Map<String, String> localVariableRecords = Maps.newHashMapWithExpectedSize(localVariables.size());
+        Map<String, byte[]> localVariableRecords = Maps.newHashMapWithExpectedSize(localVariables.size());
         for (Map.Entry<String, Object> entry : localVariables.entrySet()) {
             localVariableRecords.put(entry.getKey(), DebugJsonWriter.write(entry.getValue()));
         }
 
         snapshot.setLocalVariables(localVariableRecords);
-        logger.debug("end put local variables, {}, {}", breakpointId, localVariableRecords);
+        logger.debug("end put local variables, {}, {}", breakpointId, snapshot.getLocalVariables());
     }
 
     @Override
@@ -127,13 +127,13 @@ public class DefaultSnapshotStore implements SnapshotStore {
             return;
         }
 
-        Map<String, String> fieldRecords = Maps.newHashMapWithExpectedSize(fields.size());
+        Map<String, byte[]> fieldRecords = Maps.newHashMapWithExpectedSize(fields.size());
         for (Map.Entry<String, Object> entry : fields.entrySet()) {
             fieldRecords.put(entry.getKey(), DebugJsonWriter.write(entry.getValue()));
         }
 
         snapshot.setFields(fieldRecords);
-        logger.debug("end put fields, {}, {}", breakpointId, fieldRecords);
+        logger.debug("end put fields, {}, {}", breakpointId, snapshot.getFields());
     }
 
     @Override
@@ -145,13 +145,13 @@ public class DefaultSnapshotStore implements SnapshotStore {
             return;
         }
 
-        Map<String, String> staticFieldRecords = Maps.newHashMapWithExpectedSize(staticFields.size());
+        Map<String, byte[]> staticFieldRecords = Maps.newHashMapWithExpectedSize(staticFields.size());
         for (Map.Entry<String, Object> entry : staticFields.entrySet()) {
             staticFieldRecords.put(entry.getKey(), DebugJsonWriter.write(entry.getValue()));
         }
 
         snapshot.setStaticFields(staticFieldRecords);
-        logger.debug("end put static fields, {}, {}", breakpointId, staticFieldRecords);
+        logger.debug("end put static fields, {}, {}", breakpointId, snapshot.getStaticFields());
     }
 
     @Override
@@ -163,9 +163,9 @@ public class DefaultSnapshotStore implements SnapshotStore {
             return;
         }
 
-        String stacktraceRecord = DebugJsonWriter.write(stacktrace);
+        byte[] stacktraceRecord = DebugJsonWriter.write(stacktrace);
         snapshot.setStacktrace(stacktraceRecord);
-        logger.debug("end fill stacktrace, {}, {}", breakpointId, stacktraceRecord);
+        logger.debug("end fill stacktrace, {}, {}", breakpointId, snapshot.getStacktrace());
     }
 
     @Override
@@ -17,33 +17,47 @@
 
 package qunar.tc.bistoury.attach.arthas.debug;
 
-import com.google.common.base.Optional;
 import com.google.common.base.Strings;
-import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Maps;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.taobao.middleware.logger.Logger;
 import qunar.tc.bistoury.attach.arthas.instrument.InstrumentClient;
 import qunar.tc.bistoury.attach.common.BistouryLoggger;
 import qunar.tc.bistoury.attach.file.FileOperateFactory;
 import qunar.tc.bistoury.attach.file.URLUtil;
+import qunar.tc.bistoury.common.NamedThreadFactory;
 import qunar.tc.bistoury.instrument.client.common.InstrumentInfo;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.instrument.Instrumentation;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLDecoder;
 import java.security.CodeSource;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
 /**
  * @author: leix.xie
  * @date: 2019/2/28 10:46
- * @describe：
+ * @describe：类信息在后台线程池中分批并行建立，每个jar包只打开一次，查询时会把之后新加载的类补充进来
  */
 public class JarDebugClient implements InstrumentClient {
 
@@ -51,12 +65,56 @@ public class JarDebugClient implements InstrumentClient {
 
     private static final String FILE_PROTOCOL = "file:";
 
-    private final Map<String, ClassInfo> class_classInfo;
+    private static final int INDEX_BATCH_SIZE = 1000;
+
+    private static final int MAX_INDEX_THREADS = 4;
+
+    /**
+     * 两次查找新加载的类的最小间隔
+     */
+    private static final long REFRESH_INTERVAL_MS = TimeUnit.SECONDS.toMillis(10);
+
+    private static final long QUERY_WAIT_SECONDS = 30;
+
+    private final Instrumentation instrumentation;
+
+    private final ListeningExecutorService indexExecutor;
+
+    private final ConcurrentMap<String, ClassInfo> class_classInfo = new ConcurrentHashMap<>();
+
+    private final Set<String> allClass = Collections.unmodifiableSet(class_classInfo.keySet());
+
+    /**
+     * 已经处理过的类，包括找不到类信息的类
+     */
+    private final Set<String> indexedClass = Sets.newConcurrentHashSet();
+
+    private final LoadingCache<String, JarInfo> jarInfos = CacheBuilder.newBuilder().build(new CacheLoader<String, JarInfo>() {
+        @Override
+        public JarInfo load(String path) throws Exception {
+            try (JarFile jarFile = new JarFile(path)) {
+                return new JarInfo(jarFile.getName(), getMavenInfo(jarFile));
+            }
+        }
+    });
+
+    private final Object refreshLock = new Object();
+
+    private ListenableFuture<?> refreshFuture;
+
+    private long lastRefreshTime;
 
     JarDebugClient(InstrumentInfo instrumentInfo) {
         logger.info("start init jar debugg client");
+        this.instrumentation = instrumentInfo.getInstrumentation();
+        int threads = Math.max(1, Math.min(MAX_INDEX_THREADS, Runtime.getRuntime().availableProcessors() / 2));
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.MINUTES,
+                new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("jar-debug-index", true));
+        executor.allowCoreThreadTimeOut(true);
+        this.indexExecutor = MoreExecutors.listeningDecorator(executor);
         try {
-            class_classInfo = initAllClassInfo(instrumentInfo);
+            //spring boot项目的jar包在建立类信息时解压，其它功能会用到解压后的目录，所以启动时就开始建立
+            refresh();
             logger.info("success init jar decompiler client");
         } catch (Exception e) {
             destroy();
@@ -65,52 +123,97 @@ public class JarDebugClient implements InstrumentClient {
         }
     }
 
-    private Map<String, ClassInfo> initAllClassInfo(InstrumentInfo instrumentInfo) {
-        Class[] loadedClasses = instrumentInfo.getInstrumentation().getAllLoadedClasses();
-        Map<String, ClassInfo> classInfoMap = Maps.newHashMap();
-        Map<String, JarFile> jarFileMap = new HashMap<>();
-        Map<String, Optional<Properties>> mavenInfoMap = new HashMap<>();
-        try {
-            for (Class clazz : loadedClasses) {
-                final String clazzName = clazz.getName();
-                if (Strings.isNullOrEmpty(clazzName) || clazzName.startsWith("[") || clazzName.indexOf("$") >= 0) {
-                    continue;
-                }
-                final ClassLoader classLoader = clazz.getClassLoader();
-                if (classLoader == null || InstrumentInfo.IGNORE_CLASS.contains(classLoader.getClass().getName())) {
-                    continue;
-                }
-                ClassInfo classInfo = getClassInfo(clazz, jarFileMap, mavenInfoMap);
-                if (classInfo != null) {
-                    classInfoMap.put(clazzName, classInfo);
-                }
+    private ListenableFuture<?> refresh() {
+        synchronized (refreshLock) {
+            long now = System.currentTimeMillis();
+            if (refreshFuture != null && (!refreshFuture.isDone() || now - lastRefreshTime < REFRESH_INTERVAL_MS)) {
+                return refreshFuture;
             }
-            return ImmutableMap.copyOf(classInfoMap);
-        } finally {
-            for (Map.Entry<String, JarFile> entry : jarFileMap.entrySet()) {
-                try {
-                    entry.getValue().close();
-                } catch (IOException e) {
-                    logger.error("", "close jar file error，{}", entry.getKey(), e);
-                }
+            lastRefreshTime = now;
+            refreshFuture = indexNewClasses();
+            return refreshFuture;
+        }
+    }
+
+    private ListenableFuture<?> indexNewClasses() {
+        Class[] loadedClasses = instrumentation.getAllLoadedClasses();
+        List<ListenableFuture<?>> futures = Lists.newArrayList();
+        List<Class> batch = Lists.newArrayListWithCapacity(INDEX_BATCH_SIZE);
+        for (Class clazz : loadedClasses) {
+            final String clazzName = clazz.getName();
+            if (Strings.isNullOrEmpty(clazzName) || clazzName.startsWith("[") || clazzName.indexOf("$") >= 0) {
+                continue;
+            }
+            final ClassLoader classLoader = clazz.getClassLoader();
+            if (classLoader == null || InstrumentInfo.IGNORE_CLASS.contains(classLoader.getClass().getName())) {
+                continue;
+            }
+            if (!indexedClass.add(clazzName)) {
+                continue;
             }
+            batch.add(clazz);
+            if (batch.size() >= INDEX_BATCH_SIZE) {
+                futures.add(indexExecutor.submit(new IndexTask(batch)));
+                batch = Lists.newArrayListWithCapacity(INDEX_BATCH_SIZE);
+            }
+        }
+        if (!batch.isEmpty()) {
+            futures.add(indexExecutor.submit(new IndexTask(batch)));
+        }
+        return Futures.successfulAsList(futures);
+    }
+
+    private void awaitRefresh() {
+        try {
+            refresh().get(QUERY_WAIT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (TimeoutException e) {
+            logger.warn("wait jar debug class index timeout, return classes indexed");
+        } catch (ExecutionException e) {
+            logger.error("", "jar debug class index error", e);
         }
     }
 
     public Set<String> getAllClass() {
-        return ImmutableSet.copyOf(class_classInfo.keySet());
+        awaitRefresh();
+        return allClass;
     }
 
     public ClassInfo getClassPath(final String className) {
-        return class_classInfo.get(className);
+        ClassInfo classInfo = class_classInfo.get(className);
+        if (classInfo == null) {
+            awaitRefresh();
+            classInfo = class_classInfo.get(className);
+        }
+        return classInfo;
     }
 
-    private ClassInfo getClassInfo(Class clazz, Map<String, JarFile> jarFileMap, Map<String, Optional<Properties>> mavenInfoMap) {
+    private class IndexTask implements Runnable {
+
+        private final List<Class> classes;
+
+        private IndexTask(List<Class> classes) {
+            this.classes = classes;
+        }
+
+        @Override
+        public void run() {
+            for (Class clazz : classes) {
+                ClassInfo classInfo = getClassInfo(clazz);
+                if (classInfo != null) {
+                    class_classInfo.put(clazz.getName(), classInfo);
+                }
+            }
+        }
+    }
+
+    private ClassInfo getClassInfo(Class clazz) {
         final String classPath = clazz.getName().replace('.', '/') + ".class";
         try {
-            ClassInfo classInfo = getClassInfoBySource(clazz, classPath, jarFileMap, mavenInfoMap);
+            ClassInfo classInfo = getClassInfoBySource(clazz, classPath);
             if (classInfo == null) {
-                classInfo = getClassInfoByDomain(clazz, classPath, jarFileMap, mavenInfoMap);
+                classInfo = getClassInfoByDomain(clazz, classPath);
             }
 
             return classInfo;
@@ -120,25 +223,25 @@ public class JarDebugClient implements InstrumentClient {
         }
     }
 
-    private ClassInfo getClassInfoBySource(Class clazz, final String classPath, Map<String, JarFile> jarFileMap, Map<String, Optional<Properties>> mavenInfoMap) {
+    private ClassInfo getClassInfoBySource(Class clazz, final String classPath) {
         URL url = ClassLoader.getSystemResource(classPath);
         if (url != null) {
-            return generateClassInfo(url, clazz, jarFileMap, mavenInfoMap);
+            return generateClassInfo(url, clazz);
         }
         url = clazz.getClassLoader().getResource(classPath);
         if (url != null) {
-            return generateClassInfo(url, clazz, jarFileMap, mavenInfoMap);
+            return generateClassInfo(url, clazz);
         }
         return null;
     }
 
-    private ClassInfo getClassInfoByDomain(Class clazz, final String classPath, Map<String, JarFile> jarFileMap, Map<String, Optional<Properties>> mavenInfoMap) {
+    private ClassInfo getClassInfoByDomain(Class clazz, final String classPath) {
         CodeSource source = clazz.getProtectionDomain().getCodeSource();
         if (source != null) {
             URL url = source.getLocation();
             if (url != null) {
                 String ur = url.toString();
-                ClassInfo classInfo = generateClassInfo(url, clazz, jarFileMap, mavenInfoMap);
+                ClassInfo classInfo = generateClassInfo(url, clazz);
                 if (ur.endsWith(".jar")) {
                     classInfo.setClassPath(ur + "!" + File.separator + classPath);
                 } else {
@@ -150,7 +253,7 @@ public class JarDebugClient implements InstrumentClient {
         return null;
     }
 
-    private ClassInfo generateClassInfo(URL url, final Class clazz, Map<String, JarFile> jarFileMap, Map<String, Optional<Properties>> mavenInfoMap) {
+    private ClassInfo generateClassInfo(URL url, final Class clazz) {
         final ClassInfo classInfo = new ClassInfo();
         String newUrl = FileOperateFactory.replaceJarWithUnPackDir(url.toString());
         classInfo.setClassPath(newUrl);
@@ -171,28 +274,11 @@ public class JarDebugClient implements InstrumentClient {
                 }
                 path = URLUtil.removeProtocol(path);
 
-                JarFile jarFile = jarFileMap.get(path);
-                if (jarFile == null) {
-                    jarFile = new JarFile(path);
-                    jarFileMap.put(path, jarFile);
-                }
-
-                classInfo.setJarName(jarFile.getName());
-                Optional<Properties> mavenInfo = mavenInfoMap.get(path);
-                if (mavenInfo == null) {
-                    Properties properties = getMavenInfo(jarFile);
-                    if (properties != null) {
-                        classInfo.setMavenInfo(properties);
-                        classInfo.setMaven(true);
-                        mavenInfoMap.put(path, Optional.of(properties));
-                    } else {
-                        mavenInfoMap.put(path, Optional.<Properties>absent());
-                    }
-                } else {
-                    if (mavenInfo.isPresent()) {
-                        classInfo.setMavenInfo(mavenInfo.get());
-                        classInfo.setMaven(true);
-                    }
+                JarInfo jarInfo = jarInfos.getUnchecked(path);
+                classInfo.setJarName(jarInfo.jarName);
+                if (jarInfo.mavenInfo != null) {
+                    classInfo.setMavenInfo(jarInfo.mavenInfo);
+                    classInfo.setMaven(true);
                 }
             }
             return classInfo;
@@ -228,5 +314,18 @@ public class JarDebugClient implements InstrumentClient {
 
     @Override
     public void destroy() {
+        if (indexExecutor != null) {
+            indexExecutor.shutdownNow();
+        }
+    }
+
+    private static class JarInfo {
+        private final String jarName;
+        private final Properties mavenInfo;
+
+        private JarInfo(String jarName, Properties mavenInfo) {
+            this.jarName = jarName;
+            this.mavenInfo = mavenInfo;
+        }
     }
 }
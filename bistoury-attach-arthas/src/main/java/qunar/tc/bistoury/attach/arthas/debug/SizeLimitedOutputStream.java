@@ -17,52 +17,128 @@
 
 package qunar.tc.bistoury.attach.arthas.debug;
 
-import java.io.ByteArrayOutputStream;
+import com.google.common.base.Charsets;
+
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
 
 /**
  * 有长度限制的OutputStream
+ * <p>
+ * 缓冲区按需增长，不会一开始就按上限分配；超过上限时保留上限以内已经写入的内容并抛出 {@link SizeLimitExceededException}，
+ * 可以通过 {@link #reset(int)} 重复使用
  * Created by cai.wen on 18-12-12.
  */
 public class SizeLimitedOutputStream extends OutputStream {
-    private final int maxSize;
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 1024;
+
+    private int maxSize;
     private int size;
-    private final ByteArrayOutputStream byteArrayOutputStream;
+    private boolean exceeded;
+    private byte[] buf;
 
     public SizeLimitedOutputStream(int maxSize) {
+        this(maxSize, DEFAULT_INITIAL_CAPACITY);
+    }
+
+    public SizeLimitedOutputStream(int maxSize, int initialCapacity) {
+        this.maxSize = maxSize;
+        this.buf = new byte[Math.max(1, Math.min(initialCapacity, maxSize))];
+    }
+
+    /**
+     * 清空已写入的内容并设置新的长度上限，已经分配的缓冲区会被保留
+     */
+    public void reset(int maxSize) {
         this.maxSize = maxSize;
-        byteArrayOutputStream = new ByteArrayOutputStream(maxSize);
+        this.size = 0;
+        this.exceeded = false;
     }
 
     @Override
     public void write(byte[] b, int off, int len) throws IOException {
-        size += len;
-        checkSize();
-        byteArrayOutputStream.write(b, off, len);
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        final int writable = Math.min(len, maxSize - size);
+        if (writable > 0) {
+            ensureCapacity(size + writable);
+            System.arraycopy(b, off, buf, size, writable);
+            size += writable;
+        }
+        if (writable < len) {
+            exceeded();
+        }
     }
 
     @Override
     public void write(byte[] b) throws IOException {
-        size += b.length;
-        checkSize();
-        byteArrayOutputStream.write(b);
+        write(b, 0, b.length);
     }
 
     @Override
     public void write(int b) throws IOException {
-        size++;
-        checkSize();
-        byteArrayOutputStream.write(b);
+        if (size >= maxSize) {
+            exceeded();
+        }
+        ensureCapacity(size + 1);
+        buf[size++] = (byte) b;
     }
 
-    private void checkSize() throws SizeLimitExceededException {
-        if (size > maxSize) {
-            throw new SizeLimitExceededException();
+    private void ensureCapacity(int minCapacity) {
+        if (minCapacity > buf.length) {
+            final int newCapacity = (int) Math.min(Math.max((long) buf.length << 1, minCapacity), maxSize);
+            buf = Arrays.copyOf(buf, newCapacity);
         }
     }
 
-    public synchronized byte toByteArray()[] {
-        return byteArrayOutputStream.toByteArray();
+    private void exceeded() throws SizeLimitExceededException {
+        exceeded = true;
+        throw new SizeLimitExceededException();
+    }
+
+    public boolean isExceeded() {
+        return exceeded;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 当前缓冲区的大小，不是已写入内容的长度
+     */
+    public int capacity() {
+        return buf.length;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, size);
+    }
+
+    /**
+     * 把已写入内容的前maxLength个字节当作被截断的UTF-8文本返回，去掉末尾不完整的字符
+     */
+    public String toTruncatedString(int maxLength) {
+        final int end = Math.max(0, Math.min(size, maxLength));
+        return new String(buf, 0, utf8Boundary(end), Charsets.UTF_8);
+    }
+
+    private int utf8Boundary(int end) {
+        //从末尾往前找最后一个字符的首字节，最多回退3个字节
+        int start = end - 1;
+        while (start >= 0 && start > end - 4 && (buf[start] & 0xC0) == 0x80) {
+            --start;
+        }
+        if (start < 0) {
+            return end;
+        }
+
+        final int lead = buf[start] & 0xFF;
+        final int charLength = lead < 0x80 ? 1 : lead >= 0xF0 ? 4 : lead >= 0xE0 ? 3 : 2;
+        return start + charLength <= end ? end : start;
     }
 }
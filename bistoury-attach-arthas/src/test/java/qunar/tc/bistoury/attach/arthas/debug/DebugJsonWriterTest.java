@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2019 Qunar, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package qunar.tc.bistoury.attach.arthas.debug;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import qunar.tc.bistoury.clientside.common.meta.MetaStores;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class DebugJsonWriterTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Before
+    public void before() {
+        MetaStores.getMetaStore().update(ImmutableMap.of("debug.json.limit.kb", "1"));
+    }
+
+    @After
+    public void after() {
+        MetaStores.getMetaStore().update(Collections.<String, String>emptyMap());
+    }
+
+    @Test
+    public void testSmallValue() throws Exception {
+        Map<String, Object> value = new LinkedHashMap<>();
+        value.put("name", "bistoury");
+        value.put("count", 3);
+
+        JsonNode node = MAPPER.readTree(DebugJsonWriter.write(value));
+        Assert.assertEquals("bistoury", node.get("name").asText());
+        Assert.assertEquals(3, node.get("count").asInt());
+        Assert.assertNull(node.get("truncated"));
+    }
+
+    @Test
+    public void testTruncatedNestedValue() throws Exception {
+        List<Object> value = new ArrayList<>();
+        for (int i = 0; i < 200; ++i) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("index", i);
+            item.put("tags", new String[]{"a\"b", "c\\d"});
+            value.add(item);
+        }
+
+        JsonNode node = MAPPER.readTree(DebugJsonWriter.write(value));
+        Assert.assertTrue(node.get("truncated").asBoolean());
+        Assert.assertEquals(1, node.get("limitKb").asInt());
+        String prefix = node.get("prefix").asText();
+        //1kb的限制，去掉外层对象预留的128字节后再留一半给转义
+        Assert.assertEquals(448, prefix.length());
+        Assert.assertTrue(prefix.startsWith("[{\"index\":0,\"tags\":[\"a\\\"b\",\"c\\\\d\"]}"));
+    }
+
+    @Test
+    public void testTruncatedInsideMultiByteCharacter() throws Exception {
+        //每个汉字3个字节，引号和ab之后448字节的前缀落在第149个汉字中间
+        String value = "ab" + Strings.repeat("中", 1000);
+
+        JsonNode node = MAPPER.readTree(DebugJsonWriter.write(value));
+        Assert.assertTrue(node.get("truncated").asBoolean());
+        Assert.assertEquals("\"ab" + Strings.repeat("中", 148), node.get("prefix").asText());
+    }
+
+    @Test
+    public void testTruncatedOutputWithinLimit() throws Exception {
+        //引号和反斜杠在前缀中已经转义过一次，放进外层JSON时会再转义一次
+        byte[] bytes = DebugJsonWriter.write(Strings.repeat("\"\\", 5000));
+        Assert.assertTrue(String.valueOf(bytes.length), bytes.length <= 1024);
+
+        JsonNode node = MAPPER.readTree(bytes);
+        Assert.assertTrue(node.get("truncated").asBoolean());
+        Assert.assertTrue(node.get("prefix").asText().startsWith("\"\\\"\\\\"));
+    }
+
+    @Test
+    public void testTruncatedPrefixIsCapped() throws Exception {
+        MetaStores.getMetaStore().update(ImmutableMap.of("debug.json.limit.kb", "1024"));
+
+        byte[] bytes = DebugJsonWriter.write(Strings.repeat("\"", 1024 * 1024));
+        Assert.assertTrue(String.valueOf(bytes.length), bytes.length <= 1024 * 1024);
+
+        JsonNode node = MAPPER.readTree(bytes);
+        Assert.assertTrue(node.get("truncated").asBoolean());
+        Assert.assertEquals(64 * 1024, node.get("prefix").asText().length());
+    }
+}
@@ -42,6 +42,8 @@ public class JarFileServiceWrapper {
 
     private static final AtomicBoolean STARTED = new AtomicBoolean(false);
 
+    private static final Object UNPACK_LOCK = new Object();
+
     public JarFileServiceWrapper() {
 
     }
@@ -54,10 +56,13 @@ public class JarFileServiceWrapper {
      */
     public String getJarPath(final String jarFile) {
         File file = new File(JarStorePathUtil.getJarStorePath());
-        if (!file.exists() || !file.isDirectory() || !STARTED.get()) {
-            deleteDirectory(file);
-            unPackJar(jarFile, file);
-            STARTED.compareAndSet(false, true);
+        //可能被多个线程同时调用，解压过程中不能被其它线程删除
+        synchronized (UNPACK_LOCK) {
+            if (!file.exists() || !file.isDirectory() || !STARTED.get()) {
+                deleteDirectory(file);
+                unPackJar(jarFile, file);
+                STARTED.compareAndSet(false, true);
+            }
         }
         return file.getPath();
     }
@@ -25,8 +25,11 @@ import qunar.tc.bistoury.commands.arthas.TelnetConstants;
 import qunar.tc.bistoury.common.BistouryConstants;
 
 import java.io.IOException;
+import java.util.concurrent.Callable;
 
 /**
+ * telnet连接从{@link TelnetPool}中获取，已经attach到目标进程时不加锁，只有需要attach时才串行执行
+ *
  * @author zhenyu.nie created on 2018 2018/10/15 19:07
  */
 public abstract class AbstractTelnetStore implements TelnetStore {
@@ -35,11 +38,9 @@ public abstract class AbstractTelnetStore implements TelnetStore {
 
     private static final int MAX_ILLEGAL_VERSION_COUNT = 2;
 
-    private enum CheckVersion {
-        check, notCheck
-    }
+    private final TelnetPool pool = new TelnetPool();
 
-    private ArthasEntity arthasEntity;
+    private volatile ArthasEntity arthasEntity;
 
     protected AbstractTelnetStore() {
 
@@ -50,8 +51,7 @@ public abstract class AbstractTelnetStore implements TelnetStore {
         int illegalVersionCount = 0;
         while (illegalVersionCount < MAX_ILLEGAL_VERSION_COUNT) {
             try {
-                TelnetClient client = doGetTelnet(pid);
-                return createTelnet(client, CheckVersion.check);
+                return checkVersion(borrowTelnet(pid));
             } catch (IllegalVersionException e) {
                 sleepSec(3);
                 illegalVersionCount++;
@@ -69,10 +69,20 @@ public abstract class AbstractTelnetStore implements TelnetStore {
         }
     }
 
-    private Telnet createTelnet(TelnetClient client, CheckVersion checkVersion) throws IOException {
-        Telnet telnet = doCreateTelnet(client);
+    private Telnet borrowTelnet(final int pid) throws Exception {
+        ArthasEntity entity = this.arthasEntity;
+        boolean attached = entity != null && entity.getPid() == pid;
+        return pool.borrow(attached, new Callable<Telnet>() {
+            @Override
+            public Telnet call() throws Exception {
+                return doCreateTelnet(doGetTelnet(pid));
+            }
+        });
+    }
+
+    private Telnet checkVersion(Telnet telnet) {
         String version = telnet.getVersion();
-        if (checkVersion == CheckVersion.check && versionIllegal(version)) {
+        if (versionIllegal(version)) {
             return doWithIllegalVersion(telnet, version);
         } else {
             return telnet;
@@ -97,7 +107,18 @@ public abstract class AbstractTelnetStore implements TelnetStore {
 
     protected abstract Telnet doCreateTelnet(TelnetClient client) throws IOException;
 
-    private synchronized TelnetClient doGetTelnet(int pid) {
+    private TelnetClient doGetTelnet(int pid) {
+        ArthasEntity entity = this.arthasEntity;
+        if (entity != null && entity.getPid() == pid) {
+            TelnetClient client = tryGetClient();
+            if (client != null) {
+                return client;
+            }
+        }
+        return doGetTelnetWithLock(pid);
+    }
+
+    private synchronized TelnetClient doGetTelnetWithLock(int pid) {
         TelnetClient client = tryGetClient();
         if (client != null) {
             return client;
@@ -125,11 +146,16 @@ public abstract class AbstractTelnetStore implements TelnetStore {
 
     @Override
     public Telnet tryGetTelnet() throws Exception {
-        TelnetClient client = tryGetClient();
-        if (client != null) {
-            return createTelnet(client, CheckVersion.notCheck);
-        }
-        return null;
+        return pool.borrow(true, new Callable<Telnet>() {
+            @Override
+            public Telnet call() throws Exception {
+                TelnetClient client = tryGetClient();
+                if (client != null) {
+                    return doCreateTelnet(client);
+                }
+                return null;
+            }
+        });
     }
 
     private void resetClient() {
@@ -147,6 +173,7 @@ public abstract class AbstractTelnetStore implements TelnetStore {
     private TelnetClient forceCreateClient(int pid) throws IOException {
         ArthasEntity arthasEntity = new ArthasEntity(pid);
         arthasEntity.start();
+        pool.clear();
         TelnetClient client = createClient();
         this.arthasEntity = arthasEntity;
         return client;
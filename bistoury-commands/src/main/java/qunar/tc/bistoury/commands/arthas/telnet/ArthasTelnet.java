@@ -37,10 +37,13 @@ public class ArthasTelnet extends Telnet {
         byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
         while (true) {
             int size = in.read(buffer);
-            if (size != -1) {
+            if (size == -1) {
+                throw new IllegalStateException("read data end, not complete data");
+            } else if (size > 0) {
                 String data = new String(buffer, 0, size, charset);
                 handler.handle(data);
                 if (data.trim().endsWith(PROMPT)) {
+                    readCompleted();
                     break;
                 }
             }
@@ -52,6 +52,7 @@ public class DebugTelnet extends Telnet {
                 }
                 boolean end = resultProcessor.process(buffer, 0, size);
                 if (end) {
+                    readCompleted();
                     break;
                 }
             }
@@ -70,24 +71,15 @@ public class DebugTelnet extends Telnet {
             this.delegate = delegate;
         }
 
+        /**
+         * 连接不可写或者proxy没有给足credit时，delegate会阻塞到可以发送为止
+         */
         public void write(byte[] data) {
-            while (true) {
-                if (!delegate.isActive()) {
-                    logger.warn("send channel is not active");
-                    throw new IllegalStateException("send channel is not active");
-                } else if (delegate.isWritable()) {
-                    delegate.handle(data);
-                    break;
-                } else {
-                    try {
-                        Thread.sleep(100);
-                    } catch (InterruptedException e) {
-                        logger.warn("", e);
-                        Thread.currentThread().interrupt();
-                        break;
-                    }
-                }
+            if (!delegate.isActive()) {
+                logger.warn("send channel is not active");
+                throw new IllegalStateException("send channel is not active");
             }
+            delegate.handle(data);
         }
     }
 
@@ -19,6 +19,7 @@ package qunar.tc.bistoury.commands.arthas.telnet;
 
 import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.io.CharSource;
 import org.apache.commons.net.telnet.TelnetClient;
 import qunar.tc.bistoury.agent.common.ResponseHandler;
@@ -30,6 +31,8 @@ import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.nio.charset.Charset;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @author zhenyu.nie created on 2018 2018/10/15 19:01
@@ -44,6 +47,11 @@ public abstract class Telnet {
 
     protected static final byte PROMPT_BYTE = '$';
 
+    /**
+     * 会一直输出直到用户取消的命令
+     */
+    private static final Set<String> STREAMING_COMMANDS = ImmutableSet.of("watch", "trace", "monitor", "stack", "tt", "dashboard");
+
     private final TelnetClient client;
 
     protected final InputStream in;
@@ -52,6 +60,24 @@ public abstract class Telnet {
 
     private String version;
 
+    private TelnetPool pool;
+
+    private int generation;
+
+    private final AtomicBoolean borrowed = new AtomicBoolean(false);
+
+    /**
+     * 上一个命令已经完整读到提示符，连接可以继续给下一个命令使用
+     */
+    private volatile boolean reusable = true;
+
+    private volatile long lastUsedTime = System.currentTimeMillis();
+
+    /**
+     * 正在执行持续输出的命令，占用的是连接池中单独的名额
+     */
+    private volatile boolean streaming = false;
+
     public Telnet(TelnetClient client) throws IOException {
         this.client = client;
         this.in = client.getInputStream();
@@ -59,12 +85,57 @@ public abstract class Telnet {
         this.version = readVersionUtilPrompt();
     }
 
+    void attach(TelnetPool pool, int generation) {
+        this.pool = pool;
+        this.generation = generation;
+    }
+
+    void borrowed() {
+        borrowed.set(true);
+    }
+
+    boolean isHealthy() {
+        try {
+            return client.isAvailable() && in.available() == 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    long getLastUsedTime() {
+        return lastUsedTime;
+    }
+
+    boolean isStreaming() {
+        return streaming;
+    }
+
+    void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
     public void write(String command) throws Exception {
+        reusable = false;
+        if (pool != null && BistouryConstants.SHUTDOWN_COMMAND.equals(command)) {
+            pool.clear();
+        }
+        if (pool != null && borrowed.get() && isStreamingCommand(command)) {
+            pool.startStreaming(this);
+        }
         out.write(command);
         out.newLine();
         out.flush();
     }
 
+    private static boolean isStreamingCommand(String command) {
+        String name = command.trim();
+        int end = name.indexOf(' ');
+        if (end >= 0) {
+            name = name.substring(0, end);
+        }
+        return STREAMING_COMMANDS.contains(name);
+    }
+
     private String readVersionUtilPrompt() throws IOException {
         byte[] b = new byte[DEFAULT_BUFFER_SIZE];
         StringBuilder sb = new StringBuilder();
@@ -103,7 +174,34 @@ public abstract class Telnet {
 
     public abstract void read(String command, ResponseHandler responseHandler) throws Exception;
 
+    /**
+     * 读到命令结束的提示符以后调用
+     */
+    protected void readCompleted() {
+        reusable = true;
+    }
+
+    /**
+     * 命令完整结束的连接放回池中，否则关闭连接
+     */
     public void close() {
+        if (pool == null) {
+            disconnect();
+            return;
+        }
+
+        if (!borrowed.compareAndSet(true, false)) {
+            return;
+        }
+        lastUsedTime = System.currentTimeMillis();
+        if (reusable) {
+            pool.release(this, generation);
+        } else {
+            pool.discard(this);
+        }
+    }
+
+    void disconnect() {
         try {
             client.disconnect();
         } catch (Exception e) {
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2019 Qunar, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package qunar.tc.bistoury.commands.arthas.telnet;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 复用已经读过版本信息的telnet连接，省掉每个命令建立连接和握手的开销
+ * <p>
+ * 命令正常读到提示符的连接才会放回池中；空闲超过{@link #IDLE_TIMEOUT_MS}的连接会被关闭，避免被arthas的会话超时断开；
+ * 同时在用的连接数不超过{@link #MAX_ACTIVE}。重新attach或者shutdown以后，之前的连接都不再复用
+ * <p>
+ * watch、trace这类命令会一直占用连接直到用户取消，写入这类命令时连接改为占用单独的{@link #MAX_STREAMING}个名额，
+ * 不会让普通命令拿不到连接
+ */
+class TelnetPool {
+
+    private static final int MAX_ACTIVE = 16;
+
+    private static final int MAX_STREAMING = 16;
+
+    private static final int MAX_IDLE = 4;
+
+    private static final long IDLE_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final long BORROW_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(30);
+
+    private final int maxActive;
+
+    private final int maxStreaming;
+
+    private final long borrowTimeoutMs;
+
+    private final Semaphore active;
+
+    private final Semaphore streaming;
+
+    private final Deque<Telnet> idle = new ArrayDeque<>();
+
+    private int generation = 0;
+
+    TelnetPool() {
+        this(MAX_ACTIVE, MAX_STREAMING, BORROW_TIMEOUT_MS);
+    }
+
+    TelnetPool(int maxActive, int maxStreaming, long borrowTimeoutMs) {
+        this.maxActive = maxActive;
+        this.maxStreaming = maxStreaming;
+        this.borrowTimeoutMs = borrowTimeoutMs;
+        this.active = new Semaphore(maxActive);
+        this.streaming = new Semaphore(maxStreaming);
+    }
+
+    /**
+     * @param reuseIdle 是否可以使用空闲的连接
+     * @param factory   没有可用的空闲连接时创建新连接，返回null表示创建不了
+     */
+    Telnet borrow(boolean reuseIdle, Callable<Telnet> factory) throws Exception {
+        if (!active.tryAcquire(borrowTimeoutMs, TimeUnit.MILLISECONDS)) {
+            throw new IllegalStateException("too many arthas telnet sessions in use, max " + maxActive);
+        }
+
+        try {
+            Telnet telnet = reuseIdle ? pollIdle() : null;
+            if (telnet == null) {
+                telnet = factory.call();
+                if (telnet == null) {
+                    active.release();
+                    return null;
+                }
+                telnet.attach(this, currentGeneration());
+            }
+            telnet.borrowed();
+            return telnet;
+        } catch (Throwable e) {
+            active.release();
+            throw e;
+        }
+    }
+
+    /**
+     * 连接开始执行持续输出的命令，把占用的名额从普通连接换到持续输出的连接
+     */
+    void startStreaming(Telnet telnet) throws InterruptedException {
+        if (telnet.isStreaming()) {
+            return;
+        }
+        if (!streaming.tryAcquire(borrowTimeoutMs, TimeUnit.MILLISECONDS)) {
+            throw new IllegalStateException("too many arthas streaming sessions in use, max " + maxStreaming);
+        }
+        telnet.setStreaming(true);
+        active.release();
+    }
+
+    private synchronized int currentGeneration() {
+        return generation;
+    }
+
+    private Telnet pollIdle() {
+        long now = System.currentTimeMillis();
+        while (true) {
+            Telnet telnet;
+            synchronized (this) {
+                evictExpired(now);
+                telnet = idle.pollFirst();
+            }
+            if (telnet == null) {
+                return null;
+            }
+            if (telnet.isHealthy()) {
+                return telnet;
+            }
+            telnet.disconnect();
+        }
+    }
+
+    private void evictExpired(long now) {
+        Iterator<Telnet> iterator = idle.descendingIterator();
+        while (iterator.hasNext()) {
+            Telnet telnet = iterator.next();
+            if (now - telnet.getLastUsedTime() < IDLE_TIMEOUT_MS) {
+                return;
+            }
+            iterator.remove();
+            telnet.disconnect();
+        }
+    }
+
+    void release(Telnet telnet, int generation) {
+        Semaphore permits = releasePermits(telnet);
+        try {
+            synchronized (this) {
+                if (generation == this.generation && idle.size() < MAX_IDLE) {
+                    idle.addFirst(telnet);
+                    return;
+                }
+            }
+            telnet.disconnect();
+        } finally {
+            permits.release();
+        }
+    }
+
+    void discard(Telnet telnet) {
+        Semaphore permits = releasePermits(telnet);
+        try {
+            telnet.disconnect();
+        } finally {
+            permits.release();
+        }
+    }
+
+    private Semaphore releasePermits(Telnet telnet) {
+        if (telnet.isStreaming()) {
+            telnet.setStreaming(false);
+            return streaming;
+        }
+        return active;
+    }
+
+    void clear() {
+        synchronized (this) {
+            generation++;
+            for (Telnet telnet : idle) {
+                telnet.disconnect();
+            }
+            idle.clear();
+        }
+    }
+}
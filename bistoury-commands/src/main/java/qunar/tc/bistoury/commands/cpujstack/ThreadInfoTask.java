@@ -25,7 +25,9 @@ import com.google.common.util.concurrent.ListeningExecutorService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qunar.tc.bistoury.agent.common.ResponseHandler;
+import qunar.tc.bistoury.agent.common.cpujstack.JStackDump;
 import qunar.tc.bistoury.agent.common.cpujstack.KvUtils;
+import qunar.tc.bistoury.agent.common.cpujstack.StackDictionary;
 import qunar.tc.bistoury.agent.common.cpujstack.ThreadInfo;
 import qunar.tc.bistoury.agent.common.kv.KvDb;
 import qunar.tc.bistoury.common.JacksonSerializer;
@@ -55,14 +57,17 @@ public class ThreadInfoTask implements Task {
 
     private final KvDb kvDb;
 
+    private final StackDictionary stackDictionary;
+
     private final ResponseHandler handler;
 
     private final String time;
 
-    public ThreadInfoTask(String id, long maxRunningMs, KvDb kvDb, ResponseHandler handler, String time) {
+    public ThreadInfoTask(String id, long maxRunningMs, KvDb kvDb, StackDictionary stackDictionary, ResponseHandler handler, String time) {
         this.id = id;
         this.maxRunningMs = maxRunningMs;
         this.kvDb = kvDb;
+        this.stackDictionary = stackDictionary;
         this.handler = handler;
         this.time = time;
     }
@@ -90,10 +95,10 @@ public class ThreadInfoTask implements Task {
                 if (!Strings.isNullOrEmpty(threadInfoStr)) {
                     threadInfo = JacksonSerializer.deSerialize(threadInfoStr, TYPE_REFERENCE);
                 }
+                stackDictionary.decompress(threadInfo);
                 addMomentCpuTimeInfo(threadInfo, time);
                 map.put("threadInfo", threadInfo);
-                String jstack = kvDb.get(KvUtils.getJStackResultKey(time));
-                map.put("jstack", Strings.nullToEmpty(jstack));
+                map.put("jstack", getJStack(threadInfo));
                 handler.handle(JacksonSerializer.serializeToBytes(map));
                 return null;
             }
@@ -101,6 +106,20 @@ public class ThreadInfoTask implements Task {
         return future;
     }
 
+    /**
+     * 新版本不再单独保存完整的jstack结果，由头部、按原顺序排列的各线程栈和尾部拼接得到
+     */
+    private String getJStack(Map<String, ThreadInfo> threadInfo) {
+        String jstack = kvDb.get(KvUtils.getJStackResultKey(time));
+        if (jstack != null) {
+            return jstack;
+        }
+
+        String header = Strings.nullToEmpty(kvDb.get(KvUtils.getJStackHeaderKey(time)));
+        String footer = Strings.nullToEmpty(kvDb.get(KvUtils.getJStackFooterKey(time)));
+        return new JStackDump(header, threadInfo, footer).toJStack();
+    }
+
     private void addMomentCpuTimeInfo(Map<String, ThreadInfo> threadInfo, String time) {
         for (ThreadInfo info : threadInfo.values()) {
             String momentCpuTime = kvDb.get(KvUtils.getThreadMomentCpuTimeKey(time, info.getId()));
@@ -21,6 +21,7 @@ import com.google.common.collect.ImmutableSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qunar.tc.bistoury.agent.common.ResponseHandler;
+import qunar.tc.bistoury.agent.common.cpujstack.StackDictionary;
 import qunar.tc.bistoury.agent.common.kv.KvDb;
 import qunar.tc.bistoury.agent.common.kv.KvDbs;
 import qunar.tc.bistoury.agent.common.util.DateUtils;
@@ -39,6 +40,7 @@ public class ThreadInfoTaskFactory implements TaskFactory<String> {
     private static final Logger logger = LoggerFactory.getLogger(ThreadInfoTaskFactory.class);
 
     private static final KvDb kvDb = KvDbs.getKvDb();
+    private static final StackDictionary stackDictionary = new StackDictionary(KvDbs.getStackDictionaryKvDb());
     private static final String NAME = "threadInfo";
 
     @Override
@@ -54,6 +56,6 @@ public class ThreadInfoTaskFactory implements TaskFactory<String> {
     @Override
     public Task create(RemotingHeader header, String command, ResponseHandler handler) {
         DateUtils.TIME_FORMATTER.parseLocalDate(command);
-        return new ThreadInfoTask(header.getId(), header.getMaxRunningMs(), kvDb, handler, command);
+        return new ThreadInfoTask(header.getId(), header.getMaxRunningMs(), kvDb, stackDictionary, handler, command);
     }
 }
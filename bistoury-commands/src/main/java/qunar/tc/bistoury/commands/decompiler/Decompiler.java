@@ -74,8 +74,16 @@ public class Decompiler {
     }
 
     public Decompiler(File decompilerResultSaverDirectory) {
-        saver = new IResultSaverImpl(decompilerResultSaverDirectory);
-        provider = new IBytecodeProviderImpl();
+        this(new IResultSaverImpl(decompilerResultSaverDirectory));
+    }
+
+    public Decompiler(IResultSaver saver) {
+        this(saver, new IBytecodeProviderImpl());
+    }
+
+    public Decompiler(IResultSaver saver, IBytecodeProvider provider) {
+        this.saver = saver;
+        this.provider = provider;
         this.engine = new Fernflower(provider, saver, options, logger);
     }
 
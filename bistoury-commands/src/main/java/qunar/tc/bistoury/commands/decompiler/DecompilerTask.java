@@ -18,27 +18,35 @@
 package qunar.tc.bistoury.commands.decompiler;
 
 import com.google.common.base.Strings;
-import com.google.common.collect.Lists;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.ning.http.util.Base64;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qunar.tc.bistoury.agent.common.ResponseHandler;
-import qunar.tc.bistoury.clientside.common.store.BistouryStore;
 import qunar.tc.bistoury.common.*;
 import qunar.tc.bistoury.remoting.command.DecompilerCommand;
 import qunar.tc.bistoury.remoting.netty.AgentRemotingExecutor;
 import qunar.tc.bistoury.remoting.netty.Task;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.util.Enumeration;
-import java.util.List;
-import java.util.UUID;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
@@ -56,23 +64,39 @@ public class DecompilerTask implements Task {
     private static final String CLASS_FILE_SUFFIX = ".class";
     private static final String JAR_FILE_URL_PREFIX = "jar:file:";
     private static final String JAR_FILE_URL_SPLITTER = ".jar!";
-    private static final File DECOMPILER_RESULT_SAVER_DIRECTORY = new File(BistouryStore.getStorePath("decompiled"));
+
+    /**
+     * 按类和内部类字节码的hash缓存反编译结果，相同的字节码只反编译一次，并发的相同请求只有一个会真正反编译
+     */
+    private static final long MAX_CACHED_CHARS = 16 * 1024 * 1024;
+    private static final Cache<String, String> decompiledCache = CacheBuilder.newBuilder()
+            .maximumWeight(MAX_CACHED_CHARS)
+            .weigher(new Weigher<String, String>() {
+                @Override
+                public int weigh(String key, String value) {
+                    return value.length();
+                }
+            })
+            .build();
+
+    /**
+     * 类文件位置到字节码hash的映射，见{@link #location}
+     */
+    private static final Cache<String, String> hashCache = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .build();
 
     private final String id;
     private final DecompilerCommand command;
     private final ResponseHandler handler;
     private final long maxRunningMs;
     private volatile ListenableFuture<Integer> future;
-    private Decompiler decompiler;
 
     public DecompilerTask(String id, DecompilerCommand command, ResponseHandler handler, long maxRunningMs) {
         this.id = id;
         this.command = command;
         this.handler = handler;
         this.maxRunningMs = maxRunningMs;
-        if (!DECOMPILER_RESULT_SAVER_DIRECTORY.exists() || !DECOMPILER_RESULT_SAVER_DIRECTORY.isDirectory()) {
-            DECOMPILER_RESULT_SAVER_DIRECTORY.mkdirs();
-        }
     }
 
     @Override
@@ -80,7 +104,6 @@ public class DecompilerTask implements Task {
         this.future = agentExecutor.submit(new Callable<Integer>() {
             @Override
             public Integer call() {
-                decompiler = new Decompiler(DECOMPILER_RESULT_SAVER_DIRECTORY);
                 TypeResponse<String> typeResponse = new TypeResponse<>();
                 CodeProcessResponse<String> response = new CodeProcessResponse<>();
                 typeResponse.setData(response);
@@ -102,45 +125,88 @@ public class DecompilerTask implements Task {
         return this.future;
     }
 
-    public synchronized void decompile(final String className, final String classPath, final CodeProcessResponse<String> response) throws IOException {
+    public void decompile(final String className, final String classPath, final CodeProcessResponse<String> response) throws IOException {
         String replace = classPath.replace("\\", "/");
         URL url = new URL(replace);
         String simpleName = className.substring(className.lastIndexOf(".") + 1);
-        String classFileName = simpleName + UUID.randomUUID().toString();
-
-        if (JAR.equals(url.getProtocol()) || url.getFile().indexOf(JAR_FILE_URL_SPLITTER) > 0) {
-            decompilerJar(classFileName, className, url);
-        } else {
-            classFileName = simpleName;
-            decompiler.addSource(new File(url.getFile()));
-            decompiler.decompileContext();
-        }
 
-        File file = new File(DECOMPILER_RESULT_SAVER_DIRECTORY, classFileName + JAVA_FILE_SUFFIX);
-        try {
-            if (file.exists() && file.isFile()) {
-                response.setCode(0);
-                String fileContent = FileUtil.readFile(file);
-                response.setData(Base64.encode(CharsetUtils.toUTF8Bytes(fileContent)));
-                response.setId(simpleName + JAVA_FILE_SUFFIX);
+        final boolean inJar = JAR.equals(url.getProtocol()) || url.getFile().indexOf(JAR_FILE_URL_SPLITTER) > 0;
+        final String location = location(className, url, inJar);
+        String hash = hashCache.getIfPresent(location);
+        String content = hash == null ? null : decompiledCache.getIfPresent(hash);
+        if (content == null) {
+            final ClassBytes classBytes = new ClassBytes(className);
+            if (inJar) {
+                readFromJar(classBytes, simpleName, url);
             } else {
+                readFromDirectory(classBytes, simpleName, url);
+            }
+            hash = classBytes.hash();
+            hashCache.put(location, hash);
+
+            try {
+                content = decompiledCache.get(hash, new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return doDecompile(classBytes);
+                    }
+                });
+            } catch (ExecutionException | UncheckedExecutionException e) {
+                logger.error("decompile class error, class: {}", className, e.getCause());
                 response.setCode(-1);
                 response.setMessage("反编译失败");
+                return;
             }
-        } finally {
-            if (file.exists()) {
-                file.delete();
-            }
         }
+
+        response.setCode(0);
+        response.setData(Base64.encode(CharsetUtils.toUTF8Bytes(content)));
+        response.setId(simpleName + JAVA_FILE_SUFFIX);
+    }
+
+    private String doDecompile(ClassBytes classBytes) throws IOException {
+        InMemoryResultSaver saver = new InMemoryResultSaver();
+        InMemoryBytecodeProvider provider = new InMemoryBytecodeProvider();
+        Decompiler decompiler = new Decompiler(saver, provider);
+        for (ClassEntry entry : classBytes.entries.values()) {
+            provider.add(entry.absolutePath, entry.bytes);
+            decompiler.addStream(new ByteArrayInputStream(entry.bytes), entry.filename, entry.absolutePath);
+        }
+        decompiler.decompileContext();
+
+        String content = saver.getContent(classBytes.className.replace(".", "/"));
+        if (content == null) {
+            throw new IOException("no decompiled result of " + classBytes.className);
+        }
+        return content;
     }
 
-    private void decompilerJar(final String classFileName, final String className, final URL url) throws IOException {
-        final String filePath = url.getFile();
-        List<InputStream> jarFileStreams = Lists.newArrayList();
+    /**
+     * 类所在的jar包或class文件的路径、大小和修改时间，文件没有变化时直接用记录的hash查反编译结果，不再读取字节码；
+     * 目录中的内部类可能单独增删，所以同时带上所在目录的修改时间
+     */
+    private static String location(String className, URL url, boolean inJar) {
+        File file = inJar ? new File(jarPath(url)) : new File(url.getFile());
+        StringBuilder location = new StringBuilder(className)
+                .append('|').append(file.getAbsolutePath())
+                .append('|').append(file.length())
+                .append('|').append(file.lastModified());
+        if (!inJar) {
+            File parent = file.getAbsoluteFile().getParentFile();
+            location.append('|').append(parent == null ? 0 : parent.lastModified());
+        }
+        return location.toString();
+    }
+
+    private static String jarPath(URL url) {
+        String filePath = url.getFile();
+        return filePath.substring(5, filePath.indexOf(JAR_FILE_URL_SPLITTER) + 4);
+    }
 
-        try (JarFile jarFile = new JarFile(filePath.substring(5, filePath.indexOf(JAR_FILE_URL_SPLITTER) + 4))) {
+    private void readFromJar(final ClassBytes classBytes, final String simpleName, final URL url) throws IOException {
+        try (JarFile jarFile = new JarFile(jarPath(url))) {
             Enumeration<JarEntry> entries = jarFile.entries();
-            PathInfo pathInfo = new PathInfo(className);
+            PathInfo pathInfo = new PathInfo(classBytes.className);
             //处理内部类
             while (entries.hasMoreElements()) {
                 JarEntry jarEntry = entries.nextElement();
@@ -149,24 +215,74 @@ public class DecompilerTask implements Task {
                 }
                 String name = jarEntry.getName();
                 if (pathInfo.isInnerClass(name)) {
-                    InputStream inputStream = jarFile.getInputStream(jarEntry);
-                    jarFileStreams.add(inputStream);
-                    decompiler.addStream(inputStream, name.replace("/", "."), JAR_FILE_URL_PREFIX + jarFile.getName() + "!/" + name);
+                    classBytes.add(name.replace("/", "."), JAR_FILE_URL_PREFIX + jarFile.getName() + "!/" + name, readBytes(jarFile, jarEntry));
                 } else if (pathInfo.isTheClass(name)) {
-                    InputStream inputStream = jarFile.getInputStream(jarEntry);
-                    jarFileStreams.add(inputStream);
-                    decompiler.addStream(inputStream, classFileName + CLASS_FILE_SUFFIX, url.getFile());
+                    classBytes.add(simpleName + CLASS_FILE_SUFFIX, url.getFile(), readBytes(jarFile, jarEntry));
                 }
             }
-            decompiler.decompileContext();
-        } finally {
-            for (InputStream inputStream : jarFileStreams) {
-                try {
-                    inputStream.close();
-                } catch (Exception e) {
-                    logger.error("close jar input stream error", e);
-                }
+        }
+    }
+
+    private static byte[] readBytes(JarFile jarFile, JarEntry jarEntry) throws IOException {
+        try (InputStream inputStream = jarFile.getInputStream(jarEntry)) {
+            return ByteStreams.toByteArray(inputStream);
+        }
+    }
+
+    private void readFromDirectory(final ClassBytes classBytes, final String simpleName, final URL url) throws IOException {
+        File classFile = new File(url.getFile());
+        classBytes.add(classFile.getName(), classFile.getAbsolutePath(), Files.toByteArray(classFile));
+
+        File[] files = classFile.getParentFile().listFiles();
+        if (files == null) {
+            return;
+        }
+        //处理内部类
+        String innerClassPrefix = simpleName + "$";
+        for (File file : files) {
+            String name = file.getName();
+            if (file.isFile() && name.startsWith(innerClassPrefix) && name.endsWith(CLASS_FILE_SUFFIX)) {
+                classBytes.add(name, file.getAbsolutePath(), Files.toByteArray(file));
+            }
+        }
+    }
+
+    private static class ClassBytes {
+        private final String className;
+        private final Map<String, ClassEntry> entries = new TreeMap<>();
+
+        private ClassBytes(String className) {
+            this.className = className;
+        }
+
+        void add(String filename, String absolutePath, byte[] bytes) {
+            entries.put(filename, new ClassEntry(filename, absolutePath, bytes));
+        }
+
+        /**
+         * 只与类名和字节码有关，同一个类从不同路径加载时共用结果
+         */
+        String hash() {
+            Hasher hasher = Hashing.sha256().newHasher();
+            hasher.putString(className, CharsetUtils.UTF8);
+            for (ClassEntry entry : entries.values()) {
+                hasher.putString(entry.filename, CharsetUtils.UTF8);
+                hasher.putInt(entry.bytes.length);
+                hasher.putBytes(entry.bytes);
             }
+            return hasher.hash().toString();
+        }
+    }
+
+    private static class ClassEntry {
+        private final String filename;
+        private final String absolutePath;
+        private final byte[] bytes;
+
+        private ClassEntry(String filename, String absolutePath, byte[] bytes) {
+            this.filename = filename;
+            this.absolutePath = absolutePath;
+            this.bytes = bytes;
         }
     }
 
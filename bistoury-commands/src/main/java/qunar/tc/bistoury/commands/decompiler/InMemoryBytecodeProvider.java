@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2019 Qunar, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package qunar.tc.bistoury.commands.decompiler;
+
+import qunar.tc.decompiler.main.extern.IBytecodeProvider;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 从内存中提供已经读取过的字节码，反编译过程中不再重新打开jar包或class文件；
+ * 路径与{@link Decompiler#addStream}一样先做URL解码，保证与fernflower中记录的路径一致
+ */
+public class InMemoryBytecodeProvider implements IBytecodeProvider {
+
+    private final Map<String, byte[]> bytecodes = new HashMap<>();
+
+    public void add(String absolutePath, byte[] bytes) {
+        bytecodes.put(URLDecoder.decode(absolutePath), bytes);
+    }
+
+    @Override
+    public byte[] getBytecode(String externalPath, String internalPath) throws IOException {
+        byte[] bytes = bytecodes.get(externalPath);
+        if (bytes == null) {
+            throw new IOException("bytecode not found: " + externalPath);
+        }
+        return bytes;
+    }
+}
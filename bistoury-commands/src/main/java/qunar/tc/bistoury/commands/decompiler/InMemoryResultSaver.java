@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2019 Qunar, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package qunar.tc.bistoury.commands.decompiler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qunar.tc.decompiler.main.extern.IResultSaver;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.Manifest;
+
+/**
+ * 反编译结果只保存在内存中，按类的全限定名（以/分隔）获取；jar包中的类同样按全限定名保存，不输出目录和jar包
+ */
+public class InMemoryResultSaver implements IResultSaver {
+    private static final Logger logger = LoggerFactory.getLogger(InMemoryResultSaver.class);
+
+    private final Map<String, String> contents = new HashMap<>();
+
+    public String getContent(String qualifiedName) {
+        return contents.get(qualifiedName);
+    }
+
+    @Override
+    public void saveFolder(String path) {
+    }
+
+    @Override
+    public void copyFile(String source, String path, String entryName) {
+    }
+
+    @Override
+    public void saveClassFile(String path, String qualifiedName, String entryName, String content, int[] mapping) {
+        contents.put(qualifiedName, content);
+    }
+
+    @Override
+    public void createArchive(String path, String archiveName, Manifest manifest) {
+    }
+
+    @Override
+    public void saveDirEntry(String path, String archiveName, String entryName) {
+    }
+
+    @Override
+    public void copyEntry(String source, String path, String archiveName, String entry) {
+        logger.warn("in memory result saver ignore non-class entry, archive: {}, entry: {}", archiveName, entry);
+    }
+
+    @Override
+    public void saveClassEntry(String path, String archiveName, String qualifiedName, String entryName, String content) {
+        contents.put(qualifiedName, content);
+    }
+
+    @Override
+    public void closeArchive(String path, String archiveName) {
+    }
+}
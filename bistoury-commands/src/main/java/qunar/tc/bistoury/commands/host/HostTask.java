@@ -122,14 +122,10 @@ public class HostTask implements Task {
                     result.put("visuaGC", getVisuaGCInfo());
                     String jsonString = JacksonSerializer.serialize(result);
                     handler.handle(jsonString);
-                } finally {
-                    try {
-                        if (connect != null) {
-                            connect.disconnect();
-                        }
-                    } catch (IOException e) {
-                        logger.error("disconnect vm error ", e);
-                    }
+                } catch (RuntimeException e) {
+                    //连接是缓存复用的，出错时让连接失效，下次重新建立
+                    VirtualMachineUtil.invalidate(pid);
+                    throw e;
                 }
                 return null;
             }
@@ -371,7 +367,6 @@ public class HostTask implements Task {
     @Override
     public void cancel() {
         try {
-            connect.disconnect();
             if (future != null) {
                 future.cancel(true);
                 future = null;
@@ -26,9 +26,11 @@ import qunar.tc.bistoury.common.JacksonSerializer;
 import qunar.tc.bistoury.remoting.netty.AgentRemotingExecutor;
 import qunar.tc.bistoury.remoting.netty.Task;
 
+import javax.management.ReflectionException;
 import java.io.IOException;
 import java.lang.management.ThreadInfo;
 import java.lang.management.ThreadMXBean;
+import java.lang.reflect.UndeclaredThrowableException;
 import java.util.*;
 import java.util.concurrent.Callable;
 
@@ -112,15 +114,9 @@ public class ThreadInfoTask implements Task {
                     handler.handle(JacksonSerializer.serializeToBytes(result));
                 } catch (Exception e) {
                     logger.error("get thread info error", e);
+                    //连接是缓存复用的，出错时让连接失效，下次重新建立
+                    VirtualMachineUtil.invalidate(pid);
                     return null;
-                } finally {
-                    try {
-                        if (connect != null) {
-                            connect.disconnect();
-                        }
-                    } catch (IOException e) {
-                        logger.error("disconnect vm error ", e);
-                    }
                 }
                 return null;
             }
@@ -145,6 +141,7 @@ public class ThreadInfoTask implements Task {
             }
         } catch (IOException e) {
             logger.error("dump thread error", e);
+            VirtualMachineUtil.invalidate(pid);
             return new ThreadInfo[]{};
         }
     }
@@ -158,6 +155,7 @@ public class ThreadInfoTask implements Task {
             return threadMXBean.getThreadInfo(threadId, maxDepth);
         } catch (IOException e) {
             logger.error("get thread info error", e);
+            VirtualMachineUtil.invalidate(pid);
             return null;
         }
     }
@@ -166,12 +164,17 @@ public class ThreadInfoTask implements Task {
         List<ThreadBrief> threads = new ArrayList<>();
         long totalCpuTime = 0;
         try {
-            ThreadMXBean threadMXBean = connect.getThreadMXBean();
+            com.sun.management.ThreadMXBean threadMXBean = connect.getThreadMXBean();
             long[] ids = threadMXBean.getAllThreadIds();
             ThreadInfo[] threadInfos = threadMXBean.getThreadInfo(ids);
-            for (ThreadInfo info : threadInfos) {
-                long thId = info.getThreadId();
-                long cpuTime = threadMXBean.getThreadCpuTime(thId);
+            long[] cpuTimes = getThreadCpuTime(threadMXBean, ids);
+            for (int i = 0; i < threadInfos.length; ++i) {
+                ThreadInfo info = threadInfos[i];
+                if (info == null) {
+                    //线程已经结束
+                    continue;
+                }
+                long cpuTime = cpuTimes[i];
                 ThreadBrief threadBrief = new ThreadBrief(info.getThreadId(), info.getThreadName(),
                         cpuTime, info.getThreadState());
                 totalCpuTime += cpuTime;
@@ -187,10 +190,39 @@ public class ThreadInfoTask implements Task {
             return threads;
         } catch (IOException e) {
             logger.error("get all thread info error", e);
+            VirtualMachineUtil.invalidate(pid);
             return threads;
         }
     }
 
+    /**
+     * 一次远程调用批量获取所有线程的cpu时间，目标jvm不支持批量接口时退回逐个获取；
+     * 其它错误（比如连接断开）照常抛出，由调用方让连接失效
+     */
+    private long[] getThreadCpuTime(com.sun.management.ThreadMXBean threadMXBean, long[] ids) throws IOException {
+        try {
+            return threadMXBean.getThreadCpuTime(ids);
+        } catch (UnsupportedOperationException e) {
+            logger.debug("get thread cpu time in batch not supported, fall back to one by one", e);
+        } catch (UndeclaredThrowableException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (!(cause instanceof ReflectionException)) {
+                throw e;
+            }
+            //目标jvm的mbean上没有批量获取的操作
+            logger.debug("get thread cpu time in batch not supported, fall back to one by one", e);
+        }
+
+        long[] cpuTimes = new long[ids.length];
+        for (int i = 0; i < ids.length; ++i) {
+            cpuTimes[i] = threadMXBean.getThreadCpuTime(ids[i]);
+        }
+        return cpuTimes;
+    }
+
     @Override
     public String getId() {
         return id;
@@ -204,7 +236,6 @@ public class ThreadInfoTask implements Task {
     @Override
     public void cancel() {
         try {
-            connect.disconnect();
             if (future != null) {
                 future.cancel(true);
                 future = null;
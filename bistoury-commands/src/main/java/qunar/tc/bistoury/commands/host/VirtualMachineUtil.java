@@ -17,12 +17,17 @@
 
 package qunar.tc.bistoury.commands.host;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
 import com.sun.management.OperatingSystemMXBean;
 import com.sun.tools.attach.AgentInitializationException;
 import com.sun.tools.attach.AgentLoadException;
 import com.sun.tools.attach.VirtualMachine;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import qunar.tc.bistoury.common.NamedThreadFactory;
 
 import javax.management.MBeanServerConnection;
 import javax.management.MalformedObjectNameException;
@@ -37,8 +42,16 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * 每个pid的JMX连接会被缓存起来复用，获取时先检查连接是否还可用，空闲一段时间后自动关闭；
+ * 使用方不需要也不应该关闭连接，调用出错时通过{@link #invalidate(int)}让连接失效
+ *
  * @author: leix.xie
  * @date: 2018/11/21 11:55
  * @describe：
@@ -48,7 +61,64 @@ public class VirtualMachineUtil {
 
     private static final String LOCAL_CONNECTOR_ADDRESS_PROP = "com.sun.management.jmxremote.localConnectorAddress";
 
-    public static VMConnector connect(int pid) {
+    private static final long IDLE_EXPIRE_MINUTES = 5;
+
+    private static final Cache<Integer, VMConnector> connectors = CacheBuilder.newBuilder()
+            .expireAfterAccess(IDLE_EXPIRE_MINUTES, TimeUnit.MINUTES)
+            .removalListener(new RemovalListener<Integer, VMConnector>() {
+                @Override
+                public void onRemoval(RemovalNotification<Integer, VMConnector> notification) {
+                    try {
+                        notification.getValue().disconnect();
+                    } catch (Exception e) {
+                        logger.debug("disconnect vm error, pid {}", notification.getKey(), e);
+                    }
+                }
+            })
+            .build();
+
+    private static final ScheduledExecutorService cleaner = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("vm-connector-cleaner", true));
+
+    static {
+        cleaner.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                connectors.cleanUp();
+            }
+        }, 1, 1, TimeUnit.MINUTES);
+    }
+
+    public static VMConnector connect(final int pid) {
+        VMConnector connector = connectors.getIfPresent(pid);
+        if (connector != null) {
+            if (connector.isAlive()) {
+                return connector;
+            }
+            connectors.asMap().remove(pid, connector);
+        }
+
+        try {
+            return connectors.get(pid, new Callable<VMConnector>() {
+                @Override
+                public VMConnector call() throws Exception {
+                    VMConnector connector = doConnect(pid);
+                    if (connector == null) {
+                        throw new IllegalStateException("can not connect to vm, pid " + pid);
+                    }
+                    return connector;
+                }
+            });
+        } catch (ExecutionException | RuntimeException e) {
+            logger.error("get vm connector error, pid {}", pid, e);
+            return null;
+        }
+    }
+
+    public static void invalidate(int pid) {
+        connectors.invalidate(pid);
+    }
+
+    private static VMConnector doConnect(int pid) {
         VirtualMachine vm = null;
         try {
             vm = VirtualMachine.attach(String.valueOf(pid));
@@ -132,6 +202,20 @@ public class VirtualMachineUtil {
     static class VMConnector {
         private JMXConnector connector;
 
+        private volatile RuntimeMXBean runtimeMXBean;
+
+        private volatile OperatingSystemMXBean operatingSystemMXBean;
+
+        private volatile MemoryMXBean memoryMXBean;
+
+        private volatile com.sun.management.ThreadMXBean threadMXBean;
+
+        private volatile ClassLoadingMXBean classLoadingMXBean;
+
+        private volatile List<GarbageCollectorMXBean> garbageCollectorMXBeans;
+
+        private volatile List<MemoryPoolMXBean> memoryPoolMXBeans;
+
         VMConnector(JMXConnector connector) {
             this.connector = connector;
         }
@@ -140,27 +224,61 @@ public class VirtualMachineUtil {
             return connector.getMBeanServerConnection();
         }
 
+        boolean isAlive() {
+            try {
+                getConnection().getMBeanCount();
+                return true;
+            } catch (Exception e) {
+                return false;
+            }
+        }
+
         public RuntimeMXBean getRuntimeMXBean() throws IOException {
-            return ManagementFactory.newPlatformMXBeanProxy(getConnection(), ManagementFactory.RUNTIME_MXBEAN_NAME, RuntimeMXBean.class);
+            if (runtimeMXBean == null) {
+                runtimeMXBean = ManagementFactory.newPlatformMXBeanProxy(getConnection(), ManagementFactory.RUNTIME_MXBEAN_NAME, RuntimeMXBean.class);
+            }
+            return runtimeMXBean;
         }
 
         public OperatingSystemMXBean getOperatingSystemMXBean() throws IOException {
-            return ManagementFactory.newPlatformMXBeanProxy(getConnection(), ManagementFactory.OPERATING_SYSTEM_MXBEAN_NAME, OperatingSystemMXBean.class);
+            if (operatingSystemMXBean == null) {
+                operatingSystemMXBean = ManagementFactory.newPlatformMXBeanProxy(getConnection(), ManagementFactory.OPERATING_SYSTEM_MXBEAN_NAME, OperatingSystemMXBean.class);
+            }
+            return operatingSystemMXBean;
         }
 
         public MemoryMXBean getMemoryMXBean() throws IOException {
-            return ManagementFactory.newPlatformMXBeanProxy(getConnection(), ManagementFactory.MEMORY_MXBEAN_NAME, MemoryMXBean.class);
+            if (memoryMXBean == null) {
+                memoryMXBean = ManagementFactory.newPlatformMXBeanProxy(getConnection(), ManagementFactory.MEMORY_MXBEAN_NAME, MemoryMXBean.class);
+            }
+            return memoryMXBean;
         }
 
-        public ThreadMXBean getThreadMXBean() throws IOException {
-            return ManagementFactory.newPlatformMXBeanProxy(getConnection(), ManagementFactory.THREAD_MXBEAN_NAME, ThreadMXBean.class);
+        /**
+         * 返回的是com.sun.management.ThreadMXBean的代理，可以一次批量获取多个线程的cpu时间
+         */
+        public com.sun.management.ThreadMXBean getThreadMXBean() throws IOException {
+            if (threadMXBean == null) {
+                threadMXBean = ManagementFactory.newPlatformMXBeanProxy(getConnection(), ManagementFactory.THREAD_MXBEAN_NAME, com.sun.management.ThreadMXBean.class);
+            }
+            return threadMXBean;
         }
 
         public ClassLoadingMXBean getClassLoadingMXBean() throws IOException {
-            return ManagementFactory.newPlatformMXBeanProxy(getConnection(), ManagementFactory.CLASS_LOADING_MXBEAN_NAME, ClassLoadingMXBean.class);
+            if (classLoadingMXBean == null) {
+                classLoadingMXBean = ManagementFactory.newPlatformMXBeanProxy(getConnection(), ManagementFactory.CLASS_LOADING_MXBEAN_NAME, ClassLoadingMXBean.class);
+            }
+            return classLoadingMXBean;
         }
 
         public List<GarbageCollectorMXBean> getGarbageCollectorMXBeans() throws IOException, MalformedObjectNameException {
+            if (garbageCollectorMXBeans == null) {
+                garbageCollectorMXBeans = queryGarbageCollectorMXBeans();
+            }
+            return garbageCollectorMXBeans;
+        }
+
+        private List<GarbageCollectorMXBean> queryGarbageCollectorMXBeans() throws IOException, MalformedObjectNameException {
             Set<ObjectName> gcNames = getConnection().queryNames(new ObjectName(ManagementFactory.GARBAGE_COLLECTOR_MXBEAN_DOMAIN_TYPE + ",name=*"), null);
             List<GarbageCollectorMXBean> gcMxBeans = new ArrayList<>();
             for (ObjectName gc : gcNames) {
@@ -170,6 +288,13 @@ public class VirtualMachineUtil {
         }
 
         public List<MemoryPoolMXBean> getMemoryPoolMXBeans() throws Exception {
+            if (memoryPoolMXBeans == null) {
+                memoryPoolMXBeans = queryMemoryPoolMXBeans();
+            }
+            return memoryPoolMXBeans;
+        }
+
+        private List<MemoryPoolMXBean> queryMemoryPoolMXBeans() throws Exception {
             Set<ObjectName> gcNames = getConnection().queryNames(new ObjectName(ManagementFactory.MEMORY_POOL_MXBEAN_DOMAIN_TYPE + ",name=*"), null);
             List<MemoryPoolMXBean> memoryPoolMXBeans = new ArrayList<>();
             for (ObjectName gc : gcNames) {
@@ -29,10 +29,14 @@ import qunar.tc.bistoury.clientside.common.monitor.MetricsData;
 import qunar.tc.bistoury.clientside.common.monitor.MetricsSnapshot;
 import qunar.tc.bistoury.common.DateUtil;
 
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
 
 /**
+ * 每个指标单独按时间存储，key为 前缀 + 指标 + 时间，查询单个指标时只需要按范围遍历这个指标的数据；
+ * 除了每分钟的数据外，写入时同时维护5分钟和1小时的汇总，查询间隔较大时直接读取汇总数据
+ *
  * @author: leix.xie
  * @date: 2019/1/8 19:24
  * @describe：
@@ -44,18 +48,31 @@ public class QMonitorStore {
     private static final KvDb KV_DB = KvDbs.getKvDb();
     private static final String PREFIX = "qm-";
     private static final String LATEST_TIME = PREFIX + "latest_time";
-    private static final String MERTICS_SNAPSHOT_FORMAT = "{\"name\":\"%s\",\"timestamp\":%d,\"metricsData\":[]}";
+    private static final String LATEST_SNAPSHOT = PREFIX + "latest_snapshot";
+    private static final String SERIES_INDEX_PREFIX = PREFIX + "n-";
+    private static final char SEPARATOR = '\u0001';
+    private static final String TIME_PADDING = "0000000000000";
     private static final String EMPTY_STRING = "";
     private static final String EMPTY_CHAR = "''";
     private static final ObjectMapper MAPPER = new ObjectMapper();
     private static final int HOUR = (int) TimeUnit.HOURS.toMinutes(1);
 
-    private static final int MAX_ERROR_COUNT = 10;
     private static final byte COUNT_INDEX = 0;
-    private static final byte MIN_1_INDEX = 0;
     private static final byte P98_INDEX = 1;
+    private static final byte MAX_INDEX = 6;
 
     private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+    private static final long FIVE_MINUTES = TimeUnit.MINUTES.toMillis(5);
+    private static final long ONE_HOUR = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * 数据有过期时间，指标索引每天重新写一次，避免还在上报的指标从索引中过期
+     */
+    private static final long INDEX_REFRESH_INTERVAL = TimeUnit.DAYS.toMillis(1);
+
+    private final Map<String, Aggregation> fiveMinuteRollups = new HashMap<>();
+    private final Map<String, Aggregation> hourRollups = new HashMap<>();
+    private final Map<String, Long> indexedSeries = new HashMap<>();
 
     private QMonitorStore() {
 
@@ -65,18 +82,75 @@ public class QMonitorStore {
         return INSTANCE;
     }
 
-    public void store(MetricsSnapshot snapshot) {
+    public synchronized void store(MetricsSnapshot snapshot) {
         try {
-            String currentMinute = String.valueOf(DateUtil.transformToMinute(snapshot.getTimestamp()));
-            if (!isEmpty(snapshot.getMetricsData())) {
-                KV_DB.put(LATEST_TIME, currentMinute);
-                KV_DB.put(addPrefix(currentMinute), MAPPER.writeValueAsString(snapshot));
+            List<MetricsData> metricsDataList = snapshot.getMetricsData();
+            if (isEmpty(metricsDataList)) {
+                return;
+            }
+            long minute = DateUtil.transformToMinute(snapshot.getTimestamp());
+            KvDb.Batch batch = KV_DB.newBatch();
+            for (MetricsData metricsData : metricsDataList) {
+                if (!isLegal(metricsData)) {
+                    continue;
+                }
+                String series = seriesId(metricsData.getName(), metricsData.getType());
+                batch.put(seriesKey(MINUTE, series, minute), encode(1, metricsData.getData()));
+                rollup(batch, fiveMinuteRollups, FIVE_MINUTES, series, minute, metricsData.getData());
+                rollup(batch, hourRollups, ONE_HOUR, series, minute, metricsData.getData());
+                index(batch, series, minute);
             }
+            batch.put(LATEST_SNAPSHOT, MAPPER.writeValueAsString(snapshot));
+            batch.put(LATEST_TIME, String.valueOf(minute));
+            batch.write();
         } catch (Throwable e) {
             logger.error("store metrics snapshot error", e);
         }
     }
 
+    private void rollup(KvDb.Batch batch, Map<String, Aggregation> rollups, long resolution, String series, long minute, float[] data) {
+        final long time = minute - minute % resolution;
+        final long minuteBit = minuteBit(time, minute);
+        Aggregation aggregation = rollups.get(series);
+        if (aggregation == null || aggregation.time != time || (aggregation.minutes & minuteBit) != 0) {
+            //重启后或者同一分钟重复写入时，用已经写入的分钟数据重新汇总，保证每分钟只计算一次
+            aggregation = rebuild(series, time, resolution, minute);
+            rollups.put(series, aggregation);
+        }
+        aggregation.merge(1, data);
+        aggregation.minutes |= minuteBit;
+        batch.put(seriesKey(resolution, series, time), aggregation.encode());
+    }
+
+    private Aggregation rebuild(final String series, final long time, final long resolution, final long skipMinute) {
+        final Aggregation aggregation = new Aggregation(time);
+        KV_DB.scan(seriesKey(MINUTE, series, time), seriesKey(MINUTE, series, time + resolution), new KvDb.Visitor() {
+            @Override
+            public boolean visit(String key, byte[] value) {
+                long minute = parseTime(key);
+                if (minute == skipMinute || value == null || value.length == 0) {
+                    return true;
+                }
+                aggregation.merge(value);
+                aggregation.minutes |= minuteBit(time, minute);
+                return true;
+            }
+        });
+        return aggregation;
+    }
+
+    private static long minuteBit(long rollupTime, long minute) {
+        return 1L << ((minute - rollupTime) / MINUTE);
+    }
+
+    private void index(KvDb.Batch batch, String series, long minute) {
+        Long lastIndexed = indexedSeries.get(series);
+        if (lastIndexed == null || minute - lastIndexed >= INDEX_REFRESH_INTERVAL) {
+            batch.put(SERIES_INDEX_PREFIX + series, String.valueOf(minute));
+            indexedSeries.put(series, minute);
+        }
+    }
+
     public Response reportLatest(final String name, Long queryTime) {
         String latestTime = KV_DB.get(LATEST_TIME);
         if (Strings.isNullOrEmpty(latestTime)) {
@@ -87,7 +161,7 @@ public class QMonitorStore {
             return handlerError("latest", -2, minute + "处的数据还没准备好");
         }
 
-        String metric = KV_DB.get(addPrefix(latestTime));
+        String metric = KV_DB.get(LATEST_SNAPSHOT);
         if (Strings.isNullOrEmpty(metric)) {
             return handlerError("latest", -2, "监控数据保存失败，跳过这个点");
         }
@@ -123,21 +197,25 @@ public class QMonitorStore {
                 endTime = latestMinute;
             }
             final long interval = computeInterval(startTime, endTime);
-            List<String> result = new ArrayList<>();
-            int errorCount = 0;
-            while (endTime >= startTime) {
-                try {
-                    result.add(polymerize(startTime, interval, name));
-                } catch (Exception e) {
-                    logger.error("参数聚合错误", e);
-                    if (errorCount++ > MAX_ERROR_COUNT) {
-                        throw new RuntimeException("监控结果采样发生错误超过" + MAX_ERROR_COUNT + "次，放弃本次查询");
-                    }
-                    continue;
-                } finally {
-                    startTime += interval;
+            final long resolution = computeResolution(interval);
+            startTime -= startTime % resolution;
+            if (endTime < startTime) {
+                return handlerSuccess("list", Collections.emptyList());
+            }
+
+            final int bucketCount = (int) ((endTime - startTime) / interval) + 1;
+            final Map<String, Aggregation[]> seriesBuckets = new LinkedHashMap<>();
+            for (String series : findSeries(name)) {
+                Aggregation[] buckets = polymerize(series, resolution, startTime, endTime, interval, bucketCount);
+                if (buckets != null) {
+                    seriesBuckets.put(series, buckets);
                 }
             }
+
+            List<String> result = new ArrayList<>(bucketCount);
+            for (int i = 0; i < bucketCount; ++i) {
+                result.add(MAPPER.writeValueAsString(createSnapshot(name, startTime + i * interval, seriesBuckets, i)));
+            }
             return handlerSuccess("list", result);
         } catch (Throwable e) {
             logger.error("监控数据数据查询错误。", e);
@@ -145,120 +223,91 @@ public class QMonitorStore {
         }
     }
 
-    private String polymerize(final long start, final long interval, final String name) throws Exception {
-        List<MetricsSnapshot> snapshots = new ArrayList<>();
-        long newStart = start;
-        while (newStart < start + interval) {
-            snapshots.add(getMetricsSnapshot(name, newStart));
-            newStart += MINUTE;
-        }
-        if (isEmpty(snapshots)) {
-            return String.format(MERTICS_SNAPSHOT_FORMAT, name, start);
-        }
-
-        if (snapshots.size() == 1) {
-            return MAPPER.writeValueAsString(snapshots.get(0));
-        }
-
-        Map<String, PolymerizeData> map = groupByMetricsName(snapshots);
-        if (isEmpty(map)) {
-            return String.format(MERTICS_SNAPSHOT_FORMAT, name, start);
-        }
-        final List<MetricsData> metricsDataList = new ArrayList<>();
-        MetricsSnapshot snapshot = new MetricsSnapshot(name, start, metricsDataList);
-        for (Map.Entry<String, PolymerizeData> entry : map.entrySet()) {
-            PolymerizeData polymerizeData = entry.getValue();
-            if (polymerizeData.type == MetricType.COUNTER.code()) {
-                float[] data = new float[1];
-                data[0] = average(polymerizeData.count);
-                metricsDataList.add(new MetricsData(polymerizeData.name, polymerizeData.type, data));
-            } else {
-                float[] data = new float[2];
-                data[MIN_1_INDEX] = average(polymerizeData.min_1);
-                data[P98_INDEX] = average(polymerizeData.p98);
-                metricsDataList.add(new MetricsData(polymerizeData.name, polymerizeData.type, data));
+    private List<String> findSeries(final String name) {
+        final List<String> result = new ArrayList<>();
+        //和以前一样按指标名前缀匹配
+        KV_DB.scan(SERIES_INDEX_PREFIX + name, new KvDb.Visitor() {
+            @Override
+            public boolean visit(String key, byte[] value) {
+                result.add(key.substring(SERIES_INDEX_PREFIX.length()));
+                return true;
             }
-        }
-        return MAPPER.writeValueAsString(snapshot);
+        });
+        return result;
     }
 
-    private Map<String, PolymerizeData> groupByMetricsName(List<MetricsSnapshot> list) {
-        Map<String, PolymerizeData> result = new HashMap<>();
-        for (int i = 0; i < list.size(); i++) {
-            MetricsSnapshot metricsSnapshot = list.get(i);
-            if (metricsSnapshot == null) {
-                continue;
-            }
-            List<MetricsData> metricsDataList = metricsSnapshot.getMetricsData();
-            if (isEmpty(metricsDataList)) {
-                continue;
-            }
-            for (int j = 0; j < metricsDataList.size(); j++) {
-                MetricsData metricsData = metricsDataList.get(j);
-                if (metricsData != null) {
-                    final String key = metricsData.getName() + metricsData.getType();
-                    PolymerizeData polymerizeData = result.get(key);
-                    if (polymerizeData == null) {
-                        polymerizeData = new PolymerizeData(metricsData.getName(), metricsData.getType());
-                        result.put(key, polymerizeData);
-                    }
-                    if (metricsData != null) {
-                        handleData(metricsData, polymerizeData);
-                    }
+    private Aggregation[] polymerize(final String series, final long resolution, final long start, final long end, final long interval, final int bucketCount) {
+        final Aggregation[] buckets = new Aggregation[bucketCount];
+        final boolean[] found = new boolean[1];
+        KV_DB.scan(seriesKey(resolution, series, start), seriesKey(resolution, series, end + 1), new KvDb.Visitor() {
+            @Override
+            public boolean visit(String key, byte[] value) {
+                long time = parseTime(key);
+                int index = (int) ((time - start) / interval);
+                if (index < 0 || index >= bucketCount || value == null || value.length == 0) {
+                    return true;
                 }
+                if (buckets[index] == null) {
+                    buckets[index] = new Aggregation(start + index * interval);
+                }
+                buckets[index].merge(value);
+                found[0] = true;
+                return true;
             }
-
-        }
-        return result;
+        });
+        return found[0] ? buckets : null;
     }
 
-    private void handleData(MetricsData metricsData, PolymerizeData polymerizeData) {
-        if (metricsData.getType() == MetricType.COUNTER.code()) {
-            float[] data = metricsData.getData();
-            if (data != null && data.length == 1) {
-                polymerizeData.count.add(data[COUNT_INDEX]);
-            }
-        } else if (metricsData.getType() == MetricType.TIMER.code()) {
-            float[] data = metricsData.getData();
-            if (data != null && data.length == 2) {
-                polymerizeData.min_1.add(data[MIN_1_INDEX]);
-                polymerizeData.p98.add(data[P98_INDEX]);
+    private MetricsSnapshot createSnapshot(String name, long time, Map<String, Aggregation[]> seriesBuckets, int index) {
+        List<MetricsData> metricsDataList = new ArrayList<>();
+        for (Map.Entry<String, Aggregation[]> entry : seriesBuckets.entrySet()) {
+            Aggregation aggregation = entry.getValue()[index];
+            if (aggregation == null) {
+                continue;
             }
+            String series = entry.getKey();
+            int separatorIndex = series.lastIndexOf(SEPARATOR);
+            String metricName = series.substring(0, separatorIndex);
+            int type = Integer.parseInt(series.substring(separatorIndex + 1));
+            metricsDataList.add(new MetricsData(metricName, type, aggregation.average()));
         }
+        return new MetricsSnapshot(name, time, metricsDataList);
     }
 
-    private MetricsSnapshot getMetricsSnapshot(final String name, long key) {
-        try {
-            String metric = KV_DB.get(addPrefix(key));
-            if (!Strings.isNullOrEmpty(metric)) {
-                return MAPPER.readValue(metric, MetricsSnapshot.class);
-            } else {
-                return new MetricsSnapshot(name, key, Collections.EMPTY_LIST);
-            }
-        } catch (Exception e) {
-            throw new RuntimeException("rocks db 数据反序列化失败");
+    private boolean isLegal(MetricsData metricsData) {
+        if (metricsData == null || metricsData.getName() == null || metricsData.getData() == null) {
+            return false;
         }
-
+        float[] data = metricsData.getData();
+        if (metricsData.getType() == MetricType.COUNTER.code()) {
+            return data.length == COUNT_INDEX + 1;
+        } else if (metricsData.getType() == MetricType.TIMER.code()) {
+            return data.length > P98_INDEX;
+        }
+        return false;
     }
 
-    private float sum(List<Float> data) {
-        float sum = 0.0f;
-        for (Float datum : data) {
-            sum += datum;
-        }
-        return sum;
+    private static String seriesId(String name, int type) {
+        return name + SEPARATOR + type;
     }
 
-    private float average(List<Float> data) {
-        return sum(data) / (data.size() * 1.0f);
+    private static String seriesKey(long resolution, String series, long time) {
+        String timeString = Long.toString(time);
+        return PREFIX + TimeUnit.MILLISECONDS.toMinutes(resolution) + "-" + series + SEPARATOR
+                + TIME_PADDING.substring(Math.min(timeString.length(), TIME_PADDING.length())) + timeString;
     }
 
-    private String addPrefix(final String key) {
-        return PREFIX + key;
+    private static long parseTime(String key) {
+        return Long.parseLong(key.substring(key.length() - TIME_PADDING.length()));
     }
 
-    private String addPrefix(final long key) {
-        return PREFIX + key;
+    private static byte[] encode(int count, float[] values) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 4 * values.length);
+        buffer.putInt(count);
+        for (float value : values) {
+            buffer.putFloat(value);
+        }
+        return buffer.array();
     }
 
     private long computeInterval(final long start, final long end) {
@@ -276,7 +325,20 @@ public class QMonitorStore {
         } else if (minutes <= 48 * HOUR) {
             return 20 * MINUTE;
         } else {
-            return 30 * MINUTE;
+            return 60 * MINUTE;
+        }
+    }
+
+    /**
+     * 查询间隔是汇总粒度的整数倍时直接读取汇总数据
+     */
+    private long computeResolution(final long interval) {
+        if (interval % ONE_HOUR == 0) {
+            return ONE_HOUR;
+        } else if (interval % FIVE_MINUTES == 0) {
+            return FIVE_MINUTES;
+        } else {
+            return MINUTE;
         }
     }
 
@@ -288,24 +350,69 @@ public class QMonitorStore {
         return new Response(type, 0, data);
     }
 
-    class PolymerizeData {
-        String name;
-        int type;
-        List<Float> count = new ArrayList<>();
-        List<Float> min_1 = new ArrayList<>();
-        List<Float> p98 = new ArrayList<>();
+    /**
+     * 一段时间内的数据汇总，保存数据个数和各项之和，最大值一项保存最大值
+     * <p>
+     * 老版本的timer只有1分钟TPS和P98两项，新版本在后面追加了P50、P90、P99、P999和最大值，
+     * 聚合时只取所有数据共有的项，最大值取最大，其余取平均
+     */
+    private static class Aggregation {
+        private final long time;
+        /**
+         * 汇总数据中已经包含的分钟，第n位表示从time开始的第n分钟
+         */
+        private long minutes;
+        private int count;
+        private float[] values;
+
+        Aggregation(long time) {
+            this.time = time;
+        }
+
+        void merge(byte[] encoded) {
+            ByteBuffer buffer = ByteBuffer.wrap(encoded);
+            int count = buffer.getInt();
+            float[] values = new float[buffer.remaining() / 4];
+            for (int i = 0; i < values.length; ++i) {
+                values[i] = buffer.getFloat();
+            }
+            merge(count, values);
+        }
+
+        void merge(int count, float[] values) {
+            if (this.values == null) {
+                this.values = values.clone();
+                this.count = count;
+                return;
+            }
+
+            if (values.length < this.values.length) {
+                this.values = Arrays.copyOf(this.values, values.length);
+            }
+            for (int i = 0; i < this.values.length; ++i) {
+                if (i == MAX_INDEX) {
+                    this.values[i] = Math.max(this.values[i], values[i]);
+                } else {
+                    this.values[i] += values[i];
+                }
+            }
+            this.count += count;
+        }
 
-        public PolymerizeData(String name, int type) {
-            this.name = name;
-            this.type = type;
+        byte[] encode() {
+            return QMonitorStore.encode(count, values);
+        }
+
+        float[] average() {
+            float[] result = new float[values.length];
+            for (int i = 0; i < values.length; ++i) {
+                result[i] = i == MAX_INDEX ? values[i] : values[i] / count;
+            }
+            return result;
         }
     }
 
     private boolean isEmpty(Collection collection) {
         return (collection == null || collection.isEmpty());
     }
-
-    private boolean isEmpty(Map map) {
-        return (map == null || map.isEmpty());
-    }
 }
@@ -0,0 +1,212 @@
+package qunar.tc.bistoury.commands.arthas.telnet;
+
+import org.apache.commons.net.telnet.TelnetClient;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import qunar.tc.bistoury.agent.common.ResponseHandler;
+import qunar.tc.bistoury.common.BistouryConstants;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 用本地的server模拟arthas，每个连接先输出版本信息和提示符
+ */
+public class TelnetPoolTest {
+
+    private ServerSocket server;
+
+    private Thread acceptor;
+
+    private final List<Socket> accepted = new CopyOnWriteArrayList<>();
+
+    private final AtomicInteger created = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        Socket socket = server.accept();
+                        accepted.add(socket);
+                        OutputStream out = socket.getOutputStream();
+                        out.write((BistouryConstants.BISTOURY_VERSION_LINE_PREFIX + " " + BistouryConstants.CURRENT_VERSION + "\n$ ").getBytes(StandardCharsets.UTF_8));
+                        out.flush();
+                    }
+                } catch (IOException e) {
+                    // server closed
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+        for (Socket socket : accepted) {
+            socket.close();
+        }
+        acceptor.join(1000);
+    }
+
+    @Test
+    public void completedSessionIsReturnedAndReused() throws Exception {
+        TelnetPool pool = new TelnetPool(2, 2, 100);
+
+        TestTelnet first = (TestTelnet) pool.borrow(true, factory());
+        runCommand(first, "sc *", true);
+        first.close();
+
+        Telnet second = pool.borrow(true, factory());
+        Assert.assertSame(first, second);
+        Assert.assertEquals(1, created.get());
+        second.close();
+    }
+
+    @Test
+    public void idleSessionIsNotUsedWhenReuseIsNotAllowed() throws Exception {
+        TelnetPool pool = new TelnetPool(2, 2, 100);
+
+        Telnet first = pool.borrow(true, factory());
+        runCommand((TestTelnet) first, "sc *", true);
+        first.close();
+
+        Telnet second = pool.borrow(false, factory());
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals(2, created.get());
+        second.close();
+    }
+
+    @Test
+    public void incompleteSessionIsDiscarded() throws Exception {
+        TelnetPool pool = new TelnetPool(1, 1, 100);
+
+        TestTelnet broken = (TestTelnet) pool.borrow(true, factory());
+        runCommand(broken, "sc *", false);
+        broken.close();
+
+        Telnet next = pool.borrow(true, factory());
+        Assert.assertNotSame(broken, next);
+        Assert.assertEquals(2, created.get());
+        Assert.assertTrue(broken.disconnected());
+        next.close();
+    }
+
+    @Test
+    public void sessionsBeforeClearAreNotReused() throws Exception {
+        TelnetPool pool = new TelnetPool(2, 2, 100);
+
+        TestTelnet first = (TestTelnet) pool.borrow(true, factory());
+        runCommand(first, "sc *", true);
+        pool.clear();
+        first.close();
+
+        Telnet second = pool.borrow(true, factory());
+        Assert.assertNotSame(first, second);
+        Assert.assertTrue(first.disconnected());
+        second.close();
+    }
+
+    @Test
+    public void borrowTimesOutWhenAllSessionsAreInUse() throws Exception {
+        TelnetPool pool = new TelnetPool(1, 1, 100);
+
+        Telnet inUse = pool.borrow(true, factory());
+        try {
+            pool.borrow(true, factory());
+            Assert.fail("borrow should time out");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        inUse.close();
+        pool.borrow(true, factory()).close();
+    }
+
+    @Test
+    public void streamingSessionsDoNotUseSharedPermits() throws Exception {
+        TelnetPool pool = new TelnetPool(1, 1, 100);
+
+        TestTelnet watching = (TestTelnet) pool.borrow(true, factory());
+        watching.write("watch java.lang.String toString");
+
+        Telnet other = pool.borrow(true, factory());
+        other.close();
+
+        TestTelnet secondStreaming = (TestTelnet) pool.borrow(true, factory());
+        try {
+            secondStreaming.write("trace java.lang.String toString");
+            Assert.fail("streaming sessions should be bounded");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        secondStreaming.close();
+
+        watching.close();
+        TestTelnet streamingAgain = (TestTelnet) pool.borrow(true, factory());
+        streamingAgain.write("monitor java.lang.String toString");
+        streamingAgain.close();
+    }
+
+    private void runCommand(TestTelnet telnet, String command, boolean complete) throws Exception {
+        telnet.write(command);
+        if (complete) {
+            telnet.complete();
+        }
+    }
+
+    private Callable<Telnet> factory() {
+        return new Callable<Telnet>() {
+            @Override
+            public Telnet call() throws Exception {
+                TelnetClient client = new TelnetClient();
+                client.connect(InetAddress.getLoopbackAddress().getHostAddress(), server.getLocalPort());
+                created.incrementAndGet();
+                return new TestTelnet(client);
+            }
+        };
+    }
+
+    private static class TestTelnet extends Telnet {
+
+        private volatile boolean disconnected = false;
+
+        TestTelnet(TelnetClient client) throws IOException {
+            super(client);
+        }
+
+        @Override
+        public void read(String command, ResponseHandler responseHandler) {
+            complete();
+        }
+
+        void complete() {
+            readCompleted();
+        }
+
+        @Override
+        void disconnect() {
+            disconnected = true;
+            super.disconnect();
+        }
+
+        boolean disconnected() {
+            return disconnected;
+        }
+    }
+}
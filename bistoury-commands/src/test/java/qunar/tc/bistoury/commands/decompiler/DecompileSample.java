@@ -0,0 +1,23 @@
+package qunar.tc.bistoury.commands.decompiler;
+
+/**
+ * 反编译测试用的类，带一个内部类
+ */
+public class DecompileSample {
+
+    public int sum(int[] values) {
+        Counter counter = new Counter();
+        for (int value : values) {
+            counter.add(value);
+        }
+        return counter.total;
+    }
+
+    static class Counter {
+        private int total;
+
+        void add(int value) {
+            total += value;
+        }
+    }
+}
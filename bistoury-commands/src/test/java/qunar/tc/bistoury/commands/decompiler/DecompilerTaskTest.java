@@ -0,0 +1,125 @@
+package qunar.tc.bistoury.commands.decompiler;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.ning.http.util.Base64;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import qunar.tc.bistoury.common.CodeProcessResponse;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * 把{@link DecompileSample}和它的内部类复制到临时目录或jar包中再反编译
+ */
+public class DecompilerTaskTest {
+
+    private static final String CLASS_NAME = DecompileSample.class.getName();
+
+    private static final String CLASS_PATH = CLASS_NAME.replace('.', '/');
+
+    private File dir;
+
+    @Before
+    public void setUp() {
+        dir = Files.createTempDir();
+    }
+
+    @After
+    public void tearDown() {
+        delete(dir);
+    }
+
+    @Test
+    public void decompileFromDirectory() throws IOException {
+        File classFile = new File(dir, CLASS_PATH + ".class");
+        Files.createParentDirs(classFile);
+        Files.write(classBytes(""), classFile);
+        Files.write(classBytes("$Counter"), new File(classFile.getParentFile(), "DecompileSample$Counter.class"));
+
+        assertDecompiled(decompile(classFile.toURI().toURL().toString()));
+    }
+
+    @Test
+    public void decompileFromJar() throws IOException {
+        File jar = writeJar(new File(dir, "sample.jar"));
+
+        assertDecompiled(decompile(jarUrl(jar)));
+    }
+
+    @Test
+    public void unchangedJarIsNotReadAgain() throws IOException {
+        File jar = writeJar(new File(dir, "cached.jar"));
+        long lastModified = jar.lastModified();
+        String first = decompile(jarUrl(jar));
+
+        byte[] garbage = new byte[(int) jar.length()];
+        Arrays.fill(garbage, (byte) 'x');
+        Files.write(garbage, jar);
+        Assert.assertTrue(jar.setLastModified(lastModified));
+        Assert.assertEquals(first, decompile(jarUrl(jar)));
+
+        Assert.assertTrue(jar.setLastModified(lastModified - 10000));
+        try {
+            decompile(jarUrl(jar));
+            Assert.fail("changed jar should be read again");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private String decompile(String classPath) throws IOException {
+        CodeProcessResponse<String> response = new CodeProcessResponse<>();
+        new DecompilerTask("test", null, null, 0).decompile(CLASS_NAME, classPath, response);
+        Assert.assertEquals(response.getMessage(), 0, response.getCode());
+        Assert.assertEquals("DecompileSample.java", response.getId());
+        return new String(Base64.decode(response.getData()), StandardCharsets.UTF_8);
+    }
+
+    private void assertDecompiled(String content) {
+        Assert.assertTrue(content, content.contains("public class DecompileSample"));
+        Assert.assertTrue(content, content.contains("static class Counter"));
+        Assert.assertTrue(content, content.contains(".add("));
+    }
+
+    private File writeJar(File jar) throws IOException {
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+            for (String suffix : new String[]{"", "$Counter"}) {
+                out.putNextEntry(new JarEntry(CLASS_PATH + suffix + ".class"));
+                out.write(classBytes(suffix));
+                out.closeEntry();
+            }
+        }
+        return jar;
+    }
+
+    private String jarUrl(File jar) {
+        return "jar:file:" + jar.getAbsolutePath() + "!/" + CLASS_PATH + ".class";
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private byte[] classBytes(String suffix) throws IOException {
+        try (InputStream in = DecompilerTaskTest.class.getClassLoader().getResourceAsStream(CLASS_PATH + suffix + ".class")) {
+            Assert.assertNotNull(in);
+            return ByteStreams.toByteArray(in);
+        }
+    }
+}
@@ -24,6 +24,8 @@ public class BistouryConstants {
 
     public static final String MAX_RUNNING_MS = "max.running.ms";
 
+    public static final String FLOW_CONTROL_WINDOW = "flow.control.window";
+
     public static final String FILL_PID = "$$FILLPID$$";
 
     public static final String PID_PARAM = " -pid";
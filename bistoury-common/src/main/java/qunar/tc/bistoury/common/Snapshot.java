@@ -18,10 +18,15 @@
 package qunar.tc.bistoury.common;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.collect.Maps;
 
 import java.util.Map;
 
 /**
+ * 变量和调用栈都以UTF-8编码的JSON保存，比String占用的内存更少，只在读取时解码
+ *
  * @author zhenyu.nie created on 2018 2018/9/21 17:05
  */
 public class Snapshot {
@@ -39,13 +44,20 @@ public class Snapshot {
 
     private final int line;
 
-    private Map<String, String> staticFields;
+    private static final Function<byte[], String> UTF8_DECODER = new Function<byte[], String>() {
+        @Override
+        public String apply(byte[] input) {
+            return decode(input);
+        }
+    };
+
+    private Map<String, byte[]> staticFields;
 
-    private Map<String, String> fields;
+    private Map<String, byte[]> fields;
 
-    private Map<String, String> localVariables;
+    private Map<String, byte[]> localVariables;
 
-    private String stacktrace;
+    private byte[] stacktrace;
 
     private volatile long expireTime;
 
@@ -87,37 +99,45 @@ public class Snapshot {
     }
 
     public Map<String, String> getStaticFields() {
-        return staticFields;
+        return decode(staticFields);
     }
 
-    public void setStaticFields(Map<String, String> staticFields) {
+    public void setStaticFields(Map<String, byte[]> staticFields) {
         this.staticFields = staticFields;
     }
 
     public Map<String, String> getFields() {
-        return fields;
+        return decode(fields);
     }
 
-    public void setFields(Map<String, String> fields) {
+    public void setFields(Map<String, byte[]> fields) {
         this.fields = fields;
     }
 
     public Map<String, String> getLocalVariables() {
-        return localVariables;
+        return decode(localVariables);
     }
 
-    public void setLocalVariables(Map<String, String> localVariables) {
+    public void setLocalVariables(Map<String, byte[]> localVariables) {
         this.localVariables = localVariables;
     }
 
     public String getStacktrace() {
-        return stacktrace;
+        return decode(stacktrace);
     }
 
-    public void setStacktrace(String stacktrace) {
+    public void setStacktrace(byte[] stacktrace) {
         this.stacktrace = stacktrace;
     }
 
+    private static Map<String, String> decode(Map<String, byte[]> records) {
+        return records == null ? null : Maps.transformValues(records, UTF8_DECODER);
+    }
+
+    private static String decode(byte[] record) {
+        return record == null ? null : new String(record, Charsets.UTF_8);
+    }
+
 
     public long getExpireTime() {
         return expireTime;
@@ -138,10 +158,10 @@ public class Snapshot {
                 ", id='" + id + '\'' +
                 ", source='" + source + '\'' +
                 ", line=" + line +
-                ", staticFields=" + staticFields +
-                ", fields=" + fields +
-                ", localVariables=" + localVariables +
-                ", stacktrace='" + stacktrace + '\'' +
+                ", staticFields=" + getStaticFields() +
+                ", fields=" + getFields() +
+                ", localVariables=" + getLocalVariables() +
+                ", stacktrace='" + getStacktrace() + '\'' +
                 ", expireTime=" + expireTime +
                 '}';
     }
@@ -213,17 +213,17 @@ public class AgentBootstrap2 {
         Class<?> snapshotCaptureClass = classLoader.loadClass("qunar.tc.bistoury.instrument.client.debugger.SnapshotCapture");
         Class<?> agentMonitorClass = classLoader.loadClass("qunar.tc.bistoury.instrument.client.monitor.AgentMonitor");
         BistourySpys1.init(
-                globalContextClass.getMethod(BistourySpys1.HAS_BREAKPOINT_SET, String.class, int.class),
-                globalContextClass.getMethod(BistourySpys1.IS_HIT, String.class, int.class),
+                globalContextClass.getMethod(BistourySpys1.HAS_BREAKPOINT_SET, int.class),
+                globalContextClass.getMethod(BistourySpys1.CONDITION_CAPTURE_MASK, int.class, int.class),
+                globalContextClass.getMethod(BistourySpys1.IS_HIT, int.class),
                 snapshotCaptureClass.getMethod(BistourySpys1.PUT_LOCAL_VARIABLE, String.class, Object.class),
                 snapshotCaptureClass.getMethod(BistourySpys1.PUT_FIELD, String.class, Object.class),
                 snapshotCaptureClass.getMethod(BistourySpys1.PUT_STATIC_FIELD, String.class, Object.class),
                 snapshotCaptureClass.getMethod(BistourySpys1.FILL_STACKTRACE, String.class, int.class, Throwable.class),
                 snapshotCaptureClass.getMethod(BistourySpys1.DUMP, String.class, int.class),
                 snapshotCaptureClass.getMethod(BistourySpys1.END_RECEIVE, String.class, int.class),
-                agentMonitorClass.getMethod(BistourySpys1.START_MONITOR),
-                agentMonitorClass.getMethod(BistourySpys1.STOP_MONITOR, String.class, long.class),
-                agentMonitorClass.getMethod(BistourySpys1.EXCEPTION_MONITOR, String.class)
+                agentMonitorClass.getMethod(BistourySpys1.STOP_MONITOR, int.class, long.class),
+                agentMonitorClass.getMethod(BistourySpys1.EXCEPTION_MONITOR, int.class)
         );
     }
 
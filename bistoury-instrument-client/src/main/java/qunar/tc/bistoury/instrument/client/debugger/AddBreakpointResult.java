@@ -26,9 +26,12 @@ public class AddBreakpointResult {
 
     private boolean newId;
 
-    public AddBreakpointResult(String id, boolean newId) {
+    private int slot;
+
+    public AddBreakpointResult(String id, boolean newId, int slot) {
         this.id = id;
         this.newId = newId;
+        this.slot = slot;
     }
 
     public String getId() {
@@ -38,4 +41,8 @@ public class AddBreakpointResult {
     public boolean isNewId() {
         return newId;
     }
+
+    public int getSlot() {
+        return slot;
+    }
 }
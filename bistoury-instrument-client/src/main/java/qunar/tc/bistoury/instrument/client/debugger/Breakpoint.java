@@ -19,7 +19,9 @@ package qunar.tc.bistoury.instrument.client.debugger;
 
 import qunar.tc.bistoury.instrument.client.location.Location;
 import qunar.tc.bistoury.instrument.client.spring.el.Expression;
+import qunar.tc.bistoury.instrument.client.spring.el.ExpressionReferences;
 
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -33,12 +35,20 @@ public class Breakpoint {
 
     private final Expression condition;
 
+    private final int slot;
+
+    private final Set<String> conditionReferences;
+
     private final AtomicBoolean trigger = new AtomicBoolean(false);
 
-    public Breakpoint(String id, Location location, Expression condition) {
+    private volatile SiteMask siteMask;
+
+    public Breakpoint(String id, Location location, Expression condition, int slot) {
         this.id = id;
         this.location = location;
         this.condition = condition;
+        this.slot = slot;
+        this.conditionReferences = condition == null ? null : ExpressionReferences.referencedNames(condition);
     }
 
     public String getId() {
@@ -53,7 +63,40 @@ public class Breakpoint {
         return condition;
     }
 
+    public int getSlot() {
+        return slot;
+    }
+
     public boolean trigger() {
         return trigger.compareAndSet(false, true);
     }
+
+    /**
+     * 计算条件前需要采集的变量，没有条件时什么都不用采集；只在换了采集点时才去查采集点信息
+     */
+    long captureMask(int site) {
+        if (condition == null) {
+            return CaptureSite.CAPTURE_NONE;
+        }
+
+        SiteMask cached = siteMask;
+        if (cached != null && cached.site == site) {
+            return cached.mask;
+        }
+
+        CaptureSite captureSite = GlobalDebugContext.getCaptureSite(site);
+        long mask = captureSite == null ? CaptureSite.CAPTURE_ALL : captureSite.maskOf(conditionReferences);
+        siteMask = new SiteMask(site, mask);
+        return mask;
+    }
+
+    private static final class SiteMask {
+        private final int site;
+        private final long mask;
+
+        private SiteMask(int site, long mask) {
+            this.site = site;
+            this.mask = mask;
+        }
+    }
 }
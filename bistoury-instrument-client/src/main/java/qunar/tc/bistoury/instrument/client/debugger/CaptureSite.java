@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2019 Qunar, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package qunar.tc.bistoury.instrument.client.debugger;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 插桩时某一行可以采集的变量，依次为局部变量、静态字段、字段，顺序与字节码中采集的顺序一致
+ * <p>
+ * 第i个变量对应采集掩码中的第i位，超过63个的变量共用最高位
+ */
+final class CaptureSite {
+
+    static final long CAPTURE_NONE = 0L;
+
+    static final long CAPTURE_ALL = -1L;
+
+    private static final int LAST_BIT = Long.SIZE - 1;
+
+    private final String[] names;
+
+    CaptureSite(List<String> names) {
+        this.names = names.toArray(new String[0]);
+    }
+
+    static long bitOf(int index) {
+        return 1L << Math.min(index, LAST_BIT);
+    }
+
+    /**
+     * @param references 条件中引用的变量名，null表示无法确定
+     * @return 计算条件前需要采集的变量的掩码
+     */
+    long maskOf(Set<String> references) {
+        if (references == null) {
+            return CAPTURE_ALL;
+        }
+
+        long mask = CAPTURE_NONE;
+        for (int i = 0; i < names.length; ++i) {
+            if (references.contains(names[i])) {
+                mask |= bitOf(i);
+            }
+        }
+        return mask;
+    }
+
+    @Override
+    public String toString() {
+        return "CaptureSite{" +
+                "names=" + Arrays.toString(names) +
+                '}';
+    }
+}
@@ -67,7 +67,8 @@ class DebuggerClassFileTransformer extends Transformer {
             classReader.accept(new MetadataCollector(classMetadata), ClassReader.SKIP_FRAMES);
 
             final ClassWriter classWriter = new ClassWriter(computeFlag(classReader));
-            final ClassVisitor classVisitor = new DebuggerClassVisitor(new CheckClassAdapter(classWriter), source, classMetadata);
+            final int generation = GlobalDebugContext.nextInstrumentGeneration();
+            final ClassVisitor classVisitor = new DebuggerClassVisitor(new CheckClassAdapter(classWriter), source, classMetadata, generation);
             classReader.accept(classVisitor, ClassReader.SKIP_FRAMES);
             byte[] bytes = classWriter.toByteArray();
             classFileBuffer.setClassBuffer(classBeingRedefined, bytes);
@@ -28,15 +28,18 @@ import org.objectweb.asm.Opcodes;
 class DebuggerClassVisitor extends ClassVisitor {
     private final String source;
     private final ClassMetadata classMetadata;
+    private final int generation;
 
     private String className;
 
     public DebuggerClassVisitor(final ClassVisitor cv,
                                 final String source,
-                                final ClassMetadata classMetadata) {
+                                final ClassMetadata classMetadata,
+                                final int generation) {
         super(Opcodes.ASM5, cv);
         this.source = source;
         this.classMetadata = classMetadata;
+        this.generation = generation;
     }
 
     @Override
@@ -65,6 +68,6 @@ class DebuggerClassVisitor extends ClassVisitor {
                 source, className,
                 name, desc,
                 access,
-                classMetadata, originalMV);
+                classMetadata, generation, originalMV);
     }
 }
@@ -25,7 +25,9 @@ import org.objectweb.asm.commons.AdviceAdapter;
 import qunar.tc.bistoury.instrument.client.location.Location;
 import qunar.tc.bistoury.instrument.spy.BistourySpys1;
 
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * @author keli.wang
@@ -40,12 +42,18 @@ class DebuggerMethodVisitor extends AdviceAdapter {
     private static final String DEFAULT_DEBUG_ADDKV_DESC = "(Ljava/lang/String;Ljava/lang/Object;)V";
     private static final String DUMP_METHOD_DESC = "(Ljava/lang/String;I)V";
     private static final String ENDRECEIVE_METHOD_DESC = "(Ljava/lang/String;I)V";
+    private static final String CONDITION_CAPTURE_MASK_DESC = "(II)J";
+    private static final String BREAKPOINT_SLOT_DESC = "(I)Z";
 
     private final String source;
     private final String className;
     private final String methodUniqueName;
     private final int access;
     private final ClassMetadata classMetadata;
+    private final int generation;
+
+    private int captureMaskLocal = -1;
+    private int hitLocal = -1;
 
     DebuggerMethodVisitor(final String source,
                           final String className,
@@ -53,6 +61,7 @@ class DebuggerMethodVisitor extends AdviceAdapter {
                           final String desc,
                           final int access,
                           final ClassMetadata classMetadata,
+                          final int generation,
                           final MethodVisitor mv) {
         super(ASM5, mv, access, methodName, desc);
         this.source = source;
@@ -60,6 +69,7 @@ class DebuggerMethodVisitor extends AdviceAdapter {
         this.methodUniqueName = methodName + desc;
         this.access = access;
         this.classMetadata = classMetadata;
+        this.generation = generation;
     }
 
     /**
@@ -71,35 +81,123 @@ class DebuggerMethodVisitor extends AdviceAdapter {
     public void visitLineNumber(final int line, final Label start) {
         super.visitLineNumber(line, start);
         Location location = new Location(source, line);
-        if (GlobalDebugContext.hasBreakpointSet(location)) {
+        final int slot = GlobalDebugContext.slotOf(location);
+        if (slot != GlobalDebugContext.NO_SLOT) {
             final Label breakpointLabel = new Label();
-            breakpointSwitch(source, line, breakpointLabel);
-            captureSnapshot(line);
-            isHit(source, line, breakpointLabel);
+            breakpointSwitch(slot, breakpointLabel);
+            captureAndCheck(slot, line, breakpointLabel);
             processForBreakpoint(source, line);
             super.visitLabel(breakpointLabel);
         }
     }
 
-    private void breakpointSwitch(String source, int line, Label breakpointLabel) {
-        super.visitLdcInsn(source);
-        super.visitLdcInsn(line);
-        super.visitMethodInsn(INVOKESTATIC, SPY_NAME, "hasBreakpointSet",
-                "(Ljava/lang/String;I)Z", false);
-        super.visitJumpInsn(IFEQ, breakpointLabel);
+    /**
+     * 先只采集断点条件中用到的变量并计算条件，命中以后再采集剩下的变量，生成的代码相当于：
+     * <pre>
+     * long mask = conditionCaptureMask(slot, site);
+     * boolean hit = false;
+     * capture:
+     * 按mask采集变量;
+     * if (!hit) {
+     *     if (!isHit(slot)) goto breakpointLabel;
+     *     mask = ~mask;
+     *     hit = true;
+     *     goto capture;
+     * }
+     * </pre>
+     * 没有条件的断点mask为0，只在命中时采集一次
+     */
+    private void captureAndCheck(final int slot, final int line, final Label breakpointLabel) {
+        final List<String> names = new ArrayList<>();
+        final List<LocalVariable> locals = visibleLocals(line, names);
+        final List<ClassField> staticFields = collectFields(classMetadata.getStaticFields(), names);
+        final List<ClassField> fields = isStatic() ? Collections.<ClassField>emptyList() : collectFields(classMetadata.getFields(), names);
+        final int site = GlobalDebugContext.registerCaptureSite(slot, generation, new CaptureSite(names));
+
+        if (captureMaskLocal < 0) {
+            captureMaskLocal = newLocal(Type.LONG_TYPE);
+            hitLocal = newLocal(Type.BOOLEAN_TYPE);
+        }
+
+        //这里新加的指令都不改变操作数栈的深度，直接写给mv，不需要AdviceAdapter在构造函数中跟踪
+        mv.visitLdcInsn(slot);
+        mv.visitLdcInsn(site);
+        mv.visitMethodInsn(INVOKESTATIC, SPY_NAME, "conditionCaptureMask", CONDITION_CAPTURE_MASK_DESC, false);
+        mv.visitVarInsn(LSTORE, captureMaskLocal);
+        mv.visitInsn(ICONST_0);
+        mv.visitVarInsn(ISTORE, hitLocal);
+
+        final Label captureLabel = new Label();
+        final Label capturedLabel = new Label();
+        mv.visitLabel(captureLabel);
+        mv.visitVarInsn(LLOAD, captureMaskLocal);
+        mv.visitInsn(LCONST_0);
+        mv.visitInsn(LCMP);
+        mv.visitJumpInsn(IFEQ, capturedLabel);
+        int index = addLocals(locals, 0);
+        index = addStaticFields(staticFields, index);
+        addFields(fields, index);
+        mv.visitLabel(capturedLabel);
+
+        final Label processLabel = new Label();
+        mv.visitVarInsn(ILOAD, hitLocal);
+        mv.visitJumpInsn(IFNE, processLabel);
+        isHit(slot, breakpointLabel);
+        mv.visitVarInsn(LLOAD, captureMaskLocal);
+        mv.visitLdcInsn(CaptureSite.CAPTURE_ALL);
+        mv.visitInsn(LXOR);
+        mv.visitVarInsn(LSTORE, captureMaskLocal);
+        mv.visitInsn(ICONST_1);
+        mv.visitVarInsn(ISTORE, hitLocal);
+        mv.visitJumpInsn(GOTO, captureLabel);
+        mv.visitLabel(processLabel);
+    }
+
+    private List<LocalVariable> visibleLocals(final int line, final List<String> names) {
+        final List<LocalVariable> result = new ArrayList<>();
+        for (final LocalVariable var : classMetadata.getVariables().get(methodUniqueName)) {
+            if (line >= var.getStart() && line < var.getEnd()) {
+                result.add(var);
+                names.add(var.getName());
+            }
+        }
+        return result;
     }
 
-    private void captureSnapshot(int line) {
-        addLocals(line);
-        addStaticFields();
-        addFields();
+    private List<ClassField> collectFields(final List<ClassField> fields, final List<String> names) {
+        for (final ClassField field : fields) {
+            names.add(field.getName());
+        }
+        return fields;
     }
 
-    private void isHit(final String source, final int line, final Label breakpointLabel) {
-        super.visitLdcInsn(source);
-        super.visitLdcInsn(line);
+    private boolean isStatic() {
+        return (access & Opcodes.ACC_STATIC) != 0;
+    }
+
+    /**
+     * 如果mask中第index位为0则跳到skip
+     */
+    private void skipIfNotCaptured(final int index, final Label skip) {
+        mv.visitVarInsn(LLOAD, captureMaskLocal);
+        mv.visitLdcInsn(CaptureSite.bitOf(index));
+        mv.visitInsn(LAND);
+        mv.visitInsn(LCONST_0);
+        mv.visitInsn(LCMP);
+        mv.visitJumpInsn(IFEQ, skip);
+    }
+
+    private void breakpointSwitch(int slot, Label breakpointLabel) {
+        super.visitLdcInsn(slot);
+        super.visitMethodInsn(INVOKESTATIC, SPY_NAME, "hasBreakpointSet",
+                BREAKPOINT_SLOT_DESC, false);
+        super.visitJumpInsn(IFEQ, breakpointLabel);
+    }
+
+    private void isHit(final int slot, final Label breakpointLabel) {
+        super.visitLdcInsn(slot);
         super.visitMethodInsn(INVOKESTATIC, SPY_NAME, "isHit",
-                "(Ljava/lang/String;I)Z", false);
+                BREAKPOINT_SLOT_DESC, false);
         super.visitJumpInsn(IFEQ, breakpointLabel);
     }
 
@@ -118,44 +216,49 @@ class DebuggerMethodVisitor extends AdviceAdapter {
     }
 
 
-    private void addLocals(final int line) {
-        final Collection<LocalVariable> variables = classMetadata.getVariables().get(methodUniqueName);
+    private int addLocals(final List<LocalVariable> variables, int index) {
         for (final LocalVariable var : variables) {
-            if (line >= var.getStart() && line < var.getEnd()) {
-                super.visitLdcInsn(var.getName());
-                super.visitVarInsn(Type.getType(var.getDesc()).getOpcode(ILOAD), var.getIndex());
-                boxingIfShould(var.getDesc());
-                super.visitMethodInsn(INVOKESTATIC, SPY_NAME,
-                        "putLocalVariable", DEFAULT_DEBUG_ADDKV_DESC, false);
-
-            }
+            final Label skip = new Label();
+            skipIfNotCaptured(index++, skip);
+            super.visitLdcInsn(var.getName());
+            super.visitVarInsn(Type.getType(var.getDesc()).getOpcode(ILOAD), var.getIndex());
+            boxingIfShould(var.getDesc());
+            super.visitMethodInsn(INVOKESTATIC, SPY_NAME,
+                    "putLocalVariable", DEFAULT_DEBUG_ADDKV_DESC, false);
+            mv.visitLabel(skip);
         }
+        return index;
     }
 
-    private void addStaticFields() {
-        for (final ClassField field : classMetadata.getStaticFields()) {
+    private int addStaticFields(final List<ClassField> staticFields, int index) {
+        for (final ClassField field : staticFields) {
             final String name = field.getName();
             final String desc = field.getDesc();
+            final Label skip = new Label();
+            skipIfNotCaptured(index++, skip);
             super.visitLdcInsn(name);
             super.visitFieldInsn(GETSTATIC, className, name, desc);
             boxingIfShould(desc);
             super.visitMethodInsn(INVOKESTATIC, SPY_NAME,
                     "putStaticField", DEFAULT_DEBUG_ADDKV_DESC, false);
+            mv.visitLabel(skip);
         }
+        return index;
     }
 
-    private void addFields() {
-        if ((access & Opcodes.ACC_STATIC) == 0) {
-            for (final ClassField field : classMetadata.getFields()) {
-                final String name = field.getName();
-                final String desc = field.getDesc();
-                super.visitLdcInsn(name);
-                super.visitVarInsn(ALOAD, 0);
-                super.visitFieldInsn(GETFIELD, className, name, desc);
-                boxingIfShould(desc);
-                super.visitMethodInsn(INVOKESTATIC, SPY_NAME,
-                        "putField", DEFAULT_DEBUG_ADDKV_DESC, false);
-            }
+    private void addFields(final List<ClassField> fields, int index) {
+        for (final ClassField field : fields) {
+            final String name = field.getName();
+            final String desc = field.getDesc();
+            final Label skip = new Label();
+            skipIfNotCaptured(index++, skip);
+            super.visitLdcInsn(name);
+            super.visitVarInsn(ALOAD, 0);
+            super.visitFieldInsn(GETFIELD, className, name, desc);
+            boxingIfShould(desc);
+            super.visitMethodInsn(INVOKESTATIC, SPY_NAME,
+                    "putField", DEFAULT_DEBUG_ADDKV_DESC, false);
+            mv.visitLabel(skip);
         }
     }
 
@@ -19,7 +19,7 @@ package qunar.tc.bistoury.instrument.client.debugger;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
-import com.google.common.collect.Sets;
+import com.google.common.collect.Maps;
 import com.taobao.middleware.logger.Logger;
 import qunar.tc.bistoury.attach.common.BistouryLoggger;
 import qunar.tc.bistoury.common.Status;
@@ -34,7 +34,7 @@ import java.io.File;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.Instrumentation;
 import java.lang.instrument.UnmodifiableClassException;
-import java.util.Set;
+import java.util.Map;
 import java.util.concurrent.locks.Lock;
 
 /**
@@ -44,7 +44,10 @@ public class DefaultDebugger implements Debugger {
 
     private static final Logger logger = BistouryLoggger.getLogger();
 
-    private static final Set<Location> instrumented = Sets.newHashSet();
+    /**
+     * 位置插桩时使用的槽位，断点移除后槽位会被回收，再次设置断点时分配到新槽位需要重新插桩
+     */
+    private static final Map<Location, Integer> instrumented = Maps.newHashMap();
 
     private InstrumentInfo instrumentInfo;
 
@@ -163,7 +166,7 @@ public class DefaultDebugger implements Debugger {
             }
 
             try {
-                boolean success = instrument(source, realLocation, location);
+                boolean success = instrument(source, realLocation, location, addBreakpointResult.getSlot());
                 if (success) {
                     receiver.initBreakPoint(id, realLocation.getSource(), realLocation.getLine());
                     return id;
@@ -181,8 +184,9 @@ public class DefaultDebugger implements Debugger {
         }
     }
 
-    private boolean instrument(String source, Location realLocation, ResolvedSourceLocation location) throws UnmodifiableClassException, ClassNotFoundException {
-        if (instrumented.contains(realLocation)) {
+    private boolean instrument(String source, Location realLocation, ResolvedSourceLocation location, int slot) throws UnmodifiableClassException, ClassNotFoundException {
+        Integer instrumentedSlot = instrumented.get(realLocation);
+        if (instrumentedSlot != null && instrumentedSlot == slot) {
             return true;
         }
 
@@ -191,7 +195,7 @@ public class DefaultDebugger implements Debugger {
             Class<?> clazz = instrumentInfo.signatureToClass(location.getClassSignature());
             inst.addTransformer(transformer, true);
             inst.retransformClasses(clazz);
-            instrumented.add(realLocation);
+            instrumented.put(realLocation, slot);
             instrumentInfo.addTransformedClasses(clazz);
             return true;
         } finally {
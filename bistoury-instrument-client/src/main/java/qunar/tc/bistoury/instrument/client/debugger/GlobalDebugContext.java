@@ -24,8 +24,14 @@ import qunar.tc.bistoury.attach.common.BistouryLoggger;
 import qunar.tc.bistoury.instrument.client.location.Location;
 import qunar.tc.bistoury.instrument.client.spring.el.*;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * @author keli.wang
@@ -40,8 +46,50 @@ public final class GlobalDebugContext {
     private static final String NORMAL_BREAKPOINT_SUFFIX = "-n";
     private static final String CONDITION_BREAKPOINT_SUFFIX = "-c";
 
+    static final int NO_SLOT = -1;
+
+    private static final int SLOT_INDEX_BITS = 16;
+
+    private static final int MAX_SLOTS = 1 << SLOT_INDEX_BITS;
+
+    private static final int SLOT_INDEX_MASK = MAX_SLOTS - 1;
+
+    private static final int SLOT_STAMP_MASK = Integer.MAX_VALUE >>> SLOT_INDEX_BITS;
+
+    private static final int INITIAL_SLOTS = 256;
+
     private static final Map<Location, Breakpoint> breakpoints = Maps.newHashMap();
 
+    /**
+     * 每个有断点的位置分配一个槽位，插桩的代码只带着槽位调用，运行时检查断点只需要读一次数组，不加锁也不创建对象
+     * <p>
+     * 槽位由下标和分配时的戳组成，断点移除后下标放回空闲列表复用，复用时换一个新的戳；
+     * 旧的插桩代码带着旧戳，和新断点对不上，就当作没有断点。槽位由breakpoints加锁维护
+     */
+    private static final Map<Location, Integer> locationSlots = Maps.newHashMap();
+
+    private static volatile AtomicReferenceArray<Breakpoint> slotBreakpoints = new AtomicReferenceArray<>(INITIAL_SLOTS);
+
+    private static final Deque<Integer> freeSlotIndexes = new ArrayDeque<>();
+
+    private static int nextSlotIndex = 0;
+
+    private static int nextSlotStamp = 0;
+
+    /**
+     * 插桩代码中的采集点，编号只增不减，失效的采集点删除后按采集全部变量处理，不会被其他位置复用
+     */
+    private static final ConcurrentMap<Integer, CaptureSite> captureSites = Maps.newConcurrentMap();
+
+    /**
+     * 每个槽位最近一次插桩注册的采集点，由breakpoints加锁维护
+     */
+    private static final Map<Integer, SlotCaptureSites> slotCaptureSites = Maps.newHashMap();
+
+    private static int nextCaptureSite = 0;
+
+    private static int nextInstrumentGeneration = 0;
+
     private static final ThreadLocal<String> breakpointId = new ThreadLocal<>();
 
     private static SnapshotReceiver snapshotReceiver;
@@ -66,6 +114,12 @@ public final class GlobalDebugContext {
     static void destroy() {
         synchronized (breakpoints) {
             breakpoints.clear();
+            slotBreakpoints = new AtomicReferenceArray<>(INITIAL_SLOTS);
+            locationSlots.clear();
+            freeSlotIndexes.clear();
+            nextSlotIndex = 0;
+            captureSites.clear();
+            slotCaptureSites.clear();
             breakpointId.remove();
         }
     }
@@ -74,27 +128,115 @@ public final class GlobalDebugContext {
         synchronized (breakpoints) {
             Breakpoint oldBreakpoint = breakpoints.get(location);
             if (oldBreakpoint != null && oldBreakpoint.getCondition() == null && condition == null) {
-                return new AddBreakpointResult(oldBreakpoint.getId(), false);
+                return new AddBreakpointResult(oldBreakpoint.getId(), false, oldBreakpoint.getSlot());
             } else if (oldBreakpoint != null && oldBreakpoint.getCondition() != null && condition != null) {
                 String oldConditionStr = oldBreakpoint.getCondition().getExpressionString();
                 String newConditionStr = condition.getExpressionString();
                 if (objectEquals(oldConditionStr, newConditionStr)) {
-                    return new AddBreakpointResult(oldBreakpoint.getId(), false);
+                    return new AddBreakpointResult(oldBreakpoint.getId(), false, oldBreakpoint.getSlot());
                 }
             }
 
+            int slot = allocateSlot(location);
+            if (slot == NO_SLOT) {
+                LOG.warn("too many breakpoint locations, max {}, ignore breakpoint at {}", MAX_SLOTS, location);
+                throw new IllegalStateException("register breakpoint fail, too many breakpoints, max " + MAX_SLOTS);
+            }
+
             String id;
             if (condition == null) {
                 id = UUID.randomUUID().toString() + NORMAL_BREAKPOINT_SUFFIX;
             } else {
                 id = UUID.randomUUID().toString() + CONDITION_BREAKPOINT_SUFFIX;
             }
-            Breakpoint breakpoint = new Breakpoint(id, location, condition);
+            Breakpoint breakpoint = new Breakpoint(id, location, condition, slot);
+            slotBreakpoints.set(slot & SLOT_INDEX_MASK, breakpoint);
             breakpoints.put(location, breakpoint);
             if (oldBreakpoint != null) {
                 snapshotReceiver.remove(oldBreakpoint.getId());
             }
-            return new AddBreakpointResult(breakpoint.getId(), true);
+            return new AddBreakpointResult(breakpoint.getId(), true, slot);
+        }
+    }
+
+    /**
+     * 位置上已经有断点时沿用原来的槽位，否则优先复用空闲的下标，用完了再扩容，超过上限返回{@link #NO_SLOT}
+     */
+    private static int allocateSlot(Location location) {
+        Integer slot = locationSlots.get(location);
+        if (slot != null) {
+            return slot;
+        }
+
+        Integer index = freeSlotIndexes.poll();
+        if (index == null) {
+            if (nextSlotIndex >= MAX_SLOTS) {
+                return NO_SLOT;
+            }
+            index = nextSlotIndex++;
+            ensureCapacity(index);
+        }
+
+        slot = (nextSlotStamp++ & SLOT_STAMP_MASK) << SLOT_INDEX_BITS | index;
+        locationSlots.put(location, slot);
+        return slot;
+    }
+
+    private static void ensureCapacity(int index) {
+        AtomicReferenceArray<Breakpoint> current = slotBreakpoints;
+        if (index < current.length()) {
+            return;
+        }
+
+        AtomicReferenceArray<Breakpoint> grown = new AtomicReferenceArray<>(Math.min(MAX_SLOTS, current.length() * 2));
+        for (int i = 0; i < current.length(); ++i) {
+            grown.set(i, current.get(i));
+        }
+        slotBreakpoints = grown;
+    }
+
+    /**
+     * 插桩时获取位置对应的槽位，位置上没有断点时返回{@link #NO_SLOT}，这一行不插桩
+     */
+    static int slotOf(Location location) {
+        synchronized (breakpoints) {
+            Integer slot = locationSlots.get(location);
+            return slot == null ? NO_SLOT : slot;
+        }
+    }
+
+    private static Breakpoint getBreakpoint(int slot) {
+        if (slot < 0) {
+            return null;
+        }
+        AtomicReferenceArray<Breakpoint> current = slotBreakpoints;
+        int index = slot & SLOT_INDEX_MASK;
+        if (index >= current.length()) {
+            return null;
+        }
+        Breakpoint breakpoint = current.get(index);
+        if (breakpoint == null || breakpoint.getSlot() != slot) {
+            return null;
+        }
+        return breakpoint;
+    }
+
+    private static void freeSlot(Location location) {
+        Integer slot = locationSlots.remove(location);
+        if (slot != null) {
+            int index = slot & SLOT_INDEX_MASK;
+            slotBreakpoints.set(index, null);
+            freeSlotIndexes.push(index);
+            removeCaptureSites(slot);
+        }
+    }
+
+    private static void removeCaptureSites(int slot) {
+        SlotCaptureSites sites = slotCaptureSites.remove(slot);
+        if (sites != null) {
+            for (Integer site : sites.sites) {
+                captureSites.remove(site);
+            }
         }
     }
 
@@ -107,6 +249,7 @@ public final class GlobalDebugContext {
             Breakpoint breakpoint = breakpoints.get(location);
             if (breakpoint != null && breakpoint.getId().equals(breakpointId)) {
                 breakpoints.remove(location);
+                freeSlot(location);
             }
         }
     }
@@ -116,16 +259,42 @@ public final class GlobalDebugContext {
             Breakpoint candidate = breakpoints.get(breakpoint.getLocation());
             if (candidate != null && candidate.getId().equals(breakpoint.getId())) {
                 breakpoints.remove(breakpoint.getLocation());
+                freeSlot(breakpoint.getLocation());
             }
         }
     }
 
-    static boolean hasBreakpointSet(final Location location) {
+
+    /**
+     * 每次对类插桩使用一个新的代号，同一次插桩中一行可能对应多个采集点
+     */
+    static int nextInstrumentGeneration() {
         synchronized (breakpoints) {
-            return breakpoints.containsKey(location);
+            return nextInstrumentGeneration++;
         }
     }
 
+    /**
+     * 重新插桩时，槽位上一次插桩注册的采集点被新的采集点替换
+     */
+    static int registerCaptureSite(int slot, int generation, CaptureSite captureSite) {
+        synchronized (breakpoints) {
+            SlotCaptureSites sites = slotCaptureSites.get(slot);
+            if (sites == null || sites.generation != generation) {
+                removeCaptureSites(slot);
+                sites = new SlotCaptureSites(generation);
+                slotCaptureSites.put(slot, sites);
+            }
+            int site = nextCaptureSite++;
+            captureSites.put(site, captureSite);
+            sites.sites.add(site);
+            return site;
+        }
+    }
+
+    static CaptureSite getCaptureSite(int site) {
+        return captureSites.get(site);
+    }
 
     static String getBreakpointId() {
         return breakpointId.get();
@@ -146,21 +315,24 @@ public final class GlobalDebugContext {
 
 
     //方法不要删除，字节码中使用
-    public static boolean hasBreakpointSet(final String source, final int line) {
-        Location location = new Location(source, line);
-        return hasBreakpointSet(location);
+    public static boolean hasBreakpointSet(final int slot) {
+        return getBreakpoint(slot) != null;
     }
 
+    //方法不要删除，字节码中使用
+    public static long conditionCaptureMask(final int slot, final int site) {
+        final Breakpoint breakpoint = getBreakpoint(slot);
+        if (breakpoint == null) {
+            return CaptureSite.CAPTURE_NONE;
+        }
+        return breakpoint.captureMask(site);
+    }
 
     //方法不要删除，字节码中使用
-    public static boolean isHit(final String source, final int line) {
+    public static boolean isHit(final int slot) {
         if (snapshotReceiver == null) return false;
 
-        final Location location = new Location(source, line);
-        Breakpoint breakpoint;
-        synchronized (breakpoints) {
-            breakpoint = breakpoints.get(location);
-        }
+        final Breakpoint breakpoint = getBreakpoint(slot);
         if (breakpoint == null) {
             return false;
         }
@@ -173,12 +345,18 @@ public final class GlobalDebugContext {
         STATE state = checkCondition(breakpoint.getCondition());
         switch (state) {
             case HIT:
-                return doBreak(breakpoint);
+                if (doBreak(breakpoint)) {
+                    return true;
+                }
+                SnapshotCapture.clear();
+                return false;
             case FAIL:
+                SnapshotCapture.clear();
                 removeBreakpoint(breakpoint);
                 snapshotReceiver.endFail(breakpoint.getId());
                 return false;
             case MISS:
+                SnapshotCapture.clear();
                 return false;
             default:
                 throw new IllegalStateException("illegal state: " + state);
@@ -226,4 +404,13 @@ public final class GlobalDebugContext {
         HIT, MISS, FAIL
     }
 
+    private static final class SlotCaptureSites {
+        private final int generation;
+        private final List<Integer> sites = new ArrayList<>();
+
+        private SlotCaptureSites(int generation) {
+            this.generation = generation;
+        }
+    }
+
 }
@@ -74,7 +74,7 @@ public final class SnapshotCapture {
     }
 
 
-    static synchronized BreakpointConditionDTO get() {
+    static BreakpointConditionDTO get() {
         BreakpointConditionDTO breakpointConditionDTO = new BreakpointConditionDTO();
         breakpointConditionDTO.setFields(fields.get());
         breakpointConditionDTO.setLocalVariables(localVariables.get());
@@ -118,6 +118,15 @@ public final class SnapshotCapture {
         }
     }
 
+    /**
+     * 条件不满足时清掉为计算条件采集的变量，map留着下次复用
+     */
+    static void clear() {
+        localVariables.get().clear();
+        fields.get().clear();
+        staticFields.get().clear();
+    }
+
     private static void reset() {
         localVariables.remove();
         fields.remove();
@@ -19,13 +19,18 @@ package qunar.tc.bistoury.instrument.client.metrics;
 
 import com.codahale.metrics.Counter;
 import com.codahale.metrics.Metric;
-import com.google.common.primitives.Doubles;
 import qunar.tc.bistoury.clientside.common.monitor.MetricType;
 import qunar.tc.bistoury.instrument.client.metrics.adapter.ResettableTimer;
-import qunar.tc.bistoury.instrument.client.metrics.adapter.StatsBuffer;
+import qunar.tc.bistoury.instrument.client.metrics.adapter.StripedHistogram;
 
 public class ItemValue extends Item {
 
+    private static final float MICROS_PER_MILLI = 1000.0f;
+
+    /**
+     * timer的数据依次为：1分钟TPS、P98、P50、P90、P99、P999、最大值，耗时单位为毫秒
+     * 前两项与只上报P98时保持一致
+     */
     @SuppressWarnings("unchecked")
     static float[] valueOf(MetricType type, Metric value) {
 
@@ -35,21 +40,20 @@ public class ItemValue extends Item {
                 return new float[]{value(counter.getCount())};
             case TIMER:
                 ResettableTimer resettableTimer = (ResettableTimer) value;
-                StatsBuffer buffer = resettableTimer.getBuffer();
-                buffer.computeStats();
-                double[] percentileValues = buffer.getPercentileValues();
-                double[] percentiles = buffer.getPercentiles();
-                float p98 = value(percentileValues[percentilesIndex(ResettableTimer.P98, percentiles)]);
-                buffer.reset();
+                StripedHistogram.Snapshot snapshot = resettableTimer.snapshotAndReset();
                 return new float[]{value(resettableTimer.getOneMinuteRate()),
-                        p98};
+                        millis(snapshot.getValueAtPercentile(ResettableTimer.P98)),
+                        millis(snapshot.getValueAtPercentile(ResettableTimer.P50)),
+                        millis(snapshot.getValueAtPercentile(ResettableTimer.P90)),
+                        millis(snapshot.getValueAtPercentile(ResettableTimer.P99)),
+                        millis(snapshot.getValueAtPercentile(ResettableTimer.P999)),
+                        millis(snapshot.getMax())};
         }
         throw new IllegalArgumentException("invalid metric");
     }
 
-    private static int percentilesIndex(double percentile, double[] percentiles) {
-        int indexOf = Doubles.indexOf(percentiles, percentile);
-        return indexOf == -1 ? 0 : indexOf;
+    private static float millis(long micros) {
+        return micros / MICROS_PER_MILLI;
     }
 
     static float value(double value) {
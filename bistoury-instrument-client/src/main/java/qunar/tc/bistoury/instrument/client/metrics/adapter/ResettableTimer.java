@@ -20,9 +20,6 @@ package qunar.tc.bistoury.instrument.client.metrics.adapter;
 import com.codahale.metrics.Clock;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.Metric;
-import com.google.common.primitives.Ints;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.util.concurrent.TimeUnit;
 
@@ -33,33 +30,31 @@ import java.util.concurrent.TimeUnit;
  * Time: 下午2:02
  */
 public class ResettableTimer implements Metric {
-    private static final Logger LOG = LoggerFactory.getLogger(ResettableTimer.class);
 
+    public static final double P50 = 50.0;
+    public static final double P90 = 90.0;
     public static final double P98 = 98.0;
-
-    private static final int DEFAULT_TIMER_SIZE = 8000;
-    private static final double[] DEFAULT_PER = new double[]{P98};
+    public static final double P99 = 99.0;
+    public static final double P999 = 99.9;
 
     private final Meter meter;
-    private final StatsBuffer timer;
+    private final StripedHistogram histogram;
 
     public ResettableTimer() {
-        this(Clock.defaultClock(), DEFAULT_PER, DEFAULT_TIMER_SIZE);
+        this(Clock.defaultClock());
     }
 
-    public ResettableTimer(Clock clock, double[] percentiles, int timerSize) {
+    public ResettableTimer(Clock clock) {
         this.meter = new Meter(clock);
-        this.timer = new StatsBuffer(timerSize, percentiles);
+        this.histogram = new StripedHistogram();
     }
 
+    /**
+     * 耗时以微秒精度记录
+     */
     public void update(long el, TimeUnit timeUnit) {
         meter.mark();
-        long time = timeUnit.toMillis(el);
-        try {
-            timer.record(Ints.checkedCast(time));
-        } catch (IllegalArgumentException e) {
-            LOG.debug("update timer failed.", e);
-        }
+        histogram.record(timeUnit.toMicros(el));
     }
 
     public double getFifteenMinuteRate() {
@@ -78,7 +73,10 @@ public class ResettableTimer implements Metric {
         return meter.getOneMinuteRate();
     }
 
-    public StatsBuffer getBuffer() {
-        return timer;
+    /**
+     * 返回上次调用到现在的耗时分布，单位微秒
+     */
+    public StripedHistogram.Snapshot snapshotAndReset() {
+        return histogram.snapshotAndReset();
     }
 }
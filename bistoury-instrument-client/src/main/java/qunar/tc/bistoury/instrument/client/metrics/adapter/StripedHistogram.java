@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2019 Qunar, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package qunar.tc.bistoury.instrument.client.metrics.adapter;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 对数-线性分桶的直方图，每个2的幂区间再线性分成 {@link #SUB_BUCKET_COUNT} 个桶，相对误差不超过 1/SUB_BUCKET_COUNT
+ * <p>
+ * 记录时按线程分散到不同的条带上，只做原子自增，不加锁；快照时合并所有条带并清零，
+ * 每次调用都会被统计，内存占用固定，不随调用量增长
+ */
+public class StripedHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * 能区分的最大值为 2^MAX_EXPONENT - 1，以微秒计约19小时，更大的值都记在最后一个桶
+     */
+    private static final int MAX_EXPONENT = 36;
+
+    static final long MAX_TRACKABLE_VALUE = (1L << MAX_EXPONENT) - 1;
+
+    static final int BUCKET_COUNT = bucketIndex(MAX_TRACKABLE_VALUE) + 1;
+
+    private static final int MAX_STRIPES = 4;
+
+    private final int stripeMask;
+
+    /**
+     * 条带在第一次被使用时才创建，调用量小的指标只占用一个条带
+     */
+    private final AtomicReferenceArray<AtomicLongArray> stripes;
+
+    public StripedHistogram() {
+        this(Math.min(MAX_STRIPES, Runtime.getRuntime().availableProcessors()));
+    }
+
+    public StripedHistogram(int concurrency) {
+        Preconditions.checkArgument(concurrency > 0, "concurrency must be greater than 0");
+        int stripeCount = Integer.highestOneBit(concurrency);
+        if (stripeCount < concurrency) {
+            stripeCount <<= 1;
+        }
+        this.stripeMask = stripeCount - 1;
+        this.stripes = new AtomicReferenceArray<>(stripeCount);
+    }
+
+    /**
+     * 记录一个非负值，负值按0记录
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        stripe().incrementAndGet(bucketIndex(Math.min(value, MAX_TRACKABLE_VALUE)));
+    }
+
+    private AtomicLongArray stripe() {
+        final int index = hash(Thread.currentThread().getId()) & stripeMask;
+        AtomicLongArray stripe = stripes.get(index);
+        if (stripe == null) {
+            stripes.compareAndSet(index, null, new AtomicLongArray(BUCKET_COUNT));
+            stripe = stripes.get(index);
+        }
+        return stripe;
+    }
+
+    private static int hash(long threadId) {
+        long h = threadId * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * 合并所有条带得到从上次快照到现在的统计结果，并把条带清零
+     * <p>
+     * 与记录并发时，一次记录要么计入本次快照，要么计入下一次，不会丢失；
+     * 最大值由最高的非空桶得出，和桶计数在同一次原子清零中取得，不单独记录和清零
+     */
+    public Snapshot snapshotAndReset() {
+        final long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < stripes.length(); ++i) {
+            final AtomicLongArray stripe = stripes.get(i);
+            if (stripe == null) {
+                continue;
+            }
+            for (int j = 0; j < BUCKET_COUNT; ++j) {
+                if (stripe.get(j) != 0) {
+                    final long count = stripe.getAndSet(j, 0);
+                    counts[j] += count;
+                    total += count;
+                }
+            }
+        }
+        return new Snapshot(counts, total);
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - SUB_BUCKET_BITS;
+        final int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+        return (shift + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * 桶中能放入的最大值
+     */
+    static long highestValueOf(int bucketIndex) {
+        if (bucketIndex < SUB_BUCKET_COUNT) {
+            return bucketIndex;
+        }
+        final int shift = bucketIndex / SUB_BUCKET_COUNT - 1;
+        final long subBucket = bucketIndex % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    public static class Snapshot {
+
+        private final long[] counts;
+
+        private final long count;
+
+        private final long max;
+
+        Snapshot(long[] counts, long count) {
+            this.counts = counts;
+            this.count = count;
+            this.max = highestRecorded(counts);
+        }
+
+        private static long highestRecorded(long[] counts) {
+            for (int i = counts.length - 1; i >= 0; --i) {
+                if (counts[i] != 0) {
+                    return highestValueOf(i);
+                }
+            }
+            return 0;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * @param percentile 区间 (0.0, 100.0]，例如 99.9
+         * @return 至少percentile%的记录都不大于的值，没有记录时返回0
+         */
+        public long getValueAtPercentile(double percentile) {
+            Preconditions.checkArgument(percentile > 0.0 && percentile <= 100.0, "percentile should be in the interval (0.0, 100.0]");
+            if (count == 0) {
+                return 0;
+            }
+
+            final long target = Math.max(1, (long) Math.ceil(percentile * count / 100.0));
+            long seen = 0;
+            for (int i = 0; i < counts.length; ++i) {
+                seen += counts[i];
+                if (seen >= target) {
+                    return highestValueOf(i);
+                }
+            }
+            return max;
+        }
+    }
+}
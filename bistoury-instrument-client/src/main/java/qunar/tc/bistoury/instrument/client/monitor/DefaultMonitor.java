@@ -28,7 +28,6 @@ import qunar.tc.bistoury.instrument.client.location.FormatMessage;
 import qunar.tc.bistoury.instrument.client.location.ResolvedSourceLocation;
 
 import java.io.File;
-import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.Instrumentation;
 import java.lang.instrument.UnmodifiableClassException;
 import java.util.concurrent.locks.Lock;
@@ -124,13 +123,17 @@ public class DefaultMonitor implements Monitor {
     }
 
     private boolean instrument(String source, ResolvedSourceLocation location, final int line) throws UnmodifiableClassException, ClassNotFoundException {
-        ClassFileTransformer transformer = new MonitorClassFileTransformer(classFileBuffer, source, location, line);
+        MonitorClassFileTransformer transformer = new MonitorClassFileTransformer(classFileBuffer, source, location, line);
         try {
             Class<?> clazz = instrumentInfo.signatureToClass(location.getClassSignature());
             inst.addTransformer(transformer, true);
             inst.retransformClasses(clazz);
             instrumentInfo.addTransformedClasses(clazz);
             return true;
+        } catch (UnmodifiableClassException | ClassNotFoundException | RuntimeException | Error e) {
+            //类没有被替换，插桩时分配的槽位不会被引用，直接回收
+            MonitorMetricTable.release(transformer.monitorKey());
+            throw e;
         } finally {
             inst.removeTransformer(transformer);
         }
@@ -158,6 +161,7 @@ public class DefaultMonitor implements Monitor {
         try {
             status = Status.closed;
             GlobalMonitorContext.destroy();
+            MonitorMetricTable.destroy();
         } finally {
             lock.unlock();
         }
@@ -81,6 +81,10 @@ public class MonitorClassFileTransformer extends Transformer {
         }
     }
 
+    String monitorKey() {
+        return MonitorMethodVisitor.monitorKey(monitorClassName, methodName, methodDesc);
+    }
+
     private String signatureToClassName(final String signature) {
         return Type.getType(signature).getInternalName();
     }
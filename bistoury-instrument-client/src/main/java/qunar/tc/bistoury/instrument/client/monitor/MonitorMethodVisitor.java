@@ -34,11 +34,14 @@ public class MonitorMethodVisitor extends MethodVisitor implements Opcodes {
     private final String MONITOR_KEY;
     private static final String SPY_NAME = Type.getInternalName(BistourySpys1.class);
     private static final String RUNTIME_EXCEPTION = Type.getInternalName(RuntimeException.class);
-    private static final String START_DESC = Type.getMethodDescriptor(Type.getType(Long.class));
-    private static final String STOP_DESC = Type.getMethodDescriptor(Type.getType(void.class), Type.getType(String.class), Type.getType(Long.class));
-    private static final String EXCEPTION_DESC = Type.getMethodDescriptor(Type.getType(void.class), Type.getType(String.class));
+    private static final String SYSTEM_NAME = Type.getInternalName(System.class);
+    private static final String NANO_TIME_DESC = Type.getMethodDescriptor(Type.LONG_TYPE);
+    private static final String STOP_DESC = Type.getMethodDescriptor(Type.VOID_TYPE, Type.INT_TYPE, Type.LONG_TYPE);
+    private static final String EXCEPTION_DESC = Type.getMethodDescriptor(Type.VOID_TYPE, Type.INT_TYPE);
+    private static final int START_TIME_SIZE = Type.LONG_TYPE.getSize();
 
 
+    private final int monitorSlot;
     private final MethodVisitor monitorMethod;
     private final int newExceptionsLen;
     private String[] newMethodExceptions;
@@ -59,7 +62,8 @@ public class MonitorMethodVisitor extends MethodVisitor implements Opcodes {
         this.hasReturn = this.returnType != Type.VOID_TYPE;
         this.desc = desc;
         this.methodName = method;
-        this.MONITOR_KEY = className.replaceAll("\\/", ".") + "#" + method + "(" + DescDeal.getSimplifyMethodDesc(desc) + ")";
+        this.MONITOR_KEY = monitorKey(className, method, desc);
+        this.monitorSlot = MonitorMetricTable.register(MONITOR_KEY);
 
         this.totalParameterSize = computeTotalParameterSize(parameterTypes);
         this.startOfVarIndex = Access.of(access).contain(Opcodes.ACC_STATIC) ? 0 : 1;
@@ -139,7 +143,7 @@ public class MonitorMethodVisitor extends MethodVisitor implements Opcodes {
 
         startTrace(scopeVarIndex);
 
-        int returnVarIndex = scopeVarIndex + 1;
+        int returnVarIndex = scopeVarIndex + START_TIME_SIZE;
 
         //try{
         //call original method
@@ -184,10 +188,10 @@ public class MonitorMethodVisitor extends MethodVisitor implements Opcodes {
         for (int i = 0; i < newExceptionsLen; i++) {
             monitorMethod.visitLabel(exceptionHandlers[i]);
             //ex
-            int exceptionVarIndex = scopeVarIndex + 1;
+            int exceptionVarIndex = scopeVarIndex + START_TIME_SIZE;
             monitorMethod.visitVarInsn(ASTORE, exceptionVarIndex);
 
-            monitorMethod.visitLdcInsn(MONITOR_KEY);
+            pushMonitorSlot();
             monitorMethod.visitMethodInsn(INVOKESTATIC, SPY_NAME, "exception", EXCEPTION_DESC, false);
             //throw ex
             monitorMethod.visitVarInsn(ALOAD, exceptionVarIndex);
@@ -196,22 +200,36 @@ public class MonitorMethodVisitor extends MethodVisitor implements Opcodes {
     }
 
     private void endTrace(int scopeVarIndex) {
-        //AgentMonitor.stop(key,startTime);
-        monitorMethod.visitLdcInsn(MONITOR_KEY);
+        pushMonitorSlot();
         //load startTime from local variable
-        monitorMethod.visitVarInsn(ALOAD, scopeVarIndex);
+        monitorMethod.visitVarInsn(LLOAD, scopeVarIndex);
         monitorMethod.visitMethodInsn(INVOKESTATIC, SPY_NAME, "stop", STOP_DESC, false);
     }
 
     private void startTrace(int scopeVarIndex) {
-        //long startTime = AgentMonitor.start(key);
-        //monitorMethod.visitLdcInsn(MONITOR_KEY);
-        monitorMethod.visitMethodInsn(INVOKESTATIC, SPY_NAME, "start", START_DESC, false);
+        //long startTime = System.nanoTime();
+        monitorMethod.visitMethodInsn(INVOKESTATIC, SYSTEM_NAME, "nanoTime", NANO_TIME_DESC, false);
         //report startTime to local variable
-        monitorMethod.visitVarInsn(ASTORE, scopeVarIndex);
+        monitorMethod.visitVarInsn(LSTORE, scopeVarIndex);
 
     }
 
+    static String monitorKey(String className, String method, String desc) {
+        return className.replaceAll("\\/", ".") + "#" + method + "(" + DescDeal.getSimplifyMethodDesc(desc) + ")";
+    }
+
+    private void pushMonitorSlot() {
+        if (monitorSlot <= 5) {
+            monitorMethod.visitInsn(ICONST_0 + monitorSlot);
+        } else if (monitorSlot <= Byte.MAX_VALUE) {
+            monitorMethod.visitIntInsn(BIPUSH, monitorSlot);
+        } else if (monitorSlot <= Short.MAX_VALUE) {
+            monitorMethod.visitIntInsn(SIPUSH, monitorSlot);
+        } else {
+            monitorMethod.visitLdcInsn(monitorSlot);
+        }
+    }
+
     @Override
     public void visitMaxs(int maxStack, int maxLocals) {
         super.visitMaxs(maxStack, maxLocals);
@@ -220,10 +238,10 @@ public class MonitorMethodVisitor extends MethodVisitor implements Opcodes {
     }
 
     /**
-     * @return this(1) + parameters size(n * per size) + scope(1) + hasReturn ? return size : exception(1)
+     * @return this(1) + parameters size(n * per size) + startTime(2) + hasReturn ? return size : exception(1)
      */
     private int computeMaxLocals() {
-        return startOfVarIndex + totalParameterSize + 1 + (hasReturn ? returnType.getSize() : 1);
+        return startOfVarIndex + totalParameterSize + START_TIME_SIZE + (hasReturn ? returnType.getSize() : 1);
     }
 
 
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2019 Qunar, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package qunar.tc.bistoury.instrument.client.monitor;
+
+import com.google.common.collect.Maps;
+import qunar.tc.bistoury.instrument.client.metrics.Counter;
+import qunar.tc.bistoury.instrument.client.metrics.Metrics;
+import qunar.tc.bistoury.instrument.client.metrics.Timer;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 监控方法的指标表
+ * <p>
+ * 插桩时为每个被监控的方法分配一个槽位并提前创建好指标，插桩后的代码只携带槽位下标调用，
+ * 运行时直接按下标取指标，不再拼接key、查询cache
+ * <p>
+ * 槽位用满时按倍数扩容，释放的槽位放入空闲列表供后续注册复用
+ */
+public final class MonitorMetricTable {
+
+    static final int INITIAL_SLOTS = 256;
+
+    private static volatile AtomicReferenceArray<Slot> table = new AtomicReferenceArray<>(INITIAL_SLOTS);
+
+    private static final Map<String, Integer> slotIndexes = Maps.newHashMap();
+
+    private static final Deque<Integer> freeSlots = new ArrayDeque<>();
+
+    private static int nextSlot = 0;
+
+    private MonitorMetricTable() {
+    }
+
+    /**
+     * 注册监控方法，同一个key重复注册返回同一个槽位
+     */
+    public static int register(final String key) {
+        synchronized (slotIndexes) {
+            final Integer exist = slotIndexes.get(key);
+            if (exist != null) {
+                return exist;
+            }
+
+            final int index = allocate();
+            table.set(index, new Slot(key));
+            slotIndexes.put(key, index);
+            return index;
+        }
+    }
+
+    /**
+     * 释放监控方法的槽位，只能在插桩代码不再引用该槽位时调用，比如插桩失败或类已还原
+     */
+    public static void release(final String key) {
+        synchronized (slotIndexes) {
+            final Integer index = slotIndexes.remove(key);
+            if (index == null) {
+                return;
+            }
+            table.set(index, null);
+            freeSlots.push(index);
+        }
+    }
+
+    private static int allocate() {
+        final Integer free = freeSlots.poll();
+        if (free != null) {
+            return free;
+        }
+
+        final int index = nextSlot++;
+        final AtomicReferenceArray<Slot> current = table;
+        if (index >= current.length()) {
+            final AtomicReferenceArray<Slot> grown = new AtomicReferenceArray<>(current.length() * 2);
+            for (int i = 0; i < current.length(); ++i) {
+                grown.set(i, current.get(i));
+            }
+            table = grown;
+        }
+        return index;
+    }
+
+    public static Slot get(final int index) {
+        final AtomicReferenceArray<Slot> current = table;
+        if (index < 0 || index >= current.length()) {
+            return null;
+        }
+        return current.get(index);
+    }
+
+    static int size() {
+        synchronized (slotIndexes) {
+            return slotIndexes.size();
+        }
+    }
+
+    public static void destroy() {
+        synchronized (slotIndexes) {
+            table = new AtomicReferenceArray<>(INITIAL_SLOTS);
+            slotIndexes.clear();
+            freeSlots.clear();
+            nextSlot = 0;
+        }
+    }
+
+    public static final class Slot {
+
+        private final String key;
+
+        private final Counter counter;
+
+        private final Timer timer;
+
+        private volatile Counter exceptionCounter;
+
+        private Slot(final String key) {
+            this.key = key;
+            this.counter = Metrics.counter(key + "_counter").delta().get();
+            this.timer = Metrics.timer(key + "_timer").get();
+        }
+
+        void stop(final long startNanos) {
+            counter.inc();
+            timer.update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+
+        void exception() {
+            Counter counter = exceptionCounter;
+            if (counter == null) {
+                //异常计数器只在第一次出现异常时创建，避免没有异常的方法也上报一个0值指标
+                counter = Metrics.counter(key + "_exception").delta().get();
+                exceptionCounter = counter;
+            }
+            counter.inc();
+        }
+    }
+}
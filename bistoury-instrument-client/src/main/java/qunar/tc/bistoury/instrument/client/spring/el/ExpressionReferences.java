@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2019 Qunar, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package qunar.tc.bistoury.instrument.client.spring.el;
+
+import com.google.common.collect.ImmutableSet;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 收集表达式中引用到的变量名，用来在计算断点条件前只采集条件里用到的局部变量和字段
+ * <p>
+ * 只认识形如 localVariables.a、fields['b']、staticFields.c.d.equals('x') 这样通过变量map取单个变量的写法，
+ * 以及在它们之上的运算符、常量、方法调用；碰到其他不能完全确定引用了哪些变量的节点，
+ * 比如直接使用整个map（localVariables.size()）、#this/#root、选择投影、计算出来的map key，返回null
+ */
+public final class ExpressionReferences {
+
+    private static final Set<String> VARIABLE_MAPS = ImmutableSet.of("localVariables", "fields", "staticFields");
+
+    private ExpressionReferences() {
+    }
+
+    /**
+     * @return 表达式中引用的变量名，无法确定时返回null
+     */
+    public static Set<String> referencedNames(Expression expression) {
+        if (!(expression instanceof SpelExpression)) {
+            return null;
+        }
+
+        Set<String> names = new HashSet<String>();
+        if (collectOnRoot(((SpelExpression) expression).getAST(), names)) {
+            return names;
+        }
+        return null;
+    }
+
+    /**
+     * 以rootObject为上下文计算的节点，包括整个表达式、运算符的操作数、方法参数
+     */
+    private static boolean collectOnRoot(SpelNode node, Set<String> names) {
+        if (node instanceof CompoundExpression) {
+            return collectCompound(node, names);
+        }
+        if (node instanceof Literal || node instanceof TypeReference) {
+            return true;
+        }
+        if (isPureOperator(node)) {
+            return collectChildrenOnRoot(node, names);
+        }
+        //单独的属性、方法、索引、变量都直接作用在rootObject或整个map上
+        return false;
+    }
+
+    private static boolean isPureOperator(SpelNode node) {
+        if (node instanceof OpInc || node instanceof OpDec) {
+            return false;
+        }
+        return node instanceof Operator
+                || node instanceof OperatorNot
+                || node instanceof Ternary
+                || node instanceof Elvis
+                || node instanceof InlineList;
+    }
+
+    private static boolean collectCompound(SpelNode node, Set<String> names) {
+        SpelNode head = node.getChild(0);
+        int next = 1;
+        if (head instanceof PropertyOrFieldReference) {
+            if (!VARIABLE_MAPS.contains(((PropertyOrFieldReference) head).getName()) || node.getChildCount() < 2) {
+                return false;
+            }
+            String name = variableName(node.getChild(1));
+            if (name == null) {
+                return false;
+            }
+            names.add(name);
+            next = 2;
+        } else if (!collectOnRoot(head, names)) {
+            return false;
+        }
+
+        for (int i = next; i < node.getChildCount(); ++i) {
+            if (!collectOnValue(node.getChild(i), names)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 变量map后面紧跟的节点，只接受 .name、['name']、[name] 三种取单个变量的写法
+     */
+    private static String variableName(SpelNode node) {
+        if (node instanceof PropertyOrFieldReference) {
+            return ((PropertyOrFieldReference) node).getName();
+        }
+        if (node instanceof Indexer) {
+            SpelNode key = node.getChild(0);
+            if (key instanceof PropertyOrFieldReference) {
+                return ((PropertyOrFieldReference) key).getName();
+            }
+            if (key instanceof Literal) {
+                Object value = ((Literal) key).getLiteralValue().getValue();
+                return value == null ? null : value.toString();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 以前一个节点的值为上下文计算的节点，本身不会引用变量，方法参数和索引仍然以rootObject为上下文
+     */
+    private static boolean collectOnValue(SpelNode node, Set<String> names) {
+        if (node instanceof PropertyOrFieldReference) {
+            return true;
+        }
+        if (node instanceof MethodReference) {
+            return collectChildrenOnRoot(node, names);
+        }
+        if (node instanceof Indexer) {
+            SpelNode key = node.getChild(0);
+            if (key instanceof PropertyOrFieldReference) {
+                //map的key会直接取属性名，否则按rootObject的属性计算，这时只可能是整个变量map
+                return !VARIABLE_MAPS.contains(((PropertyOrFieldReference) key).getName());
+            }
+            return collectOnRoot(key, names);
+        }
+        return false;
+    }
+
+    private static boolean collectChildrenOnRoot(SpelNode node, Set<String> names) {
+        for (int i = 0; i < node.getChildCount(); ++i) {
+            if (!collectOnRoot(node.getChild(i), names)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,146 @@
+package qunar.tc.bistoury.instrument.client.metrics.adapter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class StripedHistogramTest {
+
+    @Test
+    public void smallValuesHaveTheirOwnBucket() {
+        for (int value = 0; value < StripedHistogram.SUB_BUCKET_COUNT; ++value) {
+            Assert.assertEquals(value, StripedHistogram.bucketIndex(value));
+            Assert.assertEquals(value, StripedHistogram.highestValueOf(value));
+        }
+    }
+
+    @Test
+    public void powersOfTwo() {
+        Assert.assertEquals(32, StripedHistogram.bucketIndex(32));
+        Assert.assertEquals(32, StripedHistogram.highestValueOf(32));
+        Assert.assertEquals(63, StripedHistogram.bucketIndex(63));
+        Assert.assertEquals(63, StripedHistogram.highestValueOf(63));
+
+        Assert.assertEquals(64, StripedHistogram.bucketIndex(64));
+        Assert.assertEquals(64, StripedHistogram.bucketIndex(65));
+        Assert.assertEquals(65, StripedHistogram.highestValueOf(64));
+        Assert.assertEquals(65, StripedHistogram.bucketIndex(66));
+
+        for (int exponent = 5; exponent < 36; ++exponent) {
+            long power = 1L << exponent;
+            int index = StripedHistogram.bucketIndex(power);
+            Assert.assertEquals((exponent - 4) * StripedHistogram.SUB_BUCKET_COUNT, index);
+            Assert.assertEquals(index - 1, StripedHistogram.bucketIndex(power - 1));
+            Assert.assertEquals(power - 1, StripedHistogram.highestValueOf(index - 1));
+        }
+    }
+
+    @Test
+    public void bucketsAreContiguous() {
+        for (int index = 1; index < StripedHistogram.BUCKET_COUNT; ++index) {
+            long lowest = StripedHistogram.highestValueOf(index - 1) + 1;
+            long highest = StripedHistogram.highestValueOf(index);
+            Assert.assertEquals(index, StripedHistogram.bucketIndex(lowest));
+            Assert.assertEquals(index, StripedHistogram.bucketIndex(highest));
+            //相对误差不超过 1/SUB_BUCKET_COUNT
+            Assert.assertTrue(highest - lowest <= lowest / StripedHistogram.SUB_BUCKET_COUNT);
+        }
+    }
+
+    @Test
+    public void maxValue() {
+        int last = StripedHistogram.BUCKET_COUNT - 1;
+        Assert.assertEquals(last, StripedHistogram.bucketIndex(StripedHistogram.MAX_TRACKABLE_VALUE));
+        Assert.assertEquals(StripedHistogram.MAX_TRACKABLE_VALUE, StripedHistogram.highestValueOf(last));
+
+        StripedHistogram histogram = new StripedHistogram(1);
+        histogram.record(Long.MAX_VALUE);
+        histogram.record(-5);
+        StripedHistogram.Snapshot snapshot = histogram.snapshotAndReset();
+        Assert.assertEquals(2, snapshot.getCount());
+        Assert.assertEquals(StripedHistogram.MAX_TRACKABLE_VALUE, snapshot.getMax());
+        Assert.assertEquals(0, snapshot.getValueAtPercentile(50));
+        Assert.assertEquals(StripedHistogram.MAX_TRACKABLE_VALUE, snapshot.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void exactPercentilesForSmallValues() {
+        StripedHistogram histogram = new StripedHistogram(1);
+        for (int value = 0; value < 32; ++value) {
+            histogram.record(value);
+        }
+        StripedHistogram.Snapshot snapshot = histogram.snapshotAndReset();
+        Assert.assertEquals(0, snapshot.getValueAtPercentile(1));
+        Assert.assertEquals(15, snapshot.getValueAtPercentile(50));
+        Assert.assertEquals(30, snapshot.getValueAtPercentile(95));
+        Assert.assertEquals(31, snapshot.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void percentilesOfUniformDistribution() {
+        StripedHistogram histogram = new StripedHistogram(1);
+        for (int value = 1; value <= 1000; ++value) {
+            histogram.record(value);
+        }
+        StripedHistogram.Snapshot snapshot = histogram.snapshotAndReset();
+
+        Assert.assertEquals(1000, snapshot.getCount());
+        //500 落在 [496, 503]，1000 落在 [992, 1007]
+        Assert.assertEquals(503, snapshot.getValueAtPercentile(50));
+        Assert.assertEquals(1007, snapshot.getValueAtPercentile(100));
+        Assert.assertEquals(1007, snapshot.getMax());
+        for (double percentile : new double[]{10, 50, 90, 99, 99.9}) {
+            long exact = (long) Math.ceil(percentile * 10);
+            long value = snapshot.getValueAtPercentile(percentile);
+            Assert.assertTrue(percentile + ": " + value, value >= exact);
+            Assert.assertTrue(percentile + ": " + value, value <= exact + exact / StripedHistogram.SUB_BUCKET_COUNT);
+        }
+    }
+
+    @Test
+    public void emptySnapshot() {
+        StripedHistogram.Snapshot snapshot = new StripedHistogram().snapshotAndReset();
+        Assert.assertEquals(0, snapshot.getCount());
+        Assert.assertEquals(0, snapshot.getMax());
+        Assert.assertEquals(0, snapshot.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void mergeStripesAndReset() throws InterruptedException {
+        final StripedHistogram striped = new StripedHistogram(4);
+        StripedHistogram single = new StripedHistogram(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; ++i) {
+            final int base = i * 1000;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int value = 0; value < 1000; ++value) {
+                        striped.record(base + value);
+                    }
+                }
+            }));
+            for (int value = 0; value < 1000; ++value) {
+                single.record(base + value);
+            }
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        StripedHistogram.Snapshot merged = striped.snapshotAndReset();
+        StripedHistogram.Snapshot expected = single.snapshotAndReset();
+        Assert.assertEquals(8000, merged.getCount());
+        Assert.assertEquals(expected.getMax(), merged.getMax());
+        for (double percentile : new double[]{1, 25, 50, 75, 90, 99, 100}) {
+            Assert.assertEquals(expected.getValueAtPercentile(percentile), merged.getValueAtPercentile(percentile));
+        }
+
+        Assert.assertEquals(0, striped.snapshotAndReset().getCount());
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2019 Qunar, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package qunar.tc.bistoury.instrument.client.spring.el;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Set;
+
+public class ExpressionReferencesTest {
+
+    private static final SpelExpressionParser parser = new SpelExpressionParser();
+
+    private static Set<String> references(String condition) {
+        return ExpressionReferences.referencedNames(parser.parseRaw(condition));
+    }
+
+    @Test
+    public void testPropertyAndIndexReferences() {
+        Assert.assertEquals(ImmutableSet.of("a", "b", "c"),
+                references("localVariables.a > 1 && fields['b'] == 'x' || staticFields[c] != null"));
+    }
+
+    @Test
+    public void testMethodOnVariableValue() {
+        Assert.assertEquals(ImmutableSet.of("name", "other"),
+                references("localVariables.name.equals(fields.other.toString())"));
+        Assert.assertEquals(ImmutableSet.of("list"),
+                references("localVariables.list[0].length() > T(java.lang.Integer).valueOf(1)"));
+    }
+
+    @Test
+    public void testNestedOperators() {
+        Assert.assertEquals(ImmutableSet.of("a", "b"),
+                references("!(localVariables.a == null ? false : localVariables.b ?: true)"));
+    }
+
+    @Test
+    public void testWholeMapAccess() {
+        Assert.assertNull(references("localVariables.size() > 0"));
+        Assert.assertNull(references("localVariables != null"));
+        Assert.assertNull(references("localVariables.toString().length() > 0"));
+    }
+
+    @Test
+    public void testRootMethodReference() {
+        Assert.assertNull(references("toString().length() > 0"));
+    }
+
+    @Test
+    public void testVariableReference() {
+        Assert.assertNull(references("#root.localVariables.a == 1"));
+        Assert.assertNull(references("#this.fields.a == 1"));
+    }
+
+    @Test
+    public void testComputedKey() {
+        Assert.assertNull(references("localVariables[fields.key] == 1"));
+        Assert.assertNull(references("localVariables['a' + 'b'] == 1"));
+        Assert.assertNull(references("localVariables.list[localVariables] == 1"));
+    }
+
+    @Test
+    public void testSelectionAndProjection() {
+        Assert.assertNull(references("localVariables.list.?[#this > 1].size() > 0"));
+        Assert.assertNull(references("localVariables.list.![#this].size() > 0"));
+    }
+}
@@ -1,7 +1,5 @@
 package qunar.tc.test;
 
-import qunar.tc.bistoury.instrument.client.monitor.AgentMonitor;
-
 import java.util.ArrayList;
 import java.util.List;
 
@@ -24,13 +22,13 @@ public class Test {
         if (true) {
             throw new RuntimeException("测试");
         }
-        AgentMonitor.start();
+        System.nanoTime();
         try {
             setCount(1, 2L);
         } catch (Exception e) {
             throw new RuntimeException(e);
         } finally {
-            AgentMonitor.start();
+            System.nanoTime();
         }
         return count;
     }
@@ -17,6 +17,8 @@
 
 package qunar.tc.bistoury.instrument.spy;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.Method;
 
 /**
@@ -25,6 +27,7 @@ import java.lang.reflect.Method;
 public class BistourySpys1 {
 
     public static final String HAS_BREAKPOINT_SET = "hasBreakpointSet";
+    public static final String CONDITION_CAPTURE_MASK = "conditionCaptureMask";
     public static final String IS_HIT = "isHit";
     public static final String PUT_LOCAL_VARIABLE = "putLocalVariable";
     public static final String PUT_FIELD = "putField";
@@ -32,39 +35,63 @@ public class BistourySpys1 {
     public static final String FILL_STACKTRACE = "fillStacktrace";
     public static final String DUMP = "dump";
     public static final String END_RECEIVE = "endReceive";
-    public static final String START_MONITOR = "start";
     public static final String STOP_MONITOR = "stop";
     public static final String EXCEPTION_MONITOR = "exception";
 
-    private static volatile Method HAS_BREAKPOINT_SET_METHOD;
-    private static volatile Method IS_HIT_METHOD;
+    /**
+     * 断点位置每次执行都会检查，使用MethodHandle按槽位精确调用，避免反射调用时的参数装箱和数组分配
+     */
+    private static volatile MethodHandle HAS_BREAKPOINT_SET_METHOD;
+    private static volatile MethodHandle CONDITION_CAPTURE_MASK_METHOD;
+    private static volatile MethodHandle IS_HIT_METHOD;
     private static volatile Method PUT_LOCAL_VARIABLE_METHOD;
     private static volatile Method PUT_FIELD_METHOD;
     private static volatile Method PUT_STATIC_FIELD_METHOD;
     private static volatile Method FILL_STACK_TRACE_METHOD;
     private static volatile Method DUMP_METHOD;
     private static volatile Method END_RECEIVE_METHOD;
-    private static volatile Method START_MONITOR_METHOD;
-    private static volatile Method STOP_MONITOR_METHOD;
-    private static volatile Method EXCEPTION_MONITOR_METHOD;
+    /**
+     * 监控方法在业务线程上调用频繁，使用MethodHandle精确调用，避免反射调用时的参数装箱和数组分配
+     */
+    private static volatile MethodHandle STOP_MONITOR_METHOD;
+    private static volatile MethodHandle EXCEPTION_MONITOR_METHOD;
+
+    public static boolean hasBreakpointSet(int slot) {
+        final MethodHandle method = HAS_BREAKPOINT_SET_METHOD;
+        if (method == null) {
+            return false;
+        }
+        try {
+            return (boolean) method.invokeExact(slot);
+        } catch (Throwable t) {
+            t.printStackTrace(System.err);
+            return false;
+        }
+    }
 
-    public static boolean hasBreakpointSet(String source, int line) {
-        final boolean defaultValue = false;
+    public static long conditionCaptureMask(int slot, int site) {
+        final MethodHandle method = CONDITION_CAPTURE_MASK_METHOD;
+        if (method == null) {
+            return 0L;
+        }
         try {
-            return (boolean) doInvokeMethod(HAS_BREAKPOINT_SET_METHOD, defaultValue, new Object[]{source, line});
+            return (long) method.invokeExact(slot, site);
         } catch (Throwable t) {
             t.printStackTrace(System.err);
-            return defaultValue;
+            return 0L;
         }
     }
 
-    public static boolean isHit(String source, int line) {
-        final boolean defaultValue = false;
+    public static boolean isHit(int slot) {
+        final MethodHandle method = IS_HIT_METHOD;
+        if (method == null) {
+            return false;
+        }
         try {
-            return (boolean) doInvokeMethod(IS_HIT_METHOD, defaultValue, new Object[]{source, line});
+            return (boolean) method.invokeExact(slot);
         } catch (Throwable t) {
             t.printStackTrace(System.err);
-            return defaultValue;
+            return false;
         }
     }
 
@@ -123,29 +150,25 @@ public class BistourySpys1 {
     }
 
 
-    public static Long start() {
-        final Long defaultValue = 0L;
-        try {
-            return (long) doInvokeMethod(START_MONITOR_METHOD, defaultValue, new Object[]{});
-        } catch (Throwable t) {
-            t.printStackTrace(System.err);
-            return defaultValue;
+    public static void stop(int slot, long startTime) {
+        final MethodHandle method = STOP_MONITOR_METHOD;
+        if (method == null) {
+            return;
         }
-    }
-
-    public static void stop(String key, Long startTime) {
-        final Void defaultValue = null;
         try {
-            doInvokeMethod(STOP_MONITOR_METHOD, defaultValue, new Object[]{key, startTime});
+            method.invokeExact(slot, startTime);
         } catch (Throwable t) {
             t.printStackTrace(System.err);
         }
     }
 
-    public static void exception(String key) {
-        final Void defaultValue = null;
+    public static void exception(int slot) {
+        final MethodHandle method = EXCEPTION_MONITOR_METHOD;
+        if (method == null) {
+            return;
+        }
         try {
-            doInvokeMethod(EXCEPTION_MONITOR_METHOD, defaultValue, new Object[]{key});
+            method.invokeExact(slot);
         } catch (Throwable e) {
             e.printStackTrace(System.err);
         }
@@ -159,7 +182,19 @@ public class BistourySpys1 {
         return method.invoke(null, args);
     }
 
+    private static MethodHandle unreflect(Method method) {
+        if (method == null) {
+            return null;
+        }
+        try {
+            return MethodHandles.publicLookup().unreflect(method);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("can not access method " + method, e);
+        }
+    }
+
     public static void init(Method hasBreakpointSet,
+                            Method conditionCaptureMask,
                             Method isHit,
                             Method putLocalVariable,
                             Method putField,
@@ -167,24 +202,24 @@ public class BistourySpys1 {
                             Method fillStackTrace,
                             Method dump,
                             Method endReceive,
-                            Method startMonitor,
                             Method stopMonitor,
                             Method exceptionMonitor) {
-        HAS_BREAKPOINT_SET_METHOD = hasBreakpointSet;
-        IS_HIT_METHOD = isHit;
+        HAS_BREAKPOINT_SET_METHOD = unreflect(hasBreakpointSet);
+        CONDITION_CAPTURE_MASK_METHOD = unreflect(conditionCaptureMask);
+        IS_HIT_METHOD = unreflect(isHit);
         PUT_LOCAL_VARIABLE_METHOD = putLocalVariable;
         PUT_FIELD_METHOD = putField;
         PUT_STATIC_FIELD_METHOD = putStaticField;
         FILL_STACK_TRACE_METHOD = fillStackTrace;
         DUMP_METHOD = dump;
         END_RECEIVE_METHOD = endReceive;
-        START_MONITOR_METHOD = startMonitor;
-        STOP_MONITOR_METHOD = stopMonitor;
-        EXCEPTION_MONITOR_METHOD = exceptionMonitor;
+        STOP_MONITOR_METHOD = unreflect(stopMonitor);
+        EXCEPTION_MONITOR_METHOD = unreflect(exceptionMonitor);
     }
 
     public static void destroy() {
         HAS_BREAKPOINT_SET_METHOD = null;
+        CONDITION_CAPTURE_MASK_METHOD = null;
         IS_HIT_METHOD = null;
         PUT_LOCAL_VARIABLE_METHOD = null;
         PUT_FIELD_METHOD = null;
@@ -192,7 +227,6 @@ public class BistourySpys1 {
         FILL_STACK_TRACE_METHOD = null;
         DUMP_METHOD = null;
         END_RECEIVE_METHOD = null;
-        START_MONITOR_METHOD = null;
         STOP_MONITOR_METHOD = null;
         EXCEPTION_MONITOR_METHOD = null;
     }
@@ -17,6 +17,7 @@
 
 package qunar.tc.bistoury.proxy.communicate;
 
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 import io.netty.channel.Channel;
@@ -46,20 +47,27 @@ public abstract class AbstractConnection implements Connection {
 
     @Override
     public ListenableFuture<WriteResult> write(Datagram message) {
-        SettableFuture<WriteResult> result = SettableFuture.create();
         if (channel.isWritable()) {
-            channel.writeAndFlush(message).addListener(future -> {
-                if (future.isSuccess()) {
-                    result.set(WriteResult.success);
-                } else {
-                    logger.warn("{} connection write fail, {}, {}", name, channel, message);
-                    result.set(WriteResult.fail);
-                }
-            });
+            return forceWrite(message);
         } else {
             logger.warn("{} connection is not writable, {}, {}", name, channel, message);
-            result.set(WriteResult.fail);
+            message.release();
+            return Futures.immediateFuture(WriteResult.fail);
         }
+    }
+
+    @Override
+    public ListenableFuture<WriteResult> forceWrite(Datagram message) {
+        SettableFuture<WriteResult> result = SettableFuture.create();
+        channel.writeAndFlush(message).addListener(future -> {
+            if (future.isSuccess()) {
+                result.set(WriteResult.success);
+            } else {
+                logger.warn("{} connection write fail, {}, {}", name, channel, message);
+                message.release();
+                result.set(WriteResult.fail);
+            }
+        });
         return result;
     }
 
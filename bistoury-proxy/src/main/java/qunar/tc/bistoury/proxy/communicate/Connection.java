@@ -27,6 +27,11 @@ public interface Connection {
 
     ListenableFuture<WriteResult> write(Datagram message);
 
+    /**
+     * 不检查连接是否可写，只用于发送量已经被流控限制住的消息
+     */
+    ListenableFuture<WriteResult> forceWrite(Datagram message);
+
     ListenableFuture<Void> closeFuture();
 
     boolean isActive();
@@ -27,6 +27,9 @@ import qunar.tc.bistoury.proxy.communicate.ui.UiResponses;
 import qunar.tc.bistoury.remoting.protocol.Datagram;
 import qunar.tc.bistoury.remoting.protocol.ResponseCode;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * @author zhenyu.nie created on 2019 2019/5/13 14:55
  */
@@ -44,16 +47,37 @@ public class DefaultSession implements Session {
 
     private final SettableFuture<State> resultFuture = SettableFuture.create();
 
+    private final boolean flowControl;
+
+    /**
+     * 已经交给ui连接但还没有还给agent的字节数
+     */
+    private final AtomicInteger consumed = new AtomicInteger();
+
+    /**
+     * 是否已经在等ui连接可写后归还credit
+     */
+    private final AtomicBoolean granting = new AtomicBoolean();
+
     public DefaultSession(String id, RequestData requestData, AgentConnection agentConnection, UiConnection uiConnection) {
         this.id = id;
         this.requestData = requestData;
         this.agentConnection = agentConnection;
         this.uiConnection = uiConnection;
+        this.flowControl = FlowControl.isSupported(agentConnection);
     }
 
     @Override
     public void writeToUi(Datagram message) {
-        ListenableFuture<WriteResult> result = uiConnection.write(message);
+        ListenableFuture<WriteResult> result;
+        if (flowControl) {
+            //agent发送的数据受credit限制，这里不能因为ui连接暂时不可写就把数据丢掉
+            int size = message.getBody() == null ? 0 : message.getBody().readableBytes();
+            result = uiConnection.forceWrite(message);
+            consumed(size);
+        } else {
+            result = uiConnection.write(message);
+        }
         if (isEndMessage(message)) {
             Futures.addCallback(result, new FutureCallback<WriteResult>() {
                 @Override
@@ -69,6 +93,70 @@ public class DefaultSession implements Session {
         }
     }
 
+    /**
+     * 攒够一定字节数后，等ui连接可写时再把credit还给agent；
+     * ui消费得慢时连接的发送缓冲区超过高水位变为不可写，agent拿不到新的credit就会停下来
+     */
+    private void consumed(int size) {
+        if (size <= 0 || consumed.addAndGet(size) < FlowControl.GRANT_THRESHOLD) {
+            return;
+        }
+        scheduleGrant();
+    }
+
+    private void scheduleGrant() {
+        if (granting.compareAndSet(false, true)) {
+            uiConnection.whenWritable(this::grant);
+        }
+    }
+
+    private void grant() {
+        granting.set(false);
+        if (resultFuture.isDone()) {
+            return;
+        }
+
+        final int credit = consumed.getAndSet(0);
+        if (credit <= 0) {
+            return;
+        }
+
+        //credit消息很小，数量也受ui的消费速度限制，agent连接暂时不可写也要发出去，否则agent会一直等下去
+        ListenableFuture<WriteResult> result = agentConnection.forceWrite(FlowControl.createCredit(id, credit));
+        Futures.addCallback(result, new FutureCallback<WriteResult>() {
+            @Override
+            public void onSuccess(WriteResult result) {
+                if (result != WriteResult.success) {
+                    regrant(credit);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                regrant(credit);
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * 发送失败的credit加回去，等下次可写时再还给agent
+     */
+    private void regrant(int credit) {
+        if (resultFuture.isDone()) {
+            return;
+        }
+
+        consumed.addAndGet(credit);
+        scheduleGrant();
+    }
+
+    @Override
+    public void prepareRequest(Datagram request) {
+        if (flowControl) {
+            FlowControl.addWindow(request);
+        }
+    }
+
     @Override
     public void writeToAgent(Datagram message) {
         ListenableFuture<WriteResult> result = agentConnection.write(message);
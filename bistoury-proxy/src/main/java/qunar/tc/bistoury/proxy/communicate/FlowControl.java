@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2019 Qunar, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package qunar.tc.bistoury.proxy.communicate;
+
+import com.google.common.collect.ImmutableMap;
+import qunar.tc.bistoury.common.BistouryConstants;
+import qunar.tc.bistoury.proxy.communicate.agent.AgentConnection;
+import qunar.tc.bistoury.remoting.protocol.CommandCode;
+import qunar.tc.bistoury.remoting.protocol.Datagram;
+import qunar.tc.bistoury.remoting.protocol.RemotingBuilder;
+import qunar.tc.bistoury.remoting.protocol.RemotingHeader;
+import qunar.tc.bistoury.remoting.protocol.payloadHolderImpl.RequestPayloadHolder;
+
+/**
+ * agent到ui的响应流控
+ * <p>
+ * 请求发给agent时带上每个session的窗口大小，agent发送的数据不会超过proxy给的credit；
+ * 响应交给ui的连接以后，等连接可写时proxy再把对应的字节数作为credit还给agent，
+ * ui连接积压的数据超过高水位时不再归还credit
+ */
+final class FlowControl {
+
+    /**
+     * 每个session最多有这么多字节在agent和ui之间传输
+     */
+    static final int WINDOW = 1024 * 1024;
+
+    /**
+     * 攒够这么多字节再给agent发一次credit
+     */
+    static final int GRANT_THRESHOLD = WINDOW / 4;
+
+    private FlowControl() {
+    }
+
+    static boolean isSupported(AgentConnection agentConnection) {
+        return agentConnection.getVersion() >= RemotingHeader.MIN_FLOW_CONTROL_AGENT_VERSION;
+    }
+
+    static void addWindow(Datagram request) {
+        RemotingHeader header = request.getHeader();
+        header.setProperties(ImmutableMap.<String, String>builder()
+                .putAll(header.getProperties())
+                .put(BistouryConstants.FLOW_CONTROL_WINDOW, String.valueOf(WINDOW))
+                .build());
+    }
+
+    static Datagram createCredit(String id, int credit) {
+        return RemotingBuilder.buildRequestDatagram(CommandCode.REQ_TYPE_CREDIT.getCode(), id, new RequestPayloadHolder(String.valueOf(credit)));
+    }
+}
@@ -36,6 +36,11 @@ public interface Session {
 
     void writeToAgent(Datagram message);
 
+    /**
+     * 发送给agent之前对请求做处理，比如带上流控的窗口大小
+     */
+    void prepareRequest(Datagram request);
+
     String getId();
 
     RequestData getRequestData();
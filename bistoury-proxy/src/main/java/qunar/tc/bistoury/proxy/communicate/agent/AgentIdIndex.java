@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2019 Qunar, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package qunar.tc.bistoury.proxy.communicate.agent;
+
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * agent id的子串索引，保存每个id中所有长度不超过 {@link #MAX_GRAM} 的子串到id的映射
+ * <p>
+ * 查询串不超过 {@link #MAX_GRAM} 时直接返回对应的集合，更长时取查询串各个子串对应集合中最小的一个再逐个确认
+ */
+class AgentIdIndex {
+
+    private static final int MAX_GRAM = 3;
+
+    private final ConcurrentMap<String, Set<String>> postings = new ConcurrentHashMap<>();
+
+    void add(final String agentId) {
+        for (String gram : grams(agentId)) {
+            postings.compute(gram, (key, ids) -> {
+                if (ids == null) {
+                    ids = ConcurrentHashMap.newKeySet();
+                }
+                ids.add(agentId);
+                return ids;
+            });
+        }
+    }
+
+    void remove(final String agentId) {
+        for (String gram : grams(agentId)) {
+            postings.computeIfPresent(gram, (key, ids) -> {
+                ids.remove(agentId);
+                return ids.isEmpty() ? null : ids;
+            });
+        }
+    }
+
+    /**
+     * @return 包含query的agent id，返回的集合不可修改；query长度超过 {@link #MAX_GRAM} 时可能包含不匹配的id，需要调用方确认
+     */
+    Set<String> candidates(String query) {
+        if (query.length() <= MAX_GRAM) {
+            Set<String> ids = postings.get(query);
+            return ids == null ? ImmutableSet.of() : Collections.unmodifiableSet(ids);
+        }
+
+        Set<String> smallest = null;
+        for (int i = 0; i + MAX_GRAM <= query.length(); ++i) {
+            Set<String> ids = postings.get(query.substring(i, i + MAX_GRAM));
+            if (ids == null) {
+                return ImmutableSet.of();
+            }
+            if (smallest == null || ids.size() < smallest.size()) {
+                smallest = ids;
+            }
+        }
+        return Collections.unmodifiableSet(smallest);
+    }
+
+    private static Set<String> grams(String agentId) {
+        Set<String> grams = new HashSet<>();
+        for (int length = 1; length <= MAX_GRAM; ++length) {
+            for (int i = 0; i + length <= agentId.length(); ++i) {
+                grams.add(agentId.substring(i, i + length));
+            }
+        }
+        return grams;
+    }
+}
@@ -17,12 +17,12 @@
 
 package qunar.tc.bistoury.proxy.communicate.agent;
 
-import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.MoreExecutors;
 import io.netty.channel.Channel;
 import org.springframework.stereotype.Service;
 
+import java.util.Collections;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
@@ -36,14 +36,19 @@ public class DefaultAgentConnectionStore implements AgentConnectionStore {
 
     private final ConcurrentMap<String, AgentConnection> connections = Maps.newConcurrentMap();
 
+    private final Map<String, AgentConnection> connectionsView = Collections.unmodifiableMap(connections);
+
+    private final AgentIdIndex agentIdIndex = new AgentIdIndex();
+
     @Override
     public AgentConnection register(String agentId, int agentVersion, Channel channel) {
         DefaultAgentConnection agentConnection = new DefaultAgentConnection(agentId, agentVersion, channel);
         AgentConnection oldConnection = connections.get(agentId);
         if (!Objects.equals(oldConnection, agentConnection)) {
             oldConnection = connections.put(agentId, agentConnection);
+            agentIdIndex.add(agentId);
             agentConnection.init();
-            agentConnection.closeFuture().addListener(() -> connections.remove(agentId, agentConnection), MoreExecutors.directExecutor());
+            agentConnection.closeFuture().addListener(() -> unregister(agentId, agentConnection), MoreExecutors.directExecutor());
             if (oldConnection != null && !Objects.equals(oldConnection, agentConnection)) {
                 oldConnection.close();
             }
@@ -53,6 +58,16 @@ public class DefaultAgentConnectionStore implements AgentConnectionStore {
         }
     }
 
+    private void unregister(String agentId, AgentConnection agentConnection) {
+        if (connections.remove(agentId, agentConnection)) {
+            agentIdIndex.remove(agentId);
+            //移除索引时可能已经有新的连接注册进来
+            if (connections.containsKey(agentId)) {
+                agentIdIndex.add(agentId);
+            }
+        }
+    }
+
     @Override
     public Optional<AgentConnection> getConnection(String agentId) {
         AgentConnection agentConnection = connections.get(agentId);
@@ -65,13 +80,24 @@ public class DefaultAgentConnectionStore implements AgentConnectionStore {
 
     @Override
     public Map<String, AgentConnection> getAgentConnection() {
-        return ImmutableMap.copyOf(connections);
+        return connectionsView;
     }
 
     @Override
     public Map<String, AgentConnection> searchConnection(String agentId) {
-        Map<String, AgentConnection> connection = getAgentConnection();
-        Map<String, AgentConnection> result = Maps.filterKeys(connection, key -> key.indexOf(agentId) >= 0);
+        if (agentId.isEmpty()) {
+            return connectionsView;
+        }
+
+        Map<String, AgentConnection> result = Maps.newHashMap();
+        for (String candidate : agentIdIndex.candidates(agentId)) {
+            if (candidate.contains(agentId)) {
+                AgentConnection connection = connections.get(candidate);
+                if (connection != null) {
+                    result.put(candidate, connection);
+                }
+            }
+        }
         return result;
     }
 }
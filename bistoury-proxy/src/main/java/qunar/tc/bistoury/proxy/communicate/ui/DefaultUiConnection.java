@@ -21,6 +21,8 @@ import io.netty.channel.Channel;
 import qunar.tc.bistoury.proxy.communicate.AbstractConnection;
 
 import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * @author zhenyu.nie created on 2019 2019/5/15 11:09
@@ -29,11 +31,35 @@ public class DefaultUiConnection extends AbstractConnection implements UiConnect
 
     private final Channel channel;
 
+    private final Queue<Runnable> writableListeners = new ConcurrentLinkedQueue<>();
+
     public DefaultUiConnection(Channel channel) {
         super("ui", channel);
         this.channel = channel;
     }
 
+    @Override
+    public void whenWritable(Runnable listener) {
+        if (channel.isWritable()) {
+            listener.run();
+            return;
+        }
+
+        writableListeners.add(listener);
+        //加入队列前连接可能刚好变为可写，再检查一次，避免错过通知
+        if (channel.isWritable()) {
+            writabilityChanged();
+        }
+    }
+
+    @Override
+    public void writabilityChanged() {
+        Runnable listener;
+        while (channel.isWritable() && (listener = writableListeners.poll()) != null) {
+            listener.run();
+        }
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -32,17 +32,19 @@ import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
 import io.netty.handler.timeout.IdleStateHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import qunar.tc.bistoury.application.api.AppServerService;
 import qunar.tc.bistoury.proxy.communicate.NettyServer;
 import qunar.tc.bistoury.proxy.communicate.SessionManager;
 import qunar.tc.bistoury.proxy.communicate.agent.AgentConnectionStore;
 import qunar.tc.bistoury.proxy.communicate.ui.command.CommunicateCommandStore;
 import qunar.tc.bistoury.proxy.communicate.ui.handler.*;
 import qunar.tc.bistoury.proxy.communicate.ui.handler.encryption.DefaultRequestEncryption;
+import qunar.tc.bistoury.proxy.config.AppServerIndex;
 import qunar.tc.bistoury.proxy.util.AppCenterServerFinder;
 import qunar.tc.bistoury.serverside.agile.Conf;
 import qunar.tc.bistoury.serverside.common.encryption.RSAEncryption;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * @author zhenyu.nie created on 2019 2019/5/16 11:33
  */
@@ -64,6 +66,10 @@ public class NettyServerForUi implements NettyServer {
 
     private final int port;
 
+    private final int fanOutConcurrency;
+
+    private final long agentTimeoutMs;
+
     private UiConnectionStore uiConnectionStore;
 
     private AgentConnectionStore agentConnectionStore;
@@ -72,7 +78,7 @@ public class NettyServerForUi implements NettyServer {
 
     private CommunicateCommandStore commandStore;
 
-    private AppServerService appServerService;
+    private AppServerIndex appServerIndex;
 
     private volatile Channel channel;
 
@@ -80,17 +86,20 @@ public class NettyServerForUi implements NettyServer {
                             CommunicateCommandStore commandStore,
                             UiConnectionStore uiConnectionStore,
                             AgentConnectionStore agentConnectionStore,
-                            SessionManager sessionManager, AppServerService appServerService) {
+                            SessionManager sessionManager, AppServerIndex appServerIndex) {
         this.port = conf.getInt("server.port", -1);
+        this.fanOutConcurrency = conf.getInt("ui.fanout.concurrency", 32);
+        this.agentTimeoutMs = TimeUnit.SECONDS.toMillis(conf.getLong("ui.fanout.agent.timeout.sec", 0));
         this.uiConnectionStore = uiConnectionStore;
         this.agentConnectionStore = agentConnectionStore;
         this.sessionManager = sessionManager;
         this.commandStore = commandStore;
-        this.appServerService = appServerService;
+        this.appServerIndex = appServerIndex;
     }
 
     @Override
     public void start() {
+        final RSAEncryption rsa = loadRsa();
         ServerBootstrap bootstrap = new ServerBootstrap()
                 .option(ChannelOption.SO_KEEPALIVE, true)
                 .option(ChannelOption.SO_REUSEADDR, true)
@@ -109,11 +118,11 @@ public class NettyServerForUi implements NettyServer {
                                 .addLast(new HttpObjectAggregator(1024 * 1024))
                                 .addLast(new WebSocketServerProtocolHandler("/ws"))
                                 .addLast(new WebSocketFrameAggregator(1024 * 1024 * 1024))
-                                .addLast(new RequestDecoder(new DefaultRequestEncryption(new RSAEncryption(RSA_PUBLIC_KEY, RSA_PRIVATE_KEY))))
+                                .addLast(new RequestDecoder(new DefaultRequestEncryption(rsa)))
                                 .addLast(new WebSocketEncoder())
                                 .addLast(new TabHandler())
-                                .addLast(new HostsValidatorHandler(new AppCenterServerFinder(appServerService)))
-                                .addLast(new UiRequestHandler(commandStore, uiConnectionStore, agentConnectionStore, sessionManager));
+                                .addLast(new HostsValidatorHandler(new AppCenterServerFinder(appServerIndex)))
+                                .addLast(new UiRequestHandler(commandStore, uiConnectionStore, agentConnectionStore, sessionManager, fanOutConcurrency, agentTimeoutMs));
                     }
                 });
         try {
@@ -125,6 +134,15 @@ public class NettyServerForUi implements NettyServer {
         }
     }
 
+    private RSAEncryption loadRsa() {
+        try {
+            return new RSAEncryption(RSA_PUBLIC_KEY, RSA_PRIVATE_KEY);
+        } catch (Exception e) {
+            logger.error("load rsa key fail", e);
+            throw Throwables.propagate(e);
+        }
+    }
+
     @Override
     public boolean isActive() {
         return channel.isActive();
@@ -26,4 +26,11 @@ import qunar.tc.bistoury.proxy.communicate.Connection;
 public interface UiConnection extends Connection {
 
     Channel getChannel();
+
+    /**
+     * 连接可写时执行listener，当前可写则直接在调用线程执行，否则等连接变为可写时在io线程上执行
+     */
+    void whenWritable(Runnable listener);
+
+    void writabilityChanged();
 }
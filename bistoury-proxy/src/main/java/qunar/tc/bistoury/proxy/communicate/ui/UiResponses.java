@@ -41,6 +41,10 @@ public class UiResponses {
         return RemotingBuilder.buildErrorResponseDatagram(ErrorCode.AGENT_CANNOT_CONNECT.getCode(), null);
     }
 
+    public static Datagram createAgentTimeoutResponse(RequestData requestData) {
+        return RemotingBuilder.buildErrorResponseDatagram(ErrorCode.AGENT_TIMEOUT.getCode(), null);
+    }
+
     public static Datagram createNoConnectionResponse(String noConnectionAgent, RequestData requestData) {
         return RemotingBuilder.buildErrorResponseDatagram(ErrorCode.AGENT_NOT_START.getCode(), null);
     }
@@ -19,9 +19,15 @@ package qunar.tc.bistoury.proxy.communicate.ui.handler;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.util.CollectionUtils;
 
 import qunar.tc.bistoury.application.api.pojo.AppServer;
@@ -30,6 +36,7 @@ import qunar.tc.bistoury.proxy.communicate.ui.RequestData;
 import qunar.tc.bistoury.proxy.communicate.ui.UiResponses;
 import qunar.tc.bistoury.proxy.util.ServerFinder;
 
+import java.util.ArrayDeque;
 import java.util.Iterator;
 import java.util.List;
 
@@ -40,28 +47,77 @@ import java.util.List;
  */
 @ChannelHandler.Sharable
 public class HostsValidatorHandler extends ChannelInboundHandlerAdapter {
+    private static final Logger logger = LoggerFactory.getLogger(HostsValidatorHandler.class);
+
     private final ServerFinder serverFinder;
 
     public HostsValidatorHandler(ServerFinder serverFinder) {
         this.serverFinder = serverFinder;
     }
 
+    /**
+     * 每个 channel 上等待查询 server 的请求，保证同一个 channel 上的请求按收到的顺序往后传
+     */
+    private static final AttributeKey<ArrayDeque<RequestData>> PENDING_REQUESTS = AttributeKey.valueOf("hostsValidatorPendingRequests");
+
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
-        RequestData requestData = (RequestData) msg;
+        Attribute<ArrayDeque<RequestData>> attr = ctx.channel().attr(PENDING_REQUESTS);
+        ArrayDeque<RequestData> pending = attr.get();
+        if (pending == null) {
+            pending = new ArrayDeque<>();
+            attr.set(pending);
+        }
+        pending.add((RequestData) msg);
+        if (pending.size() == 1) {
+            // 前一个请求查询期间暂停读，避免排队的请求无限堆积
+            ctx.channel().config().setAutoRead(false);
+            validate(ctx, pending);
+        }
+    }
+
+    private void validate(final ChannelHandlerContext ctx, final ArrayDeque<RequestData> pending) {
+        final RequestData requestData = pending.peek();
         List<String> hosts = requestData.getHosts();
         if (CollectionUtils.isEmpty(hosts)) {
             ctx.writeAndFlush(UiResponses.createNoHostResponse(requestData));
+            next(ctx, pending);
             return;
         }
-        hostValidator(requestData, ctx);
+        // 查询 server 不能阻塞 event loop，查到以后回到 channel 自己的 event loop 上继续处理
+        Futures.addCallback(serverFinder.findAgents(requestData.getApp()), new FutureCallback<List<AppServer>>() {
+            @Override
+            public void onSuccess(List<AppServer> servers) {
+                try {
+                    hostValidator(requestData, servers, ctx);
+                } finally {
+                    next(ctx, pending);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                logger.error("find app servers error, app {}", requestData.getApp(), t);
+                ctx.writeAndFlush(UiResponses.createHostValidateErrorResponse(requestData));
+                next(ctx, pending);
+            }
+        }, ctx.channel().eventLoop());
+    }
+
+    // 只在 channel 的 event loop 上调用，当前请求处理完后再处理下一个
+    private void next(ChannelHandlerContext ctx, ArrayDeque<RequestData> pending) {
+        pending.poll();
+        if (pending.isEmpty()) {
+            ctx.channel().config().setAutoRead(true);
+        } else {
+            validate(ctx, pending);
+        }
     }
 
     // 验证 app 与 host 合法性
-    private void hostValidator(final RequestData requestData, ChannelHandlerContext ctx) {
-        List<AppServer> servers = serverFinder.findAgents(requestData.getApp());
+    private void hostValidator(final RequestData requestData, List<AppServer> servers, ChannelHandlerContext ctx) {
         List<String> userHosts = requestData.getHosts();
-        List<AppServer> ret = servers;
+        List<AppServer> ret = Lists.newArrayList(servers);
         if (userHosts != null && !userHosts.isEmpty()) {
             ret = Lists.newArrayList();
             for (AppServer server : servers) {
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2019 Qunar, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package qunar.tc.bistoury.proxy.communicate.ui.handler;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
+import qunar.tc.bistoury.proxy.communicate.Session;
+import qunar.tc.bistoury.proxy.communicate.agent.AgentConnection;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 把一个ui请求分发到多台agent，同一时间最多只有 concurrency 个session在执行，一个结束后再开始下一个
+ * <p>
+ * 每个agent的结果仍然由各自的session在收到时直接写给ui；timeoutMs大于0时，超时的session交给onTimeout处理，
+ * session开始时抛出的异常交给onStartFailure处理，这台agent当作已经结束
+ * <p>
+ * session可能在开始时就同步结束，所以由一个循环补满窗口，结束回调只在没有循环在跑时才进入循环，不会递归
+ */
+class SessionFanOut {
+
+    private final Iterator<AgentConnection> pending;
+
+    private final Function<AgentConnection, Session> sessionStarter;
+
+    private final Consumer<Session> onTimeout;
+
+    private final BiConsumer<AgentConnection, RuntimeException> onStartFailure;
+
+    private final int concurrency;
+
+    private final long timeoutMs;
+
+    private final EventExecutor scheduler;
+
+    private final SettableFuture<Void> allDone = SettableFuture.create();
+
+    private int running = 0;
+
+    private boolean cancelled = false;
+
+    private boolean filling = false;
+
+    SessionFanOut(List<AgentConnection> agentConnections,
+                  Function<AgentConnection, Session> sessionStarter,
+                  Consumer<Session> onTimeout,
+                  BiConsumer<AgentConnection, RuntimeException> onStartFailure,
+                  int concurrency,
+                  long timeoutMs,
+                  EventExecutor scheduler) {
+        this.pending = agentConnections.iterator();
+        this.sessionStarter = sessionStarter;
+        this.onTimeout = onTimeout;
+        this.onStartFailure = onStartFailure;
+        this.concurrency = Math.max(1, concurrency);
+        this.timeoutMs = timeoutMs;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * @return 所有agent都执行结束，或者取消后正在执行的session都结束时完成
+     */
+    ListenableFuture<Void> start() {
+        fill();
+        return allDone;
+    }
+
+    /**
+     * 不再开始新的session，已经开始的session由调用方自己处理
+     */
+    void cancel() {
+        synchronized (this) {
+            cancelled = true;
+            if (running > 0) {
+                return;
+            }
+        }
+        allDone.set(null);
+    }
+
+    private void fill() {
+        synchronized (this) {
+            if (filling) {
+                return;
+            }
+            filling = true;
+        }
+
+        while (true) {
+            AgentConnection agentConnection;
+            synchronized (this) {
+                if (cancelled || !pending.hasNext() || running >= concurrency) {
+                    filling = false;
+                    if (running > 0) {
+                        return;
+                    }
+                    break;
+                }
+                agentConnection = pending.next();
+                ++running;
+            }
+            try {
+                startSession(agentConnection);
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    --running;
+                }
+                onStartFailure.accept(agentConnection, e);
+            }
+        }
+        allDone.set(null);
+    }
+
+    private void startSession(AgentConnection agentConnection) {
+        Session session = sessionStarter.apply(agentConnection);
+        if (timeoutMs > 0) {
+            ScheduledFuture<?> timeout = scheduler.schedule(() -> onTimeout.accept(session), timeoutMs, TimeUnit.MILLISECONDS);
+            session.getEndState().addListener(() -> timeout.cancel(false), MoreExecutors.directExecutor());
+        }
+        session.getEndState().addListener(this::onSessionEnd, MoreExecutors.directExecutor());
+    }
+
+    private void onSessionEnd() {
+        synchronized (this) {
+            --running;
+        }
+        fill();
+    }
+}
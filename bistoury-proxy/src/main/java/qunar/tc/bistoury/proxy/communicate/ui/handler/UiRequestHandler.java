@@ -19,7 +19,7 @@ package qunar.tc.bistoury.proxy.communicate.ui.handler;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
-import com.google.common.util.concurrent.Futures;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
 import io.netty.channel.ChannelDuplexHandler;
@@ -44,7 +44,6 @@ import qunar.tc.bistoury.remoting.protocol.payloadHolderImpl.RequestPayloadHolde
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 /**
  * @author zhenyu.nie created on 2019 2019/5/16 16:12
@@ -64,14 +63,24 @@ public class UiRequestHandler extends ChannelDuplexHandler {
 
     private final CommunicateCommandStore commandStore;
 
+    private final int fanOutConcurrency;
+
+    private final long agentTimeoutMs;
+
+    private final Set<SessionFanOut> fanOuts = Sets.newConcurrentHashSet();
+
     public UiRequestHandler(CommunicateCommandStore commandStore,
                             UiConnectionStore uiConnectionStore,
                             AgentConnectionStore agentConnectionStore,
-                            SessionManager sessionManager) {
+                            SessionManager sessionManager,
+                            int fanOutConcurrency,
+                            long agentTimeoutMs) {
         this.commandStore = commandStore;
         this.uiConnectionStore = uiConnectionStore;
         this.agentConnectionStore = agentConnectionStore;
         this.sessionManager = sessionManager;
+        this.fanOutConcurrency = fanOutConcurrency;
+        this.agentTimeoutMs = agentTimeoutMs;
     }
 
     @Override
@@ -93,6 +102,7 @@ public class UiRequestHandler extends ChannelDuplexHandler {
         Optional<CommunicateCommand> communicateCommand = commandStore.getCommunicateCommand(session.getRequestData().getType());
         if (!communicateCommand.isPresent()) {
             logger.warn("unknown command response, {}", datagram);
+            datagram.release();
             session.finish();
             return;
         }
@@ -101,6 +111,23 @@ public class UiRequestHandler extends ChannelDuplexHandler {
         super.write(ctx, response, promise);
     }
 
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        UiConnection uiConnection = uiConnectionStore.getConnection(ctx.channel()).orNull();
+        if (uiConnection != null) {
+            uiConnection.writabilityChanged();
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        for (SessionFanOut fanOut : fanOuts) {
+            fanOut.cancel();
+        }
+        super.channelInactive(ctx);
+    }
+
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
         if (!(msg instanceof RequestData)) {
@@ -165,30 +192,61 @@ public class UiRequestHandler extends ChannelDuplexHandler {
             return;
         }
 
-        List<Session> sessions = agentConnections.stream()
-                .map((agentConnection -> sendMessage(requestData, processor, agentConnection, uiConnection)))
-                .collect(Collectors.toList());
+        //超时只对多机请求生效，单机请求可能是trace、tail这类长时间运行的命令
+        long timeoutMs = agentConnections.size() > 1 ? agentTimeoutMs : 0;
+        SessionFanOut fanOut = new SessionFanOut(agentConnections,
+                agentConnection -> sendMessage(requestData, processor, agentConnection, uiConnection),
+                this::timeout,
+                (agentConnection, e) -> startFailed(agentConnection, e, requestData, uiConnection),
+                fanOutConcurrency, timeoutMs, ctx.executor());
+        fanOuts.add(fanOut);
+        ListenableFuture<Void> sessionsFuture = fanOut.start();
+        sessionsFuture.addListener(() -> {
+            fanOuts.remove(fanOut);
+            uiConnection.write(UiResponses.createFinishResponse(requestData));
+        }, MoreExecutors.directExecutor());
+    }
+
+    private void timeout(Session session) {
+        if (session.getEndState().isDone()) {
+            return;
+        }
 
-        ListenableFuture<List<Session.State>> sessionsFuture = Futures.successfulAsList(sessions.stream().map(Session::getEndState).collect(Collectors.toList()));
-        sessionsFuture.addListener(() -> uiConnection.write(UiResponses.createFinishResponse(requestData)), MoreExecutors.directExecutor());
+        logger.warn("agent response timeout, {}", session.getAgentConnection());
+        cancelSession(session);
+        session.getUiConnection().write(UiResponses.createAgentTimeoutResponse(session.getRequestData()));
+        session.broken();
+    }
+
+    private void startFailed(AgentConnection agentConnection, RuntimeException e, RequestData requestData, UiConnection uiConnection) {
+        logger.error("start agent session error, {}", agentConnection, e);
+        uiConnection.write(UiResponses.createAgentCannotConnect(requestData));
     }
 
     private Session sendMessage(RequestData requestData, CommunicateCommandProcessor<?> processor, AgentConnection agentConnection, UiConnection uiConnection) {
         Session session = sessionManager.create(requestData, agentConnection, uiConnection);
         @SuppressWarnings("unchecked")
         Datagram datagram = processor.prepareRequest(session.getId(), requestData, agentConnection.getAgentId());
+        session.prepareRequest(datagram);
         session.writeToAgent(datagram);
         return session;
     }
 
     private void cancelRequest(UiConnection uiConnection) {
+        for (SessionFanOut fanOut : fanOuts) {
+            fanOut.cancel();
+        }
         Set<Session> sessions = sessionManager.getSessionByUiConnection(uiConnection);
         for (Session session : sessions) {
-            String id = session.getId();
-            Datagram datagram = RemotingBuilder.buildRequestDatagram(CommandCode.REQ_TYPE_CANCEL.getCode(), id + CANCEL_SIGN, new RequestPayloadHolder(id));
-            session.writeToAgent(datagram);
+            cancelSession(session);
             session.finish();
         }
     }
 
+    private void cancelSession(Session session) {
+        String id = session.getId();
+        Datagram datagram = RemotingBuilder.buildRequestDatagram(CommandCode.REQ_TYPE_CANCEL.getCode(), id + CANCEL_SIGN, new RequestPayloadHolder(id));
+        session.writeToAgent(datagram);
+    }
+
 }
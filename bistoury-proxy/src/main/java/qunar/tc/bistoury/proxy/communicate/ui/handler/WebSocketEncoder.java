@@ -19,6 +19,7 @@ package qunar.tc.bistoury.proxy.communicate.ui.handler;
 
 import com.google.common.base.Optional;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToMessageEncoder;
 import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
@@ -35,25 +36,25 @@ import java.util.List;
  * @describe
  */
 public class WebSocketEncoder extends MessageToMessageEncoder<Datagram> {
+    private static final int HEADER_LEN = 8 + 4 + 4;
+
     private static final int BODY_LEN = 4;
 
     @Override
     protected void encode(ChannelHandlerContext ctx, Datagram msg, List<Object> out) throws Exception {
-        ByteBuf result = ctx.alloc().buffer();
-        RemotingHeader header = msg.getHeader();
-        result.writeLong(-1);
-        //code转换，将新agent的code转换为ui能识别的code
-        Optional<ResponseCode> optional = ResponseCode.valueOfCode(header.getCode());
-        if (optional.isPresent()) {
-            result.writeInt(optional.get().getOldCode());
-        } else {
-            result.writeInt(ResponseCode.RESP_TYPE_ALL_END.getOldCode());
+        try {
+            doEncode(ctx, msg, out);
+        } finally {
+            msg.release();
         }
-        result.writeInt(ChannelUtils.getIpToN(ctx.channel()));
+    }
 
+    private void doEncode(ChannelHandlerContext ctx, Datagram msg, List<Object> out) {
         ByteBuf body = msg.getBody();
         //proxy返回给ui的body为空
         if (body == null) {
+            ByteBuf result = ctx.alloc().buffer();
+            writeHeader(ctx, msg, result);
             int start = result.writerIndex();
             result.writerIndex(start + BODY_LEN);
             msg.writeBody(result);
@@ -63,15 +64,31 @@ public class WebSocketEncoder extends MessageToMessageEncoder<Datagram> {
             result.writerIndex(start);
             result.writeInt(bodyLen);
             result.resetWriterIndex();
+            out.add(new BinaryWebSocketFrame(result));
         } else {
+            //agent返回的body直接和头部组合在一起发送，不再复制一遍
             int bodyLen = body.readableBytes();
-            result.writeInt(bodyLen);
+            ByteBuf header = ctx.alloc().buffer(HEADER_LEN + BODY_LEN);
+            writeHeader(ctx, msg, header);
+            header.writeInt(bodyLen);
 
-            byte[] bytes = new byte[bodyLen];
-            body.readBytes(bytes);
-            result.writeBytes(bytes);
+            CompositeByteBuf result = ctx.alloc().compositeBuffer(2);
+            result.addComponents(header, body.retain());
+            result.writerIndex(HEADER_LEN + BODY_LEN + bodyLen);
+            out.add(new BinaryWebSocketFrame(result));
         }
+    }
 
-        out.add(new BinaryWebSocketFrame(result));
+    private void writeHeader(ChannelHandlerContext ctx, Datagram msg, ByteBuf result) {
+        RemotingHeader header = msg.getHeader();
+        result.writeLong(-1);
+        //code转换，将新agent的code转换为ui能识别的code
+        Optional<ResponseCode> optional = ResponseCode.valueOfCode(header.getCode());
+        if (optional.isPresent()) {
+            result.writeInt(optional.get().getOldCode());
+        } else {
+            result.writeInt(ResponseCode.RESP_TYPE_ALL_END.getOldCode());
+        }
+        result.writeInt(ChannelUtils.getIpToN(ctx.channel()));
     }
 }
@@ -23,10 +23,15 @@ import qunar.tc.bistoury.proxy.communicate.ui.RequestData;
 import qunar.tc.bistoury.serverside.common.encryption.EncryptionUtils;
 import qunar.tc.bistoury.serverside.common.encryption.RSAEncryption;
 
+import javax.crypto.SecretKey;
 import java.io.IOException;
 import java.util.Map;
 
 /**
+ * 每个连接一个实例，缓存上一次rsa解出的des key，前端在一个页面内复用同一个key时rsa只需要解密一次
+ * <p>
+ * 只在连接所在的event loop中调用，不需要同步
+ *
  * @author zhenyu.nie created on 2019 2019/5/16 15:53
  */
 public class DefaultRequestEncryption implements RequestEncryption {
@@ -42,6 +47,10 @@ public class DefaultRequestEncryption implements RequestEncryption {
 
     private final RSAEncryption rsa;
 
+    private String sessionRsaData;
+
+    private SecretKey sessionKey;
+
     public DefaultRequestEncryption(RSAEncryption rsa) {
         this.rsa = rsa;
     }
@@ -52,8 +61,16 @@ public class DefaultRequestEncryption implements RequestEncryption {
         String rsaData = (String) map.get(KEY_INDEX);
         String data = (String) map.get(DATA_INDEX);
 
-        String desKey = rsa.decrypt(rsaData);
-        String requestStr = EncryptionUtils.decryptDes(data, desKey);
+        String requestStr = EncryptionUtils.decryptDes(data, getDesKey(rsaData));
         return JacksonSerializer.deSerialize(requestStr, inputType);
     }
+
+    private SecretKey getDesKey(String rsaData) throws IOException {
+        if (rsaData == null || !rsaData.equals(sessionRsaData)) {
+            SecretKey key = EncryptionUtils.createDesKey(rsa.decrypt(rsaData));
+            sessionRsaData = rsaData;
+            sessionKey = key;
+        }
+        return sessionKey;
+    }
 }
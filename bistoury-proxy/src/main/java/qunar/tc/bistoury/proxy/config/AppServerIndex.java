@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2019 Qunar, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package qunar.tc.bistoury.proxy.config;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import qunar.tc.bistoury.application.api.pojo.AppServer;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * app与server信息的内存索引，未命中时在独立的线程池中查询，调用方不会被数据库查询阻塞
+ */
+public interface AppServerIndex {
+
+    ListenableFuture<List<AppServer>> getAppServers(String appCode);
+
+    ListenableFuture<Optional<AppServer>> getAppServerByIp(String ip);
+
+    /**
+     * server信息发生变更时调用，使对应ip和所属app的缓存失效
+     */
+    void invalidate(List<String> ips);
+}
@@ -17,14 +17,14 @@
 
 package qunar.tc.bistoury.proxy.config;
 
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
-import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import qunar.tc.bistoury.application.api.AppServerService;
 import qunar.tc.bistoury.application.api.pojo.AppServer;
 import qunar.tc.bistoury.proxy.communicate.agent.AgentConnection;
 import qunar.tc.bistoury.proxy.communicate.agent.AgentConnectionStore;
@@ -60,7 +60,7 @@ public class DefaultAgentInfoManager implements AgentInfoManager {
     private AgentInfoOverride agentInfoOverride;
 
     @Autowired
-    private AppServerService appServerService;
+    private AppServerIndex appServerIndex;
 
     @PostConstruct
     public void init() {
@@ -70,8 +70,12 @@ public class DefaultAgentInfoManager implements AgentInfoManager {
 
     @Override
     public ListenableFuture<Map<String, String>> getAgentInfo(String ip) {
-        SettableFuture<Map<String, String>> resultFuture = SettableFuture.create();
-        AppServer appServer = this.appServerService.getAppServerByIp(ip);
+        return Futures.transform(appServerIndex.getAppServerByIp(ip),
+                (Optional<AppServer> appServer) -> createAgentInfo(ip, appServer.orElse(null)),
+                MoreExecutors.directExecutor());
+    }
+
+    private Map<String, String> createAgentInfo(String ip, AppServer appServer) {
         Map<String, String> agentInfo = new HashMap<>();
         if (appServer != null) {
             agentInfo.put("port", String.valueOf(appServer.getPort()));
@@ -84,12 +88,12 @@ public class DefaultAgentInfoManager implements AgentInfoManager {
         final int version = getVersion(ip);
         //这里可以覆盖版本低于指定版本的配置
         agentInfoOverride.overrideAgentInfo(agentInfo, version);
-        resultFuture.set(agentInfo);
-        return resultFuture;
+        return agentInfo;
     }
 
     @Override
     public void updateAgentInfo(List<String> agentIds) {
+        appServerIndex.invalidate(agentIds);
         agentIds.forEach(agentId -> {
             Optional<AgentConnection> optionalAgentConnection = agentConnectionStore.getConnection(agentId);
             if (optionalAgentConnection.isPresent()) {
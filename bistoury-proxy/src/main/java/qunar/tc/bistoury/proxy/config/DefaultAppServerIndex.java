@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2019 Qunar, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package qunar.tc.bistoury.proxy.config;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import qunar.tc.bistoury.application.api.AppServerService;
+import qunar.tc.bistoury.application.api.pojo.AppServer;
+import qunar.tc.bistoury.proxy.util.FutureSuccessCallBack;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存的数据在后台定时刷新，刷新期间继续返回旧值；
+ * 同一个key同时只会有一个查询，查询线程数和排队数都有上限，proxy重启后大量agent重连也不会压垮数据库
+ */
+@Service
+public class DefaultAppServerIndex implements AppServerIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(DefaultAppServerIndex.class);
+
+    private static final int LOAD_THREADS = 4;
+
+    private static final int MAX_PENDING_LOADS = 4096;
+
+    private static final long REFRESH_MINUTES = 1;
+
+    private static final long EXPIRE_MINUTES = 10;
+
+    private static final long MAX_SIZE = 100000;
+
+    @Autowired
+    private AppServerService appServerService;
+
+    private ListeningExecutorService loadExecutor;
+
+    private LoadingCache<String, List<AppServer>> appServers;
+
+    private LoadingCache<String, Optional<AppServer>> ipServers;
+
+    @PostConstruct
+    public void init() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(LOAD_THREADS, LOAD_THREADS, 1, TimeUnit.MINUTES,
+                new ArrayBlockingQueue<>(MAX_PENDING_LOADS),
+                new ThreadFactoryBuilder().setNameFormat("app-server-index-%d").setDaemon(true).build());
+        executor.allowCoreThreadTimeOut(true);
+        loadExecutor = MoreExecutors.listeningDecorator(executor);
+
+        appServers = CacheBuilder.newBuilder()
+                .maximumSize(MAX_SIZE)
+                .refreshAfterWrite(REFRESH_MINUTES, TimeUnit.MINUTES)
+                .expireAfterWrite(EXPIRE_MINUTES, TimeUnit.MINUTES)
+                .build(CacheLoader.asyncReloading(new CacheLoader<String, List<AppServer>>() {
+                    @Override
+                    public List<AppServer> load(String appCode) {
+                        List<AppServer> servers = appServerService.getAppServerByAppCode(appCode);
+                        servers = servers == null ? ImmutableList.of() : ImmutableList.copyOf(servers);
+                        for (AppServer server : servers) {
+                            ipServers.put(server.getIp(), Optional.of(server));
+                        }
+                        return servers;
+                    }
+                }, loadExecutor));
+
+        ipServers = CacheBuilder.newBuilder()
+                .maximumSize(MAX_SIZE)
+                .refreshAfterWrite(REFRESH_MINUTES, TimeUnit.MINUTES)
+                .expireAfterWrite(EXPIRE_MINUTES, TimeUnit.MINUTES)
+                .build(CacheLoader.asyncReloading(new CacheLoader<String, Optional<AppServer>>() {
+                    @Override
+                    public Optional<AppServer> load(String ip) {
+                        return Optional.ofNullable(appServerService.getAppServerByIp(ip));
+                    }
+                }, loadExecutor));
+    }
+
+    @PreDestroy
+    public void destroy() {
+        loadExecutor.shutdownNow();
+    }
+
+    @Override
+    public ListenableFuture<List<AppServer>> getAppServers(String appCode) {
+        return get(appServers, appCode);
+    }
+
+    @Override
+    public ListenableFuture<Optional<AppServer>> getAppServerByIp(String ip) {
+        return get(ipServers, ip);
+    }
+
+    private <V> ListenableFuture<V> get(LoadingCache<String, V> cache, String key) {
+        V value = cache.getIfPresent(key);
+        if (value != null) {
+            return Futures.immediateFuture(value);
+        }
+
+        try {
+            return loadExecutor.submit(() -> cache.getUnchecked(key));
+        } catch (RejectedExecutionException e) {
+            logger.warn("too many pending app server loads, reject {}", key);
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    @Override
+    public void invalidate(List<String> ips) {
+        for (String ip : ips) {
+            Optional<AppServer> server = ipServers.getIfPresent(ip);
+            if (server != null && server.isPresent()) {
+                appServers.invalidate(server.get().getAppCode());
+            }
+            ipServers.invalidate(ip);
+            //server可能是新加入或者换了app，重新查询后也要让新的app失效
+            Futures.addCallback(getAppServerByIp(ip), (FutureSuccessCallBack<Optional<AppServer>>) newServer ->
+                    newServer.ifPresent(s -> appServers.invalidate(s.getAppCode())), MoreExecutors.directExecutor());
+        }
+    }
+}
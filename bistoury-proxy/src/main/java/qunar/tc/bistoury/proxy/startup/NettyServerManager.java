@@ -25,7 +25,6 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import qunar.tc.bistoury.application.api.AppServerService;
 import qunar.tc.bistoury.proxy.communicate.Connection;
 import qunar.tc.bistoury.proxy.communicate.SessionManager;
 import qunar.tc.bistoury.proxy.communicate.agent.AgentConnection;
@@ -36,6 +35,7 @@ import qunar.tc.bistoury.proxy.communicate.agent.handler.AgentMessageProcessor;
 import qunar.tc.bistoury.proxy.communicate.ui.NettyServerForUi;
 import qunar.tc.bistoury.proxy.communicate.ui.UiConnectionStore;
 import qunar.tc.bistoury.proxy.communicate.ui.command.CommunicateCommandStore;
+import qunar.tc.bistoury.proxy.config.AppServerIndex;
 import qunar.tc.bistoury.serverside.agile.Conf;
 import qunar.tc.bistoury.serverside.agile.LocalHost;
 import qunar.tc.bistoury.serverside.common.ZKClient;
@@ -76,7 +76,7 @@ public class NettyServerManager {
     private SessionManager sessionManager;
 
     @Autowired
-    private AppServerService appServerService;
+    private AppServerIndex appServerIndex;
 
     @Autowired
     private List<AgentMessageProcessor> agentMessageProcessors;
@@ -115,7 +115,7 @@ public class NettyServerManager {
     }
 
     private NettyServerForUi startUiServer(Conf conf) {
-        NettyServerForUi serverForUi = new NettyServerForUi(conf, commandStore, uiConnectionStore, agentConnectionStore, sessionManager, appServerService);
+        NettyServerForUi serverForUi = new NettyServerForUi(conf, commandStore, uiConnectionStore, agentConnectionStore, sessionManager, appServerIndex);
         serverForUi.start();
         return serverForUi;
     }
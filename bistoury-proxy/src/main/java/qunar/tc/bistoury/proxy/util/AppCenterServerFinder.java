@@ -17,10 +17,11 @@
 
 package qunar.tc.bistoury.proxy.util;
 
+import com.google.common.util.concurrent.ListenableFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import qunar.tc.bistoury.application.api.AppServerService;
 import qunar.tc.bistoury.application.api.pojo.AppServer;
+import qunar.tc.bistoury.proxy.config.AppServerIndex;
 
 import java.util.List;
 
@@ -28,14 +29,14 @@ public class AppCenterServerFinder implements ServerFinder {
 
     private static final Logger logger = LoggerFactory.getLogger(AppCenterServerFinder.class);
 
-    private final AppServerService appServerService;
+    private final AppServerIndex appServerIndex;
 
-    public AppCenterServerFinder(AppServerService appServerService) {
-        this.appServerService = appServerService;
+    public AppCenterServerFinder(AppServerIndex appServerIndex) {
+        this.appServerIndex = appServerIndex;
     }
 
     @Override
-    public List<AppServer> findAgents(String app) {
-        return appServerService.getAppServerByAppCode(app);
+    public ListenableFuture<List<AppServer>> findAgents(String app) {
+        return appServerIndex.getAppServers(app);
     }
 }
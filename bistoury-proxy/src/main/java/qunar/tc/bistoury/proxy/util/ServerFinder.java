@@ -17,11 +17,13 @@
 
 package qunar.tc.bistoury.proxy.util;
 
+import com.google.common.util.concurrent.ListenableFuture;
+
 import java.util.List;
 
 import qunar.tc.bistoury.application.api.pojo.AppServer;
 
 public interface ServerFinder {
 
-    List<AppServer> findAgents(String app);
+    ListenableFuture<List<AppServer>> findAgents(String app);
 }
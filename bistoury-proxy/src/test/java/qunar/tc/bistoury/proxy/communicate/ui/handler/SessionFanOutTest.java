@@ -0,0 +1,156 @@
+package qunar.tc.bistoury.proxy.communicate.ui.handler;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.Assert;
+import org.junit.Test;
+import qunar.tc.bistoury.proxy.communicate.Session;
+import qunar.tc.bistoury.proxy.communicate.agent.AgentConnection;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * session和agent连接都用动态代理模拟，只用到session的结束状态
+ */
+public class SessionFanOutTest {
+
+    @Test
+    public void synchronouslyEndedSessionsDoNotRecurse() {
+        List<AgentConnection> agents = agents(100000);
+        List<AgentConnection> started = new ArrayList<>();
+
+        ListenableFuture<Void> done = fanOut(agents, agent -> {
+            started.add(agent);
+            return session(Futures.immediateFuture(Session.State.finish));
+        }, 2).start();
+
+        Assert.assertTrue(done.isDone());
+        Assert.assertEquals(agents, started);
+    }
+
+    @Test
+    public void windowIsBoundedByConcurrency() {
+        List<SettableFuture<Session.State>> running = new ArrayList<>();
+
+        ListenableFuture<Void> done = fanOut(agents(5), agent -> {
+            SettableFuture<Session.State> endState = SettableFuture.create();
+            running.add(endState);
+            return session(endState);
+        }, 2).start();
+        Assert.assertEquals(2, running.size());
+
+        running.get(1).set(Session.State.finish);
+        Assert.assertEquals(3, running.size());
+
+        running.get(0).set(Session.State.broken);
+        running.get(2).set(Session.State.finish);
+        Assert.assertEquals(5, running.size());
+        Assert.assertFalse(done.isDone());
+
+        running.get(3).set(Session.State.finish);
+        running.get(4).set(Session.State.finish);
+        Assert.assertTrue(done.isDone());
+    }
+
+    @Test
+    public void cancelWaitsForRunningSessions() {
+        List<SettableFuture<Session.State>> running = new ArrayList<>();
+
+        SessionFanOut fanOut = fanOut(agents(3), agent -> {
+            SettableFuture<Session.State> endState = SettableFuture.create();
+            running.add(endState);
+            return session(endState);
+        }, 1);
+        ListenableFuture<Void> done = fanOut.start();
+
+        fanOut.cancel();
+        Assert.assertFalse(done.isDone());
+
+        running.get(0).set(Session.State.finish);
+        Assert.assertTrue(done.isDone());
+        Assert.assertEquals(1, running.size());
+    }
+
+    @Test
+    public void startFailureCountsAsEnded() {
+        List<AgentConnection> agents = agents(4);
+        List<AgentConnection> failed = new ArrayList<>();
+        List<SettableFuture<Session.State>> running = new ArrayList<>();
+
+        ListenableFuture<Void> done = new SessionFanOut(agents, agent -> {
+            if (agent == agents.get(1) || agent == agents.get(2)) {
+                throw new IllegalStateException("start fail");
+            }
+            SettableFuture<Session.State> endState = SettableFuture.create();
+            running.add(endState);
+            return session(endState);
+        }, session -> Assert.fail("no timeout"), (agent, e) -> failed.add(agent), 2, 0, null).start();
+
+        Assert.assertEquals(Lists.newArrayList(agents.get(1), agents.get(2)), failed);
+        Assert.assertEquals(2, running.size());
+        Assert.assertFalse(done.isDone());
+
+        running.get(0).set(Session.State.finish);
+        running.get(1).set(Session.State.finish);
+        Assert.assertTrue(done.isDone());
+    }
+
+    @Test
+    public void allStartsFail() {
+        List<AgentConnection> failed = new ArrayList<>();
+
+        ListenableFuture<Void> done = new SessionFanOut(agents(3), agent -> {
+            throw new IllegalStateException("start fail");
+        }, session -> Assert.fail("no timeout"), (agent, e) -> failed.add(agent), 1, 0, null).start();
+
+        Assert.assertTrue(done.isDone());
+        Assert.assertEquals(3, failed.size());
+    }
+
+    @Test
+    public void noAgents() {
+        ListenableFuture<Void> done = fanOut(Collections.<AgentConnection>emptyList(), agent -> {
+            throw new AssertionError("no session should start");
+        }, 2).start();
+
+        Assert.assertTrue(done.isDone());
+    }
+
+    private static SessionFanOut fanOut(List<AgentConnection> agents, Function<AgentConnection, Session> starter, int concurrency) {
+        return new SessionFanOut(agents, starter, session -> Assert.fail("no timeout"),
+                (agent, e) -> Assert.fail("no start failure"), concurrency, 0, null);
+    }
+
+    private static List<AgentConnection> agents(int count) {
+        List<AgentConnection> agents = Lists.newArrayListWithCapacity(count);
+        for (int i = 0; i < count; ++i) {
+            String agentId = "agent-" + i;
+            agents.add((AgentConnection) Proxy.newProxyInstance(SessionFanOutTest.class.getClassLoader(),
+                    new Class[]{AgentConnection.class},
+                    (proxy, method, args) -> {
+                        if (method.getName().equals("toString")) {
+                            return agentId;
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }));
+        }
+        return agents;
+    }
+
+    private static Session session(ListenableFuture<Session.State> endState) {
+        return (Session) Proxy.newProxyInstance(SessionFanOutTest.class.getClassLoader(),
+                new Class[]{Session.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("getEndState")) {
+                        return endState;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
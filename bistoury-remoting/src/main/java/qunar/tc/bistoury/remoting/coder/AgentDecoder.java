@@ -17,22 +17,17 @@
 
 package qunar.tc.bistoury.remoting.coder;
 
-import com.fasterxml.jackson.core.type.TypeReference;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageDecoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import qunar.tc.bistoury.common.JacksonSerializer;
 import qunar.tc.bistoury.remoting.protocol.Datagram;
 import qunar.tc.bistoury.remoting.protocol.RemotingHeader;
 import qunar.tc.bistoury.remoting.util.PayloadHolderUtils;
 
 import java.io.IOException;
-import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
 /**
  * @author sen.chai
@@ -42,9 +37,6 @@ public class AgentDecoder extends ByteToMessageDecoder {
 
     private static final Logger logger = LoggerFactory.getLogger(AgentDecoder.class);
 
-    private static final TypeReference PROPERTIES_TYPE = new TypeReference<Map<String, String>>() {
-    };
-
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf msg, List<Object> out) throws Exception {
         if (msg.readableBytes() < RemotingHeader.MIN_TOTAL_SIZE) {
@@ -65,10 +57,11 @@ public class AgentDecoder extends ByteToMessageDecoder {
 
         short headerSize = msg.readShort();
         RemotingHeader header = decodeHeader(msg);
+        HeaderPropertiesCodec.recordPeerVersion(ctx.channel(), header.getVersion());
 
         int bodyLength = total - headerSize - RemotingHeader.HEADER_SIZE_LEN;
-        ByteBuf bodyData = Unpooled.buffer(bodyLength, bodyLength);
-        msg.readBytes(bodyData, bodyLength);
+        //body直接引用读到的缓冲区，不再复制一份，使用方处理完以后需要调用Datagram.release
+        ByteBuf bodyData = msg.readSlice(bodyLength).retain();
 
         Datagram datagram = new Datagram();
         datagram.setHeader(header);
@@ -82,18 +75,11 @@ public class AgentDecoder extends ByteToMessageDecoder {
         RemotingHeader header = new RemotingHeader();
         header.setMagicCode(msg.readInt());
         header.setVersion(msg.readShort());
-        header.setVersion(msg.readShort());
+        header.setAgentVersion(msg.readShort());
         header.setId(PayloadHolderUtils.readString(msg));
         header.setCode(msg.readInt());
         header.setFlag(msg.readInt());
-        int propertiesLen = msg.readShort();
-        if (propertiesLen > 0) {
-            byte[] bs = new byte[propertiesLen];
-            msg.readBytes(bs);
-            header.setProperties(JacksonSerializer.<Map<String, String>>deSerialize(bs, PROPERTIES_TYPE));
-        } else {
-            header.setProperties(Collections.<String, String>emptyMap());
-        }
+        header.setProperties(HeaderPropertiesCodec.decode(header.getVersion(), msg));
 
         return header;
     }
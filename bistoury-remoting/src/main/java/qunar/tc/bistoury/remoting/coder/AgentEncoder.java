@@ -22,7 +22,6 @@ import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToByteEncoder;
-import qunar.tc.bistoury.common.JacksonSerializer;
 import qunar.tc.bistoury.remoting.protocol.Datagram;
 import qunar.tc.bistoury.remoting.protocol.RemotingHeader;
 import qunar.tc.bistoury.remoting.util.PayloadHolderUtils;
@@ -43,7 +42,7 @@ public class AgentEncoder extends MessageToByteEncoder<Datagram> {
         out.writerIndex(headerStart);
 
         RemotingHeader header = msg.getHeader();
-        encodeHeader(header, out);
+        encodeHeader(ctx, header, out);
 
         int headerSize = out.writerIndex() - headerStart;
 
@@ -58,11 +57,13 @@ public class AgentEncoder extends MessageToByteEncoder<Datagram> {
         out.writerIndex(end);
     }
 
-    private void encodeHeader(final RemotingHeader header, ByteBuf out) {
+    private void encodeHeader(ChannelHandlerContext ctx, final RemotingHeader header, ByteBuf out) {
+        Map<String, String> properties = header.getProperties();
+        short version = HeaderPropertiesCodec.chooseVersion(ctx.channel(), properties);
         //magic code 4 bytes
         out.writeInt(header.getMagicCode());
         //version 2 bytes
-        out.writeShort(header.getVersion());
+        out.writeShort(version);
         //agent version 2byte
         out.writeShort(header.getAgentVersion());
         //id
@@ -72,12 +73,6 @@ public class AgentEncoder extends MessageToByteEncoder<Datagram> {
         //flag 4 bytes
         out.writeInt(header.getFlag());
         //properties
-        Map<String, String> properties = header.getProperties();
-        if (properties != null && !properties.isEmpty()) {
-            String data = JacksonSerializer.serialize(properties);
-            PayloadHolderUtils.writeString(data, out);
-        } else {
-            out.writeShort(0);
-        }
+        HeaderPropertiesCodec.encode(version, properties, out);
     }
 }
\ No newline at end of file
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2019 Qunar, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package qunar.tc.bistoury.remoting.coder;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.collect.ImmutableMap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import qunar.tc.bistoury.common.BistouryConstants;
+import qunar.tc.bistoury.common.JacksonSerializer;
+import qunar.tc.bistoury.remoting.protocol.RemotingHeader;
+import qunar.tc.bistoury.remoting.util.PayloadHolderUtils;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * header中properties的编解码
+ * <p>
+ * {@link RemotingHeader#PROTOCOL_VERSION} 的properties是json字符串，
+ * {@link RemotingHeader#BINARY_PROPERTIES_VERSION} 的properties是二进制的map，常用的key只占一个字节。
+ * 消息中的version表示这条消息properties的格式，只有确认对端能解析二进制格式以后才使用；
+ * properties为空时两种格式完全一样，这类消息（比如心跳）总是带上当前支持的最高版本，对端据此知道可以使用二进制格式
+ */
+final class HeaderPropertiesCodec {
+
+    private static final AttributeKey<Short> PEER_VERSION = AttributeKey.valueOf("BISTOURY_PEER_PROTOCOL_VERSION");
+
+    private static final TypeReference PROPERTIES_TYPE = new TypeReference<Map<String, String>>() {
+    };
+
+    /**
+     * 不在表中的key
+     */
+    private static final byte CUSTOM_KEY = 0;
+
+    /**
+     * 常用的key，下标即为key的id，只能在末尾追加，不能修改已有的顺序
+     */
+    private static final String[] KNOWN_KEYS = {
+            null,
+            BistouryConstants.MAX_RUNNING_MS,
+            BistouryConstants.FLOW_CONTROL_WINDOW
+    };
+
+    private static final Map<String, Byte> KNOWN_KEY_IDS = buildKnownKeyIds();
+
+    private HeaderPropertiesCodec() {
+    }
+
+    private static Map<String, Byte> buildKnownKeyIds() {
+        ImmutableMap.Builder<String, Byte> builder = ImmutableMap.builder();
+        for (int i = CUSTOM_KEY + 1; i < KNOWN_KEYS.length; ++i) {
+            builder.put(KNOWN_KEYS[i], (byte) i);
+        }
+        return builder.build();
+    }
+
+    static void recordPeerVersion(Channel channel, short version) {
+        Attribute<Short> attribute = channel.attr(PEER_VERSION);
+        Short current = attribute.get();
+        if (current == null || current < version) {
+            attribute.set(version);
+        }
+    }
+
+    /**
+     * @return 这条消息使用的版本
+     */
+    static short chooseVersion(Channel channel, Map<String, String> properties) {
+        if (properties.isEmpty()) {
+            return RemotingHeader.BINARY_PROPERTIES_VERSION;
+        }
+
+        Short peerVersion = channel.attr(PEER_VERSION).get();
+        if (peerVersion != null && peerVersion >= RemotingHeader.BINARY_PROPERTIES_VERSION) {
+            return RemotingHeader.BINARY_PROPERTIES_VERSION;
+        }
+        return RemotingHeader.PROTOCOL_VERSION;
+    }
+
+    static void encode(short version, Map<String, String> properties, ByteBuf out) {
+        if (properties.isEmpty()) {
+            out.writeShort(0);
+        } else if (version >= RemotingHeader.BINARY_PROPERTIES_VERSION) {
+            int lengthIndex = out.writerIndex();
+            out.writeShort(0);
+            encodeBinary(properties, out);
+            out.setShort(lengthIndex, out.writerIndex() - lengthIndex - 2);
+        } else {
+            PayloadHolderUtils.writeString(JacksonSerializer.serialize(properties), out);
+        }
+    }
+
+    private static void encodeBinary(Map<String, String> properties, ByteBuf out) {
+        out.writeShort(properties.size());
+        for (Map.Entry<String, String> entry : properties.entrySet()) {
+            Byte id = KNOWN_KEY_IDS.get(entry.getKey());
+            if (id != null) {
+                out.writeByte(id);
+            } else {
+                out.writeByte(CUSTOM_KEY);
+                PayloadHolderUtils.writeString(entry.getKey(), out);
+            }
+            PayloadHolderUtils.writeString(entry.getValue(), out);
+        }
+    }
+
+    static Map<String, String> decode(short version, ByteBuf in) {
+        int propertiesLen = in.readShort();
+        if (propertiesLen <= 0) {
+            return Collections.emptyMap();
+        }
+
+        if (version >= RemotingHeader.BINARY_PROPERTIES_VERSION) {
+            return decodeBinary(in);
+        }
+
+        byte[] bs = new byte[propertiesLen];
+        in.readBytes(bs);
+        return JacksonSerializer.<Map<String, String>>deSerialize(bs, PROPERTIES_TYPE);
+    }
+
+    private static Map<String, String> decodeBinary(ByteBuf in) {
+        int size = in.readShort();
+        Map<String, String> properties = new HashMap<>(size * 4 / 3 + 1);
+        for (int i = 0; i < size; ++i) {
+            int id = in.readByte();
+            String key;
+            if (id == CUSTOM_KEY) {
+                key = PayloadHolderUtils.readString(in);
+            } else if (id > CUSTOM_KEY && id < KNOWN_KEYS.length) {
+                key = KNOWN_KEYS[id];
+            } else {
+                //对端版本更新，表中追加了这边还不认识的key，读掉value后跳过
+                key = null;
+            }
+
+            String value = PayloadHolderUtils.readString(in);
+            if (key != null) {
+                properties.put(key, value);
+            }
+        }
+        return properties;
+    }
+}
@@ -43,5 +43,6 @@ public class CancelProcessor implements Processor<String> {
     @Override
     public void process(RemotingHeader header, String command, ResponseHandler handler) {
         taskStore.cancel(command);
+        SendWindowStore.getInstance().close(command);
     }
 }
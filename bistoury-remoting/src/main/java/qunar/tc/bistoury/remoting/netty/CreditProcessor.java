@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2019 Qunar, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package qunar.tc.bistoury.remoting.netty;
+
+import com.google.common.collect.ImmutableList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qunar.tc.bistoury.agent.common.ResponseHandler;
+import qunar.tc.bistoury.remoting.protocol.CommandCode;
+import qunar.tc.bistoury.remoting.protocol.RemotingHeader;
+
+import java.util.List;
+
+/**
+ * 接收proxy发来的credit，command为增加的字节数，header中的id为对应请求的id
+ */
+public class CreditProcessor implements Processor<String> {
+
+    private static final Logger logger = LoggerFactory.getLogger(CreditProcessor.class);
+
+    private final SendWindowStore sendWindowStore = SendWindowStore.getInstance();
+
+    @Override
+    public List<Integer> types() {
+        return ImmutableList.of(CommandCode.REQ_TYPE_CREDIT.getCode());
+    }
+
+    @Override
+    public void process(RemotingHeader header, String command, ResponseHandler handler) {
+        try {
+            sendWindowStore.grant(header.getId(), Long.parseLong(command.trim()));
+        } catch (NumberFormatException e) {
+            logger.warn("illegal credit [{}], id [{}]", command, header.getId());
+        }
+    }
+}
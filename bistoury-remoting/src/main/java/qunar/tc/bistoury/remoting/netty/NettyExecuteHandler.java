@@ -17,6 +17,7 @@
 
 package qunar.tc.bistoury.remoting.netty;
 
+import com.google.common.base.Charsets;
 import io.netty.channel.ChannelHandlerContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,6 +34,10 @@ public class NettyExecuteHandler implements ResponseHandler {
 
     private ResponseWriter responseWriter = ResponseWriter.getInstance();
 
+    private final SendWindowStore sendWindowStore = SendWindowStore.getInstance();
+
+    private volatile SendWindow sendWindow;
+
     private RemotingHeader header;
 
     private ChannelHandlerContext ctx;
@@ -58,31 +63,63 @@ public class NettyExecuteHandler implements ResponseHandler {
 
     @Override
     public void handle(String line) {
-        responseWriter.writeNormal(ctx, line, header);
+        handle(line.getBytes(Charsets.UTF_8));
     }
 
     @Override
     public void handle(int code, String line) {
-        responseWriter.writeWithCode(ctx, line, code, header);
+        handle(code, line.getBytes(Charsets.UTF_8));
     }
 
     @Override
     public void handle(int code, byte[] data) {
+        awaitSendable(data.length);
         responseWriter.writeWithCode(ctx, data, code, header);
     }
 
     @Override
     public void handle(byte[] dataBytes) {
+        awaitSendable(dataBytes.length);
         responseWriter.writeNormal(ctx, dataBytes, header);
     }
 
+    /**
+     * 发送数据前等待proxy给的credit和连接可写，错误和结束消息不受限制
+     */
+    private void awaitSendable(int size) {
+        //io线程上直接发送，不能阻塞
+        if (ctx.executor().inEventLoop()) {
+            return;
+        }
+
+        SendWindow window = sendWindow;
+        if (window != null) {
+            window.acquire(size);
+        }
+    }
+
+    /**
+     * 只有task类的请求会持续发送数据，由 {@link TaskProcessor} 在开始执行前打开发送窗口
+     */
+    void openSendWindow() {
+        sendWindow = sendWindowStore.open(header, ctx.channel());
+    }
+
+    private void closeSendWindow() {
+        if (sendWindow != null) {
+            sendWindowStore.close(header.getId());
+        }
+    }
+
     @Override
     public void handleError(int errorCode) {
+        closeSendWindow();
         responseWriter.writeError(ctx, errorCode, header);
     }
 
     @Override
     public void handleError(String error) {
+        closeSendWindow();
         responseWriter.writeError(ctx, error, header);
     }
 
@@ -93,11 +130,13 @@ public class NettyExecuteHandler implements ResponseHandler {
 
     @Override
     public void handleEOF() {
+        closeSendWindow();
         responseWriter.writeEOF(ctx, "", header);
     }
 
     @Override
     public void handleEOF(int exitCode) {
+        closeSendWindow();
         responseWriter.writeEOF(ctx, String.valueOf(exitCode), header);
     }
 
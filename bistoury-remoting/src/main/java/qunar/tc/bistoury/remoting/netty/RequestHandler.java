@@ -66,9 +66,29 @@ public class RequestHandler extends ChannelInboundHandlerAdapter {
         ctx.channel().close();
     }
 
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        SendWindowStore.getInstance().writabilityChanged(ctx.channel());
+        super.channelWritabilityChanged(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        SendWindowStore.getInstance().writabilityChanged(ctx.channel());
+        super.channelInactive(ctx);
+    }
+
     @Override
     public void channelRead(final ChannelHandlerContext ctx, Object msg) throws Exception {
         final Datagram datagram = (Datagram) msg;
+        try {
+            process(ctx, datagram);
+        } finally {
+            datagram.release();
+        }
+    }
+
+    private void process(final ChannelHandlerContext ctx, final Datagram datagram) throws Exception {
         RemotingHeader header = datagram.getHeader();
         int code = header.getCode();
         String id = header.getId();
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2019 Qunar, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package qunar.tc.bistoury.remoting.netty;
+
+import io.netty.channel.Channel;
+
+/**
+ * 一个请求的响应发送窗口
+ * <p>
+ * proxy在ui连接可写时才会给agent增加credit，credit用完或者连接不可写时，发送数据的线程会被阻塞，
+ * 从而让读取命令输出的线程停下来，而不是把数据无限制的堆在内存里
+ */
+class SendWindow {
+
+    static final long UNLIMITED = Long.MAX_VALUE;
+
+    private static final long WAIT_MS = 1000;
+
+    private final Channel channel;
+
+    private long credits;
+
+    private boolean closed = false;
+
+    SendWindow(Channel channel, long credits) {
+        this.channel = channel;
+        this.credits = credits;
+    }
+
+    Channel getChannel() {
+        return channel;
+    }
+
+    /**
+     * 等到有credit并且连接可写时再返回，单条数据可以超过剩余的credit，超出的部分从之后的credit中扣除
+     *
+     * @throws IllegalStateException 连接已经断开，或者等待时线程被中断，这时数据不会被发送
+     */
+    synchronized void acquire(int size) {
+        while (!closed && (credits <= 0 || !channel.isWritable())) {
+            if (!channel.isActive()) {
+                throw new IllegalStateException("send channel is not active");
+            }
+
+            try {
+                wait(WAIT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while waiting for send window", e);
+            }
+        }
+
+        if (credits != UNLIMITED) {
+            credits -= size;
+        }
+    }
+
+    synchronized void grant(long credit) {
+        if (credit <= 0 || credits == UNLIMITED) {
+            return;
+        }
+
+        credits = credits > UNLIMITED - credit ? UNLIMITED - 1 : credits + credit;
+        notifyAll();
+    }
+
+    synchronized void wakeUp() {
+        notifyAll();
+    }
+
+    /**
+     * 关闭以后不再阻塞发送
+     */
+    synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+}
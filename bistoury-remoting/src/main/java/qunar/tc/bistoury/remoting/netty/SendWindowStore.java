@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2019 Qunar, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package qunar.tc.bistoury.remoting.netty;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
+import io.netty.channel.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qunar.tc.bistoury.common.BistouryConstants;
+import qunar.tc.bistoury.remoting.protocol.RemotingHeader;
+
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 按请求id保存发送窗口，用来接收proxy发来的credit
+ */
+public class SendWindowStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(SendWindowStore.class);
+
+    private static final SendWindowStore INSTANCE = new SendWindowStore();
+
+    private final ConcurrentMap<String, SendWindow> windows = Maps.newConcurrentMap();
+
+    private SendWindowStore() {
+    }
+
+    public static SendWindowStore getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 请求开始执行时创建窗口，请求结束或取消时由 {@link #close(String)} 移除
+     */
+    SendWindow open(RemotingHeader header, Channel channel) {
+        SendWindow window = new SendWindow(channel, initialCredits(header));
+        SendWindow old = windows.put(header.getId(), window);
+        if (old != null) {
+            old.close();
+        }
+        return window;
+    }
+
+    /**
+     * 老版本的proxy不会发送credit，这时不限制credit，只在连接不可写时等待
+     */
+    private long initialCredits(RemotingHeader header) {
+        String window = header.getProperties().get(BistouryConstants.FLOW_CONTROL_WINDOW);
+        if (Strings.isNullOrEmpty(window)) {
+            return SendWindow.UNLIMITED;
+        }
+
+        try {
+            return Long.parseLong(window);
+        } catch (NumberFormatException e) {
+            logger.warn("illegal flow control window [{}], id [{}]", window, header.getId());
+            return SendWindow.UNLIMITED;
+        }
+    }
+
+    /**
+     * 请求已经结束时credit可能还在路上，这时直接丢掉
+     */
+    public void grant(String id, long credit) {
+        SendWindow window = windows.get(id);
+        if (window != null) {
+            window.grant(credit);
+        }
+    }
+
+    public void close(String id) {
+        SendWindow window = windows.remove(id);
+        if (window != null) {
+            window.close();
+        }
+    }
+
+    public void writabilityChanged(Channel channel) {
+        for (SendWindow window : windows.values()) {
+            if (window.getChannel() == channel) {
+                window.wakeUp();
+            }
+        }
+    }
+}
@@ -74,11 +74,16 @@ public class TaskProcessor implements Processor<Object> {
             return;
         }
 
+        if (handler instanceof NettyExecuteHandler) {
+            ((NettyExecuteHandler) handler).openSendWindow();
+        }
+
         ListenableFuture<Integer> future = task.execute();
         future.addListener(new Runnable() {
             @Override
             public void run() {
                 taskStore.finish(id);
+                SendWindowStore.getInstance().close(id);
             }
         }, MoreExecutors.directExecutor());
 
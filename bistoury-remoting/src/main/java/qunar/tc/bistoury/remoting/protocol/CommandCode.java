@@ -37,6 +37,7 @@ public enum CommandCode {
     REQ_TYPE_JAVA(104, 4),
     REQ_TYPE_QJTOOLS(105, 6),
     REQ_TYPE_ARTHAS(106, 7),
+    REQ_TYPE_CREDIT(107, 60),
 
     REQ_TYPE_DEBUG(201, 8),
     REQ_TYPE_JAR_DEBUG(202, 9),
@@ -20,15 +20,20 @@ package qunar.tc.bistoury.remoting.protocol;
 import io.netty.buffer.ByteBuf;
 import io.netty.util.ReferenceCountUtil;
 
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
 /**
  * @author leix.xie
  * @date 2019/5/13 11:39
  * @describe
  */
 public class Datagram {
+    private static final AtomicIntegerFieldUpdater<Datagram> RELEASED_UPDATER = AtomicIntegerFieldUpdater.newUpdater(Datagram.class, "released");
+
     private RemotingHeader header;
     private ByteBuf body;
     private PayloadHolder holder;
+    private volatile int released;
 
     public ByteBuf getBody() {
         return body;
@@ -59,8 +64,13 @@ public class Datagram {
         holder.writeBody(out);
     }
 
+    /**
+     * 释放body，body可能引用着解码时的缓冲区，多次调用只会释放一次
+     */
     public void release() {
-        ReferenceCountUtil.safeRelease(body);
+        if (RELEASED_UPDATER.compareAndSet(this, 0, 1)) {
+            ReferenceCountUtil.safeRelease(body);
+        }
     }
 
     @Override
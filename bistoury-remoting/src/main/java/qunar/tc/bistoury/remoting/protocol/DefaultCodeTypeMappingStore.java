@@ -74,6 +74,8 @@ public class DefaultCodeTypeMappingStore implements CodeTypeMappingStore {
         register(stringClass, ImmutableSet.of(REQ_TYPE_REFRESH_TIP.getCode()));
         //cancel
         register(stringClass, ImmutableSet.of(REQ_TYPE_CANCEL.getCode()));
+        //credit
+        register(stringClass, ImmutableSet.of(REQ_TYPE_CREDIT.getCode()));
 
     }
 
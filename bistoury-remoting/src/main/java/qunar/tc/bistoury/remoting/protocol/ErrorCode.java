@@ -39,7 +39,8 @@ public enum ErrorCode {
     NO_HOST(-109, "请选择一台主机"),
     COMMAND_PROCESSOR_ERROR(-110, "命令解析错误"),
     AGENT_CANNOT_CONNECT(-111, "Agent暂时无法连接"),
-    HOST_VALIDATE_ERROR(-112, "主机校验失败，所选主机不属于该应用");
+    HOST_VALIDATE_ERROR(-112, "主机校验失败，所选主机不属于该应用"),
+    AGENT_TIMEOUT(-113, "Agent响应超时");
 
 
     private int code;
@@ -18,7 +18,6 @@
 package qunar.tc.bistoury.remoting.protocol;
 
 import com.google.common.base.Strings;
-import com.google.common.collect.ImmutableMap;
 import qunar.tc.bistoury.common.BistouryConstants;
 
 import java.util.Collections;
@@ -46,8 +45,12 @@ public class RemotingHeader {
 
     //协议版本
     public static final short PROTOCOL_VERSION = 1;
+    //header中properties使用二进制编码的协议版本
+    public static final short BINARY_PROPERTIES_VERSION = 2;
     //agent版本
-    public static final short AGENT_VERSION = 11;
+    public static final short AGENT_VERSION = 12;
+    //支持按credit控制响应发送速度的最低agent版本
+    public static final short MIN_FLOW_CONTROL_AGENT_VERSION = 12;
 
     public static final int DEFAULT_MAGIC_CODE = 0xdec1_0ade;
 
@@ -110,7 +113,7 @@ public class RemotingHeader {
     }
 
     public long getMaxRunningMs() {
-        String time = properties.get(BistouryConstants.MAX_RUNNING_MS);
+        String time = getProperties().get(BistouryConstants.MAX_RUNNING_MS);
         if (Strings.isNullOrEmpty(time)) {
             return DEFAULT_MAX_RUNNING_MS;
         }
@@ -119,14 +122,17 @@ public class RemotingHeader {
 
     public Map<String, String> getProperties() {
         if (this.properties == null) {
-            return Collections.EMPTY_MAP;
+            return Collections.emptyMap();
         } else {
-            return ImmutableMap.copyOf(properties);
+            return properties;
         }
     }
 
+    /**
+     * 设置以后properties不能再修改
+     */
     public void setProperties(Map<String, String> properties) {
-        this.properties = properties;
+        this.properties = properties == null ? null : Collections.unmodifiableMap(properties);
     }
 
     @Override
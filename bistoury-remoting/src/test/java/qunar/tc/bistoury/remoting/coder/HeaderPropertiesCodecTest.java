@@ -0,0 +1,69 @@
+package qunar.tc.bistoury.remoting.coder;
+
+import com.google.common.collect.ImmutableMap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Assert;
+import org.junit.Test;
+import qunar.tc.bistoury.common.BistouryConstants;
+import qunar.tc.bistoury.remoting.protocol.RemotingHeader;
+import qunar.tc.bistoury.remoting.util.PayloadHolderUtils;
+
+import java.util.Map;
+
+public class HeaderPropertiesCodecTest {
+
+    private static final Map<String, String> PROPERTIES = ImmutableMap.of(
+            BistouryConstants.MAX_RUNNING_MS, "1000",
+            BistouryConstants.FLOW_CONTROL_WINDOW, "64",
+            "custom", "中文");
+
+    @Test
+    public void testBinaryRoundTrip() {
+        ByteBuf buf = Unpooled.buffer();
+        HeaderPropertiesCodec.encode(RemotingHeader.BINARY_PROPERTIES_VERSION, PROPERTIES, buf);
+
+        Assert.assertEquals(PROPERTIES, HeaderPropertiesCodec.decode(RemotingHeader.BINARY_PROPERTIES_VERSION, buf));
+        Assert.assertEquals(0, buf.readableBytes());
+    }
+
+    @Test
+    public void testJsonRoundTrip() {
+        ByteBuf buf = Unpooled.buffer();
+        HeaderPropertiesCodec.encode(RemotingHeader.PROTOCOL_VERSION, PROPERTIES, buf);
+
+        Assert.assertEquals(PROPERTIES, HeaderPropertiesCodec.decode(RemotingHeader.PROTOCOL_VERSION, buf));
+        Assert.assertEquals(0, buf.readableBytes());
+    }
+
+    @Test
+    public void testSkipUnknownKeyId() {
+        //模拟更新版本的对端，表中多了一个id为100的key
+        ByteBuf buf = Unpooled.buffer();
+        int lengthIndex = buf.writerIndex();
+        buf.writeShort(0);
+        buf.writeShort(3);
+        buf.writeByte(100);
+        PayloadHolderUtils.writeString("unknown", buf);
+        buf.writeByte(1);
+        PayloadHolderUtils.writeString("1000", buf);
+        buf.writeByte(0);
+        PayloadHolderUtils.writeString("custom", buf);
+        PayloadHolderUtils.writeString("value", buf);
+        buf.setShort(lengthIndex, buf.writerIndex() - lengthIndex - 2);
+        buf.writeInt(42);
+
+        Map<String, String> properties = HeaderPropertiesCodec.decode(RemotingHeader.BINARY_PROPERTIES_VERSION, buf);
+        Assert.assertEquals(ImmutableMap.of(BistouryConstants.MAX_RUNNING_MS, "1000", "custom", "value"), properties);
+        Assert.assertEquals(42, buf.readInt());
+    }
+
+    @Test
+    public void testEmptyProperties() {
+        ByteBuf buf = Unpooled.buffer();
+        HeaderPropertiesCodec.encode(RemotingHeader.BINARY_PROPERTIES_VERSION, ImmutableMap.<String, String>of(), buf);
+
+        Assert.assertTrue(HeaderPropertiesCodec.decode(RemotingHeader.PROTOCOL_VERSION, buf).isEmpty());
+        Assert.assertEquals(0, buf.readableBytes());
+    }
+}
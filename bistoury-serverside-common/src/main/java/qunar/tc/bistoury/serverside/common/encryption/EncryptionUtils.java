@@ -87,15 +87,39 @@ public class EncryptionUtils {
         Files.write(Base64.encode(key.getEncoded()), new File(dstFile), Charsets.UTF_8);
     }
 
-    public static String decryptDes(String data, String keyString) throws Encryption.DecryptException {
+    private static final ThreadLocal<Cipher> DES_CIPHER = new ThreadLocal<Cipher>() {
+        @Override
+        protected Cipher initialValue() {
+            try {
+                return Cipher.getInstance("DES/ECB/PKCS5Padding");
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    public static SecretKey createDesKey(String keyString) throws Encryption.DecryptException {
         try {
-            Cipher cipher = Cipher.getInstance("DES/ECB/PKCS5Padding");
             DESKeySpec keySpec = new DESKeySpec(keyString.getBytes(Charsets.UTF_8));
-            SecretKey key = SecretKeyFactory.getInstance("DES").generateSecret(keySpec);
+            return SecretKeyFactory.getInstance("DES").generateSecret(keySpec);
+        } catch (Exception e) {
+            throw new Encryption.DecryptException(e);
+        }
+    }
+
+    public static String decryptDes(String data, String keyString) throws Encryption.DecryptException {
+        return decryptDes(data, createDesKey(keyString));
+    }
+
+    public static String decryptDes(String data, SecretKey key) throws Encryption.DecryptException {
+        try {
+            Cipher cipher = DES_CIPHER.get();
             cipher.init(Cipher.DECRYPT_MODE, key);
             byte[] bytes = Base64.decode(data);
             return new String(cipher.doFinal(bytes), Charsets.UTF_8);
         } catch (Exception e) {
+            //doFinal失败后cipher的状态不确定，丢掉，下次重新创建
+            DES_CIPHER.remove();
             throw new Encryption.DecryptException(e);
         }
     }
@@ -23,22 +23,27 @@ import com.ning.http.util.Base64;
 import javax.crypto.Cipher;
 import javax.crypto.NoSuchPaddingException;
 import java.io.IOException;
+import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
+import java.security.Key;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.spec.InvalidKeySpecException;
 
+/**
+ * 密钥只在构造时加载一次，每个线程各自持有初始化好的cipher，加解密时不再重复创建和初始化
+ */
 public class RSAEncryption implements Encryption {
 
     private static final String ALGORITHM = "RSA";
 
-    private PublicKey publicKey;
-    private PrivateKey privateKey;
+    private final ThreadLocal<Cipher> encryptCipher;
+    private final ThreadLocal<Cipher> decryptCipher;
 
     public RSAEncryption(String publicKeyPath, String privateKeyPath) throws IOException, ClassNotFoundException, InvalidKeyException, NoSuchPaddingException, NoSuchAlgorithmException, InvalidKeySpecException {
-        this.publicKey = EncryptionUtils.loadRSAPublicKey(publicKeyPath);
-        this.privateKey = EncryptionUtils.loadRSAPrivateKey(privateKeyPath);
+        PublicKey publicKey = EncryptionUtils.loadRSAPublicKey(publicKeyPath);
+        PrivateKey privateKey = EncryptionUtils.loadRSAPrivateKey(privateKeyPath);
 
         // fail fast
         Cipher cipher = Cipher.getInstance(ALGORITHM);
@@ -46,29 +51,43 @@ public class RSAEncryption implements Encryption {
         cipher = Cipher.getInstance(ALGORITHM);
         cipher.init(Cipher.DECRYPT_MODE, privateKey);
 
+        this.encryptCipher = cipherHolder(Cipher.ENCRYPT_MODE, publicKey);
+        this.decryptCipher = cipherHolder(Cipher.DECRYPT_MODE, privateKey);
+    }
+
+    private static ThreadLocal<Cipher> cipherHolder(final int mode, final Key key) {
+        return new ThreadLocal<Cipher>() {
+            @Override
+            protected Cipher initialValue() {
+                try {
+                    Cipher cipher = Cipher.getInstance(ALGORITHM);
+                    cipher.init(mode, key);
+                    return cipher;
+                } catch (GeneralSecurityException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
     }
 
     @Override
     public String encrypt(String source) throws EncryptException {
-        Cipher cipher;
         try {
-            cipher = Cipher.getInstance(ALGORITHM);
-            cipher.init(Cipher.ENCRYPT_MODE, publicKey);
             byte[] bytes = source.getBytes(Charsets.UTF_8);
-            return Base64.encode(cipher.doFinal(bytes));
+            return Base64.encode(encryptCipher.get().doFinal(bytes));
         } catch (Exception e) {
+            //doFinal失败后cipher的状态不确定，丢掉，下次重新创建
+            encryptCipher.remove();
             throw new EncryptException(e);
         }
     }
 
     @Override
     public String decrypt(String source) throws DecryptException {
-        Cipher cipher;
         try {
-            cipher = Cipher.getInstance(ALGORITHM);
-            cipher.init(Cipher.DECRYPT_MODE, privateKey);
-            return new String(cipher.doFinal(Base64.decode(source)), Charsets.UTF_8);
+            return new String(decryptCipher.get().doFinal(Base64.decode(source)), Charsets.UTF_8);
         } catch (Exception e) {
+            decryptCipher.remove();
             throw new DecryptException(e);
         }
     }
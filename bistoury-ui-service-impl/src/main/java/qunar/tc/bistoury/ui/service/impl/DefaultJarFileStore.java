@@ -19,17 +19,16 @@ package qunar.tc.bistoury.ui.service.impl;
 
 import com.google.common.base.Strings;
 import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalCause;
 import com.google.common.cache.RemovalListener;
 import com.google.common.collect.Maps;
-import com.google.common.hash.HashFunction;
-import com.google.common.hash.Hasher;
-import com.google.common.hash.Hashing;
-import com.google.common.io.ByteStreams;
-import com.ning.http.client.AsyncHttpClient;
-import com.ning.http.client.Response;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
@@ -37,23 +36,20 @@ import qunar.tc.bistoury.common.AsyncHttpClientHolder;
 import qunar.tc.bistoury.serverside.configuration.DynamicConfig;
 import qunar.tc.bistoury.serverside.configuration.DynamicConfigLoader;
 import qunar.tc.bistoury.serverside.configuration.local.LocalDynamicConfig;
-import qunar.tc.bistoury.serverside.metrics.Metrics;
 import qunar.tc.bistoury.serverside.util.BistouryFileStoreUtil;
+import qunar.tc.bistoury.ui.exception.SourceFileDownloadingException;
 import qunar.tc.bistoury.ui.exception.SourceFileNotFoundException;
 import qunar.tc.bistoury.ui.model.MavenInfo;
 import qunar.tc.bistoury.ui.service.JarFileStore;
 
 import javax.annotation.PostConstruct;
-import java.io.*;
+import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.text.MessageFormat;
-import java.util.Map;
-import java.util.Objects;
-import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Function;
-import java.util.function.Supplier;
 
 /**
  * @author zhenyu.nie created on 2019 2019/4/25 19:21
@@ -63,8 +59,6 @@ public class DefaultJarFileStore implements JarFileStore {
 
     private static final Logger logger = LoggerFactory.getLogger(DefaultJarFileStore.class);
 
-    private static final AsyncHttpClient httpClient = AsyncHttpClientHolder.getInstance();
-
     private static final String URL_SEPARATOR = "/";
 
     private static final String JAR_SUFFIX = ".jar";
@@ -75,28 +69,58 @@ public class DefaultJarFileStore implements JarFileStore {
 
     private static final String TEMP_JAR = SOURCE_JAR + TEMP_SUFFIX;
 
-    private String storeDir = BistouryFileStoreUtil.getBistouryStore() + File.separator + "jar" + File.separator + "source";
+    private final SourceJarDownloader downloader;
+
+    private final String storeDir;
 
     private String mavenHost;
 
     private int jarGuaranteePeriodDays;
 
-    private LoadingCache<MavenInfo, String> cache;
+    private Cache<MavenInfo, String> cache;
 
-    @PostConstruct
-    public void init() {
+    /**
+     * 正在下载的jar包，同一个jar包同时只会有一个下载；下载失败的结果留到下一次请求取走，之后再请求会重新下载
+     */
+    private final ConcurrentMap<MavenInfo, ListenableFuture<String>> downloading = Maps.newConcurrentMap();
 
+    public DefaultJarFileStore() {
+        this(new SourceJarDownloader(AsyncHttpClientHolder.getInstance()),
+                BistouryFileStoreUtil.getBistouryStore() + File.separator + "jar" + File.separator + "source");
+    }
 
+    DefaultJarFileStore(SourceJarDownloader downloader, String storeDir) {
+        this.downloader = downloader;
+        this.storeDir = storeDir;
+    }
+
+    @PostConstruct
+    public void init() {
         DynamicConfig<LocalDynamicConfig> dynamicConfig = DynamicConfigLoader.load("config.properties");
         dynamicConfig.addListener(config -> {
             mavenHost = config.getString("maven.nexus.url");
             jarGuaranteePeriodDays = config.getInt("jar.guarantee.period.days", 2);
         });
+        initStore();
+    }
 
+    void init(String mavenHost, int jarGuaranteePeriodDays) {
+        this.mavenHost = mavenHost;
+        this.jarGuaranteePeriodDays = jarGuaranteePeriodDays;
+        initStore();
+    }
+
+    private void initStore() {
         this.cache = CacheBuilder
                 .newBuilder()
                 .expireAfterAccess(jarGuaranteePeriodDays, TimeUnit.DAYS)
                 .removalListener((RemovalListener<MavenInfo, String>) notification -> {
+                    //同一个jar包重新放进缓存时路径不变，文件还在用
+                    if (notification.getCause() == RemovalCause.REPLACED
+                            && notification.getValue().equals(cache.asMap().get(notification.getKey()))) {
+                        return;
+                    }
+
                     File file = new File(notification.getValue());
                     if (file.exists()) {
                         if (!file.delete()) {
@@ -104,12 +128,7 @@ public class DefaultJarFileStore implements JarFileStore {
                         }
                     }
                 })
-                .build(new CacheLoader<MavenInfo, String>() {
-                    @Override
-                    public String load(MavenInfo mavenInfo) throws Exception {
-                        return fetchSourceJar(mavenInfo);
-                    }
-                });
+                .build();
 
         ensureDirCreate(storeDir);
         loadExistJarFiles(storeDir);
@@ -141,10 +160,12 @@ public class DefaultJarFileStore implements JarFileStore {
     }
 
     private void clearTempFiles(String dir) {
+        //保留期内的临时文件留着下次下载时续传
+        long expireTime = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(jarGuaranteePeriodDays);
         try {
             Files.find(Paths.get(dir),
                     Integer.MAX_VALUE,
-                    (path, attr) -> !attr.isDirectory() && path.toString().endsWith(TEMP_SUFFIX))
+                    (path, attr) -> !attr.isDirectory() && path.toString().endsWith(TEMP_SUFFIX) && attr.lastModifiedTime().toMillis() < expireTime)
                     .forEach((path) -> path.toFile().delete());
         } catch (Exception e) {
             throw new IllegalStateException("load dir error, " + dir, e);
@@ -163,12 +184,22 @@ public class DefaultJarFileStore implements JarFileStore {
 
     @Override
     public String getJarFile(MavenInfo mavenInfo) {
-        String filePath = cache.getUnchecked(mavenInfo);
-        if (fileExpired(filePath)) {
-            cache.invalidate(mavenInfo);
-            filePath = cache.getUnchecked(mavenInfo);
+        String filePath = getJarFileIfPresent(mavenInfo);
+        if (filePath != null) {
+            return filePath;
+        }
+
+        ListenableFuture<String> future = download(mavenInfo);
+        if (!future.isDone()) {
+            throw new SourceFileDownloadingException("源文件正在下载，请稍后");
+        }
+
+        try {
+            return Futures.getDone(future);
+        } catch (ExecutionException e) {
+            downloading.remove(mavenInfo, future);
+            throw Throwables.propagate(e.getCause());
         }
-        return filePath;
     }
 
     @Override
@@ -185,54 +216,60 @@ public class DefaultJarFileStore implements JarFileStore {
         return !Strings.isNullOrEmpty(filePath) && !new File(filePath).exists();
     }
 
-    private String fetchSourceJar(MavenInfo mavenInfo) {
-        try {
-            AsyncHttpClient.BoundRequestBuilder builder = httpClient.prepareGet(getUrl(mavenInfo));
-            Response response = httpClient.executeRequest(builder.build()).get();
-            if (response.getStatusCode() != 200) {
-                logger.warn("getAll source code from maven repository fail, http code [{}]", response.getStatusCode());
-                throw new RuntimeException();
-            } else {
-                InputStream inputStream = response.getResponseBodyAsStream();
-                File tempFile = new File(getTempJarPath(mavenInfo));
-                ensureDirExist(tempFile);
-
-                try (FileOutputStream to = new FileOutputStream(tempFile)) {
-                    ByteStreams.copy(inputStream, to);
-                }
+    private ListenableFuture<String> download(MavenInfo mavenInfo) {
+        SettableFuture<String> future = SettableFuture.create();
+        ListenableFuture<String> exist = downloading.putIfAbsent(mavenInfo, future);
+        if (exist != null) {
+            return exist;
+        }
 
-                //分析response Header，获取etag，解析文件hash
-                String eTagInHeader = response.getHeader("ETag");
-                ETag eTag = parseETag(eTagInHeader);
-                if (eTag == null) {
-                    logger.error("文件 hash 值解析错误, mavenInfo: {}, etag: {}", mavenInfo, eTagInHeader);
-                    Metrics.counter("hash_parse_error").inc();
-                    tempFile.delete();
-                    throw new SourceFileNotFoundException("源文件下载错误, 文件hashValue值解析错误");
-                }
+        //检查缓存和抢到下载之间，上一次下载可能刚好完成
+        String filePath = getJarFileIfPresent(mavenInfo);
+        if (filePath != null) {
+            downloading.remove(mavenInfo, future);
+            future.set(filePath);
+            return future;
+        }
 
-                String hashValue = eTag.hashing(tempFile);
-                if (!Objects.equals(eTag.getHashValue(), hashValue)) {
-                    logger.error("文件 hash 值不匹配, mavenInfo: {}, algorithm: {}, etag: {}, file: {}", mavenInfo, eTag.getAlgorithm().name(), eTag.getHashValue(), hashValue);
-                    Metrics.counter("hash_not_match").inc();
-                    tempFile.delete();
-                    throw new SourceFileNotFoundException(String.format("源文件下载错误，文件hashValue值不匹配, algorithm: %s, etag: %s, file: %s", eTag.getAlgorithm().name(), eTag.getHashValue(), hashValue));
+        try {
+            File tempFile = new File(getTempJarPath(mavenInfo));
+            ensureDirExist(tempFile);
+            Futures.addCallback(downloader.download(getUrl(mavenInfo), tempFile), new FutureCallback<File>() {
+                @Override
+                public void onSuccess(File tempFile) {
+                    try {
+                        String jarFile = moveToJarFile(mavenInfo, tempFile);
+                        cache.put(mavenInfo, jarFile);
+                        downloading.remove(mavenInfo, future);
+                        future.set(jarFile);
+                    } catch (Exception e) {
+                        onFailure(e);
+                    }
                 }
 
-                File jarFile = new File(getSourceJarPath(mavenInfo));
-                if (!tempFile.renameTo(jarFile)) {
-                    logger.error("rename temp file error, temp [{}], target [{}]", tempFile, jarFile);
-                    tempFile.delete();
-                    if (!jarFile.exists()) {
-                        throw new SourceFileNotFoundException("源文件下载失败");
-                    }
+                @Override
+                public void onFailure(Throwable t) {
+                    logger.warn("download source jar fail, {}", mavenInfo, t);
+                    future.setException(t);
                 }
+            }, MoreExecutors.directExecutor());
+        } catch (Exception e) {
+            downloading.remove(mavenInfo, future);
+            future.setException(e);
+        }
+        return future;
+    }
 
-                return jarFile.getAbsolutePath();
+    private String moveToJarFile(MavenInfo mavenInfo, File tempFile) {
+        File jarFile = new File(getSourceJarPath(mavenInfo));
+        if (!tempFile.renameTo(jarFile)) {
+            logger.error("rename temp file error, temp [{}], target [{}]", tempFile, jarFile);
+            tempFile.delete();
+            if (!jarFile.exists()) {
+                throw new SourceFileNotFoundException("源文件下载失败");
             }
-        } catch (Exception e) {
-            throw Throwables.propagate(e);
         }
+        return jarFile.getAbsolutePath();
     }
 
     private void ensureDirExist(File tempFile) {
@@ -252,7 +289,7 @@ public class DefaultJarFileStore implements JarFileStore {
     }
 
     private String getTempJarPath(MavenInfo mavenInfo) {
-        return getJarFilePathPrefix(mavenInfo).append("-").append(UUID.randomUUID()).append(TEMP_JAR).toString();
+        return getJarFilePathPrefix(mavenInfo).append(TEMP_JAR).toString();
     }
 
     private StringBuilder getJarFilePathPrefix(MavenInfo mavenInfo) {
@@ -269,118 +306,4 @@ public class DefaultJarFileStore implements JarFileStore {
     private String getUrl(MavenInfo mavenInfo) {
         return MessageFormat.format(mavenHost, mavenInfo.getGroupId().replace('.', '/'), mavenInfo.getArtifactId(), mavenInfo.getVersion());
     }
-
-    private static ETag parseETag(String eTag) {
-        if (Strings.isNullOrEmpty(eTag)) {
-            return null;
-        }
-
-        int index = eTag.indexOf('{');
-        if (index < 0) {
-            return null;
-        }
-        int algorithmStartIndex = index + 1;
-        int algorithmEndIndex = eTag.indexOf('{', algorithmStartIndex);
-        if (algorithmEndIndex < 0) {
-            return null;
-        }
-        String protocolName = eTag.substring(algorithmStartIndex, algorithmEndIndex).trim().toUpperCase();
-        HashAlgorithm algorithm = HashAlgorithm.of(protocolName);
-        if (algorithm == null) {
-            return null;
-        }
-
-        int hashValueStartIndex = algorithmEndIndex + 1;
-        int hashValueEndIndex = eTag.indexOf('}', hashValueStartIndex);
-        if (hashValueEndIndex < 0) {
-            return null;
-        }
-        String hashcode = eTag.substring(hashValueStartIndex, hashValueEndIndex).trim();
-        if (Strings.isNullOrEmpty(hashcode)) {
-            return null;
-        }
-
-        return new ETag(algorithm, hashcode);
-    }
-
-    private static class ETag {
-        private HashAlgorithm algorithm;
-        private String hashValue;
-
-        public ETag(HashAlgorithm algorithm, String hashValue) {
-            this.algorithm = algorithm;
-            this.hashValue = hashValue;
-        }
-
-        public HashAlgorithm getAlgorithm() {
-            return algorithm;
-        }
-
-        public String getHashValue() {
-            return hashValue;
-        }
-
-        public String hashing(File file) {
-            return algorithm.func.apply(file);
-        }
-
-        @Override
-        public String toString() {
-            return "ETag{" +
-                    "algorithm=" + algorithm +
-                    ", hash='" + hashValue + '\'' +
-                    '}';
-        }
-    }
-
-    private enum HashAlgorithm {
-
-        MD5("MD5", hashWith(Hashing::md5)),
-        SHA1("SHA1", hashWith(Hashing::sha1)),
-        SHA256("SHA256", hashWith(Hashing::sha256));
-
-        private static Map<String, HashAlgorithm> mapping = initMapping();
-
-        private String algorithm;
-        private Function<File, String> func;
-
-        HashAlgorithm(String algorithm, Function<File, String> func) {
-            this.algorithm = algorithm;
-            this.func = func;
-        }
-
-        private static Map<String, HashAlgorithm> initMapping() {
-            Map<String, HashAlgorithm> mapping = Maps.newHashMap();
-            for (HashAlgorithm algorithm : HashAlgorithm.values()) {
-                mapping.put(algorithm.name(), algorithm);
-            }
-            return mapping;
-        }
-
-        public static HashAlgorithm of(String value) {
-            return mapping.get(value);
-        }
-
-        @Override
-        public String toString() {
-            return "HashAlgorithm{" +
-                    "algorithm='" + algorithm + '\'' +
-                    '}';
-        }
-    }
-
-    private static Function<File, String> hashWith(Supplier<HashFunction> algorithm) {
-        return (file) -> {
-            try (InputStream inputStream = new BufferedInputStream(new FileInputStream(file))) {
-                Hasher hasher = algorithm.get().newHasher();
-                int b;
-                while ((b = inputStream.read()) != -1) {
-                    hasher.putByte((byte) b);
-                }
-                return hasher.hash().toString();
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-        };
-    }
 }
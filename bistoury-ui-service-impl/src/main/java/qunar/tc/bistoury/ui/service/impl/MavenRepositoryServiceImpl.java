@@ -21,7 +21,7 @@ import com.google.common.base.Strings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
-import qunar.tc.bistoury.common.FileUtil;
+import qunar.tc.bistoury.ui.exception.SourceFileDownloadingException;
 import qunar.tc.bistoury.ui.exception.SourceFileNotFoundException;
 import qunar.tc.bistoury.ui.exception.SourceFileReadException;
 import qunar.tc.bistoury.ui.model.MavenInfo;
@@ -30,8 +30,6 @@ import qunar.tc.bistoury.ui.service.MavenRepositoryService;
 
 import javax.annotation.Resource;
 import java.util.function.Function;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
 
 /**
  * @author: leix.xie
@@ -46,6 +44,8 @@ public class MavenRepositoryServiceImpl implements MavenRepositoryService {
     @Resource
     private JarFileStore jarFileStore;
 
+    private final SourceJarCache sourceJarCache = new SourceJarCache();
+
     @Override
     public String getSourceFile(MavenInfo mavenInfo, String className) {
         try {
@@ -60,6 +60,8 @@ public class MavenRepositoryServiceImpl implements MavenRepositoryService {
     public String downSourceFile(MavenInfo mavenInfo, String className) {
         try {
             return getSourceFile(mavenInfo, className, (info) -> jarFileStore.getJarFile(info));
+        } catch (SourceFileDownloadingException e) {
+            throw e;
         } catch (Exception e) {
             logger.error("源码下载失败：maven: {}, class: {}", mavenInfo, className, e);
             throw e;
@@ -77,10 +79,10 @@ public class MavenRepositoryServiceImpl implements MavenRepositoryService {
 
     private String loadClassSourceFile(String className, String jarPath) {
         String classPath = getClassPath(className);
-        try (JarFile jarFile = new JarFile(jarPath)) {
-            JarEntry entry = jarFile.getJarEntry(classPath);
-            if (entry != null && !entry.isDirectory()) {
-                return FileUtil.read(jarFile.getInputStream(entry));
+        try {
+            String source = sourceJarCache.read(jarPath, classPath);
+            if (source != null) {
+                return source;
             } else {
                 throw new RuntimeException();
             }
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2019 Qunar, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package qunar.tc.bistoury.ui.service.impl;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalListener;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qunar.tc.bistoury.common.FileUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * 缓存最近使用的源码jar包，jar包保持打开，并在打开时建立java文件路径到entry的索引
+ * <p>
+ * 被淘汰的jar包等正在进行的读取都结束后才关闭；jar包文件被重新下载后会重新打开
+ */
+class SourceJarCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(SourceJarCache.class);
+
+    private static final int MAX_OPEN_JARS = 16;
+
+    private static final String SOURCE_SUFFIX = ".java";
+
+    private final LoadingCache<String, OpenJar> openJars = CacheBuilder.newBuilder()
+            .maximumSize(MAX_OPEN_JARS)
+            .removalListener((RemovalListener<String, OpenJar>) notification -> notification.getValue().release())
+            .build(new CacheLoader<String, OpenJar>() {
+                @Override
+                public OpenJar load(String jarPath) throws Exception {
+                    return new OpenJar(new File(jarPath));
+                }
+            });
+
+    /**
+     * @return 源文件内容，jar包中没有这个文件时返回null
+     */
+    String read(String jarPath, String sourcePath) throws IOException {
+        OpenJar openJar = acquire(jarPath);
+        try {
+            JarEntry entry = openJar.entries.get(sourcePath);
+            if (entry == null) {
+                return null;
+            }
+            return FileUtil.read(openJar.jarFile.getInputStream(entry));
+        } finally {
+            openJar.release();
+        }
+    }
+
+    /**
+     * 使用完后需要调用{@link OpenJar#release()}
+     */
+    OpenJar acquire(String jarPath) throws IOException {
+        while (true) {
+            //每次都重新取修改时间，打开时jar包刚好又被替换的话下一轮会和新文件比较，不会一直对不上
+            long lastModified = new File(jarPath).lastModified();
+            OpenJar openJar = get(jarPath);
+            if (openJar.lastModified != lastModified) {
+                openJars.asMap().remove(jarPath, openJar);
+                continue;
+            }
+            //可能刚好被淘汰并且已经关闭
+            if (openJar.retain()) {
+                return openJar;
+            }
+        }
+    }
+
+    private OpenJar get(String jarPath) throws IOException {
+        try {
+            return openJars.get(jarPath);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    static class OpenJar {
+
+        final JarFile jarFile;
+
+        private final long lastModified;
+
+        private final Map<String, JarEntry> entries;
+
+        /**
+         * 缓存本身持有一个引用
+         */
+        private int refCount = 1;
+
+        OpenJar(File file) throws IOException {
+            this.lastModified = file.lastModified();
+            this.jarFile = new JarFile(file);
+            this.entries = index(jarFile);
+        }
+
+        private static Map<String, JarEntry> index(JarFile jarFile) {
+            Map<String, JarEntry> index = Maps.newHashMapWithExpectedSize(jarFile.size());
+            Enumeration<JarEntry> entries = jarFile.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                if (!entry.isDirectory() && entry.getName().endsWith(SOURCE_SUFFIX)) {
+                    index.put(entry.getName(), entry);
+                }
+            }
+            return index;
+        }
+
+        synchronized boolean retain() {
+            if (refCount == 0) {
+                return false;
+            }
+            ++refCount;
+            return true;
+        }
+
+        synchronized void release() {
+            if (--refCount == 0) {
+                try {
+                    jarFile.close();
+                } catch (IOException e) {
+                    logger.warn("close jar file error, {}", jarFile.getName(), e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,476 @@
+/*
+ * Copyright (C) 2019 Qunar, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package qunar.tc.bistoury.ui.service.impl;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.ning.http.client.AsyncHandler;
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.HttpResponseBodyPart;
+import com.ning.http.client.HttpResponseHeaders;
+import com.ning.http.client.HttpResponseStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qunar.tc.bistoury.common.NamedThreadFactory;
+import qunar.tc.bistoury.serverside.metrics.Metrics;
+import qunar.tc.bistoury.ui.exception.SourceFileNotFoundException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 把源码jar包下载到临时文件，收到数据时直接写入文件并计算hash，下载完成后和ETag中的hash比较
+ * <p>
+ * 临时文件中已经有数据时用Range请求接着下载，服务端不支持Range时从头下载；
+ * 网络错误会重试，重试时同样从已下载的位置继续
+ * <p>
+ * 写文件和计算hash都在单独的线程中按收到的顺序执行，不占用http client的io线程
+ */
+class SourceJarDownloader {
+
+    private static final Logger logger = LoggerFactory.getLogger(SourceJarDownloader.class);
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    private static final int REQUEST_TIMEOUT_MS = (int) TimeUnit.MINUTES.toMillis(10);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Executor FILE_EXECUTOR = Executors.newSingleThreadExecutor(new NamedThreadFactory("source-jar-file", true));
+
+    private final AsyncHttpClient httpClient;
+
+    private final Executor fileExecutor;
+
+    SourceJarDownloader(AsyncHttpClient httpClient) {
+        this(httpClient, FILE_EXECUTOR);
+    }
+
+    SourceJarDownloader(AsyncHttpClient httpClient, Executor fileExecutor) {
+        this.httpClient = httpClient;
+        this.fileExecutor = fileExecutor;
+    }
+
+    /**
+     * @return 下载完成并且校验通过的临时文件
+     */
+    ListenableFuture<File> download(String url, File tempFile) {
+        SettableFuture<File> result = SettableFuture.create();
+        attempt(url, tempFile, 1, result);
+        return result;
+    }
+
+    private void attempt(final String url, final File tempFile, final int attempt, final SettableFuture<File> result) {
+        final DownloadHandler handler = new DownloadHandler(tempFile, fileExecutor);
+        try {
+            AsyncHttpClient.BoundRequestBuilder builder = httpClient.prepareGet(url)
+                    .setRequestTimeout(REQUEST_TIMEOUT_MS)
+                    .setHeader("Accept-Encoding", "identity");
+            if (handler.offset > 0) {
+                builder.setHeader("Range", "bytes=" + handler.offset + "-");
+            }
+            httpClient.executeRequest(builder.build(), handler);
+        } catch (Exception e) {
+            handler.onThrowable(e);
+        }
+
+        Futures.addCallback(handler.result, new FutureCallback<File>() {
+            @Override
+            public void onSuccess(File file) {
+                result.set(file);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                if (t instanceof HashNotMatchException) {
+                    tempFile.delete();
+                    //续传前的数据可能已经过期，从头再下载一次，否则直接失败
+                    if (!handler.resumed) {
+                        result.setException(t);
+                        return;
+                    }
+                } else if (t instanceof SourceFileNotFoundException) {
+                    tempFile.delete();
+                    result.setException(t);
+                    return;
+                }
+
+                if (attempt >= MAX_ATTEMPTS) {
+                    tempFile.delete();
+                    result.setException(t);
+                    return;
+                }
+
+                logger.warn("download source jar fail, retry, url: {}, attempt: {}", url, attempt, t);
+                attempt(url, tempFile, attempt + 1, result);
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * 回调在http client的io线程中执行，只解析状态和header；文件、hasher等状态只在fileExecutor中访问
+     */
+    private static class DownloadHandler implements AsyncHandler<File> {
+
+        private final File tempFile;
+
+        private final long offset;
+
+        private final Executor fileExecutor;
+
+        private final SettableFuture<File> result = SettableFuture.create();
+
+        private int statusCode;
+
+        private ETag eTag;
+
+        private Hasher hasher;
+
+        private FileChannel channel;
+
+        private volatile boolean resumed = false;
+
+        DownloadHandler(File tempFile, Executor fileExecutor) {
+            this.tempFile = tempFile;
+            this.offset = tempFile.length();
+            this.fileExecutor = fileExecutor;
+        }
+
+        @Override
+        public STATE onStatusReceived(HttpResponseStatus responseStatus) {
+            statusCode = responseStatus.getStatusCode();
+            if (statusCode == 200 || statusCode == 206) {
+                return STATE.CONTINUE;
+            }
+
+            if (statusCode == 416) {
+                //临时文件比服务端的文件还要大，只能从头下载
+                failAndDelete(new IOException("requested range not satisfiable, offset " + offset));
+            } else {
+                logger.warn("getAll source code from maven repository fail, http code [{}]", statusCode);
+                fail(new SourceFileNotFoundException("源文件下载失败, http code " + statusCode));
+            }
+            return STATE.ABORT;
+        }
+
+        @Override
+        public STATE onHeadersReceived(HttpResponseHeaders headers) {
+            //分析response Header，获取etag，解析文件hash
+            String eTagInHeader = headers.getHeaders().getFirstValue("ETag");
+            final ETag eTag = parseETag(eTagInHeader);
+            if (eTag == null) {
+                logger.error("文件 hash 值解析错误, file: {}, etag: {}", tempFile, eTagInHeader);
+                Metrics.counter("hash_parse_error").inc();
+                fail(new SourceFileNotFoundException("源文件下载错误, 文件hashValue值解析错误"));
+                return STATE.ABORT;
+            }
+
+            if (statusCode == 206) {
+                long start = parseRangeStart(headers.getHeaders().getFirstValue("Content-Range"));
+                if (start != offset) {
+                    failAndDelete(new IOException("unexpected content range start " + start + ", offset " + offset));
+                    return STATE.ABORT;
+                }
+            }
+
+            final boolean partial = statusCode == 206;
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        //连接异常时http client自己会重发请求，同一个handler会再次收到响应，需要丢掉上一次写入的数据
+                        closeChannel();
+                        DownloadHandler.this.eTag = eTag;
+                        hasher = eTag.getAlgorithm().newHasher();
+                        if (partial) {
+                            channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.WRITE);
+                            channel.truncate(offset);
+                            channel.position(offset);
+                            hashFile(hasher, tempFile, offset);
+                            resumed = true;
+                        } else {
+                            channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                        }
+                    } catch (Exception e) {
+                        doFail(e);
+                    }
+                }
+            });
+            return STATE.CONTINUE;
+        }
+
+        @Override
+        public STATE onBodyPartReceived(HttpResponseBodyPart bodyPart) {
+            if (result.isDone()) {
+                return STATE.ABORT;
+            }
+
+            final byte[] bytes = bodyPart.getBodyPartBytes();
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                        while (buffer.hasRemaining()) {
+                            channel.write(buffer);
+                        }
+                        hasher.putBytes(bytes);
+                    } catch (Exception e) {
+                        doFail(e);
+                    }
+                }
+            });
+            return STATE.CONTINUE;
+        }
+
+        @Override
+        public File onCompleted() {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        closeChannel();
+                        if (hasher == null) {
+                            throw new IOException("response completed without headers");
+                        }
+
+                        String hashValue = hasher.hash().toString();
+                        if (!Objects.equals(eTag.getHashValue(), hashValue)) {
+                            logger.error("文件 hash 值不匹配, file: {}, algorithm: {}, etag: {}, hash: {}", tempFile, eTag.getAlgorithm().name(), eTag.getHashValue(), hashValue);
+                            Metrics.counter("hash_not_match").inc();
+                            throw new HashNotMatchException(String.format("源文件下载错误，文件hashValue值不匹配, algorithm: %s, etag: %s, file: %s", eTag.getAlgorithm().name(), eTag.getHashValue(), hashValue));
+                        }
+                        result.set(tempFile);
+                    } catch (Exception e) {
+                        doFail(e);
+                    }
+                }
+            });
+            return null;
+        }
+
+        @Override
+        public void onThrowable(Throwable t) {
+            fail(t);
+        }
+
+        private void fail(final Throwable t) {
+            fileExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    doFail(t);
+                }
+            });
+        }
+
+        private void failAndDelete(final Throwable t) {
+            fileExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    closeChannel();
+                    tempFile.delete();
+                    doFail(t);
+                }
+            });
+        }
+
+        /**
+         * 结果确定后，之前已经提交的写文件任务直接跳过
+         */
+        private void execute(final Runnable task) {
+            fileExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (!result.isDone()) {
+                        task.run();
+                    }
+                }
+            });
+        }
+
+        private void doFail(Throwable t) {
+            closeChannel();
+            result.setException(t);
+        }
+
+        private void closeChannel() {
+            if (channel == null) {
+                return;
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("close temp file error, {}", tempFile, e);
+            }
+            channel = null;
+        }
+    }
+
+    private static long parseRangeStart(String contentRange) {
+        //Content-Range: bytes start-end/total
+        if (Strings.isNullOrEmpty(contentRange)) {
+            return -1;
+        }
+        int start = contentRange.indexOf(' ');
+        int end = contentRange.indexOf('-', start + 1);
+        if (start < 0 || end < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(start + 1, end).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void hashFile(Hasher hasher, File file, long length) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream inputStream = new FileInputStream(file)) {
+            long remaining = length;
+            int count;
+            while (remaining > 0 && (count = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                hasher.putBytes(buffer, 0, count);
+                remaining -= count;
+            }
+        }
+    }
+
+    private static ETag parseETag(String eTag) {
+        if (Strings.isNullOrEmpty(eTag)) {
+            return null;
+        }
+
+        int index = eTag.indexOf('{');
+        if (index < 0) {
+            return null;
+        }
+        int algorithmStartIndex = index + 1;
+        int algorithmEndIndex = eTag.indexOf('{', algorithmStartIndex);
+        if (algorithmEndIndex < 0) {
+            return null;
+        }
+        String protocolName = eTag.substring(algorithmStartIndex, algorithmEndIndex).trim().toUpperCase();
+        HashAlgorithm algorithm = HashAlgorithm.of(protocolName);
+        if (algorithm == null) {
+            return null;
+        }
+
+        int hashValueStartIndex = algorithmEndIndex + 1;
+        int hashValueEndIndex = eTag.indexOf('}', hashValueStartIndex);
+        if (hashValueEndIndex < 0) {
+            return null;
+        }
+        String hashcode = eTag.substring(hashValueStartIndex, hashValueEndIndex).trim();
+        if (Strings.isNullOrEmpty(hashcode)) {
+            return null;
+        }
+
+        return new ETag(algorithm, hashcode);
+    }
+
+    private static class HashNotMatchException extends IOException {
+        HashNotMatchException(String message) {
+            super(message);
+        }
+    }
+
+    private static class ETag {
+        private HashAlgorithm algorithm;
+        private String hashValue;
+
+        public ETag(HashAlgorithm algorithm, String hashValue) {
+            this.algorithm = algorithm;
+            this.hashValue = hashValue;
+        }
+
+        public HashAlgorithm getAlgorithm() {
+            return algorithm;
+        }
+
+        public String getHashValue() {
+            return hashValue;
+        }
+
+        @Override
+        public String toString() {
+            return "ETag{" +
+                    "algorithm=" + algorithm +
+                    ", hash='" + hashValue + '\'' +
+                    '}';
+        }
+    }
+
+    private enum HashAlgorithm {
+
+        MD5("MD5", Hashing::md5),
+        SHA1("SHA1", Hashing::sha1),
+        SHA256("SHA256", Hashing::sha256);
+
+        private static Map<String, HashAlgorithm> mapping = initMapping();
+
+        private String algorithm;
+        private Supplier<HashFunction> func;
+
+        HashAlgorithm(String algorithm, Supplier<HashFunction> func) {
+            this.algorithm = algorithm;
+            this.func = func;
+        }
+
+        private static Map<String, HashAlgorithm> initMapping() {
+            Map<String, HashAlgorithm> mapping = Maps.newHashMap();
+            for (HashAlgorithm algorithm : HashAlgorithm.values()) {
+                mapping.put(algorithm.name(), algorithm);
+            }
+            return mapping;
+        }
+
+        public static HashAlgorithm of(String value) {
+            return mapping.get(value);
+        }
+
+        public Hasher newHasher() {
+            return func.get().newHasher();
+        }
+
+        @Override
+        public String toString() {
+            return "HashAlgorithm{" +
+                    "algorithm='" + algorithm + '\'' +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package qunar.tc.bistoury.ui.service.impl;
+
+import com.google.common.io.Files;
+import com.ning.http.client.AsyncHttpClient;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import qunar.tc.bistoury.ui.exception.SourceFileDownloadingException;
+import qunar.tc.bistoury.ui.exception.SourceFileNotFoundException;
+import qunar.tc.bistoury.ui.model.MavenInfo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class DefaultJarFileStoreTest {
+
+    private static final MavenInfo MAVEN_INFO = new MavenInfo("test", "qunar.tc", "1.0");
+
+    private JarHttpServer server;
+
+    private AsyncHttpClient httpClient;
+
+    private File dir;
+
+    private DefaultJarFileStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new JarHttpServer(256 * 1024);
+        httpClient = new AsyncHttpClient();
+        dir = Files.createTempDir();
+        store = new DefaultJarFileStore(new SourceJarDownloader(httpClient), dir.getAbsolutePath());
+        store.init(server.url() + "?path={0}/{1}/{2}", 2);
+    }
+
+    @After
+    public void tearDown() {
+        httpClient.close();
+        server.stop();
+        delete(dir);
+    }
+
+    @Test
+    public void concurrentRequestsShareOneDownload() throws Exception {
+        server.gate = new CountDownLatch(1);
+
+        assertDownloading();
+        assertDownloading();
+        server.gate.countDown();
+
+        String jarFile = waitForJarFile();
+        Assert.assertArrayEquals(server.body, Files.toByteArray(new File(jarFile)));
+        Assert.assertEquals(jarFile, store.getJarFileIfPresent(MAVEN_INFO));
+        Assert.assertEquals(jarFile, store.getJarFile(MAVEN_INFO));
+        Assert.assertEquals(1, server.ranges.size());
+    }
+
+    @Test
+    public void failureIsReportedOnceThenRetried() throws Exception {
+        server.status = 404;
+
+        try {
+            waitForJarFile();
+            Assert.fail("download should fail");
+        } catch (SourceFileNotFoundException e) {
+            // expected
+        }
+        Assert.assertEquals(1, server.ranges.size());
+
+        server.status = 200;
+        String jarFile = waitForJarFile();
+        Assert.assertArrayEquals(server.body, Files.toByteArray(new File(jarFile)));
+        Assert.assertEquals(2, server.ranges.size());
+    }
+
+    private void assertDownloading() {
+        try {
+            store.getJarFile(MAVEN_INFO);
+            Assert.fail("jar file should be downloading");
+        } catch (SourceFileDownloadingException e) {
+            // expected
+        }
+    }
+
+    private String waitForJarFile() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (true) {
+            try {
+                return store.getJarFile(MAVEN_INFO);
+            } catch (SourceFileDownloadingException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(20);
+            }
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,113 @@
+package qunar.tc.bistoury.ui.service.impl;
+
+import com.google.common.hash.Hashing;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 用jdk自带的http server模拟maven仓库，响应带ETag，支持Range，可以在发送一半时断开连接
+ */
+class JarHttpServer {
+
+    private final HttpServer server;
+
+    final byte[] body;
+
+    volatile String eTag;
+
+    volatile int status = 200;
+
+    volatile boolean supportRange = true;
+
+    /**
+     * 接下来的几个请求只发送一半数据就断开
+     */
+    final AtomicInteger cutResponses = new AtomicInteger();
+
+    /**
+     * 不为空时每个请求都等它放行后才响应
+     */
+    volatile CountDownLatch gate;
+
+    /**
+     * 每个请求的Range header，没有时为"none"
+     */
+    final List<String> ranges = new CopyOnWriteArrayList<>();
+
+    JarHttpServer(int size) throws IOException {
+        body = new byte[size];
+        new Random(size).nextBytes(body);
+        eTag = "\"{SHA1{" + Hashing.sha1().hashBytes(body) + "}}\"";
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    String url() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/sources.jar";
+    }
+
+    void stop() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        ranges.add(range == null ? "none" : range);
+        try {
+            CountDownLatch gate = this.gate;
+            if (gate != null && !gate.await(10, TimeUnit.SECONDS)) {
+                throw new IOException("gate not opened");
+            }
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+
+        if (status != 200) {
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+            return;
+        }
+
+        exchange.getResponseHeaders().add("ETag", eTag);
+        int start = 0;
+        if (supportRange && range != null) {
+            start = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+            if (start >= body.length) {
+                exchange.sendResponseHeaders(416, -1);
+                exchange.close();
+                return;
+            }
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + (body.length - 1) + "/" + body.length);
+            exchange.sendResponseHeaders(206, body.length - start);
+        } else {
+            exchange.sendResponseHeaders(200, body.length);
+        }
+
+        OutputStream out = exchange.getResponseBody();
+        int length = body.length - start;
+        if (cutResponses.getAndDecrement() > 0) {
+            out.write(body, start, length / 2);
+            out.flush();
+            //没有写够Content-Length，close时会直接断开连接
+            exchange.close();
+            return;
+        }
+        out.write(body, start, length);
+        exchange.close();
+    }
+}
@@ -0,0 +1,130 @@
+package qunar.tc.bistoury.ui.service.impl;
+
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+public class SourceJarCacheTest {
+
+    private static final String SOURCE = "qunar/tc/Test.java";
+
+    private File dir;
+
+    private final SourceJarCache cache = new SourceJarCache();
+
+    @Before
+    public void setUp() {
+        dir = Files.createTempDir();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void readSource() throws IOException {
+        File jar = writeJar("test.jar", "class Test {}");
+
+        Assert.assertEquals("class Test {}", cache.read(jar.getAbsolutePath(), SOURCE));
+        Assert.assertNull(cache.read(jar.getAbsolutePath(), "qunar/tc/Other.java"));
+    }
+
+    @Test
+    public void replacedJarIsReopenedAndOldOneClosedAfterRelease() throws IOException {
+        File jar = writeJar("test.jar", "class Test {}");
+        SourceJarCache.OpenJar old = cache.acquire(jar.getAbsolutePath());
+
+        writeJar("test.jar", "class Test { int i; }");
+        Assert.assertTrue(jar.setLastModified(jar.lastModified() + 2000));
+        Assert.assertEquals("class Test { int i; }", cache.read(jar.getAbsolutePath(), SOURCE));
+
+        Assert.assertFalse(closed(old.jarFile));
+        old.release();
+        Assert.assertTrue(closed(old.jarFile));
+    }
+
+    @Test
+    public void sameJarIsOpenedOnce() throws IOException {
+        File jar = writeJar("test.jar", "class Test {}");
+
+        SourceJarCache.OpenJar first = cache.acquire(jar.getAbsolutePath());
+        SourceJarCache.OpenJar second = cache.acquire(jar.getAbsolutePath());
+        Assert.assertSame(first, second);
+        first.release();
+        second.release();
+        Assert.assertFalse(closed(first.jarFile));
+    }
+
+    @Test
+    public void evictedJarIsClosedAfterLastRelease() throws IOException {
+        File jar = writeJar("test.jar", "class Test {}");
+        SourceJarCache.OpenJar inUse = cache.acquire(jar.getAbsolutePath());
+
+        evict();
+
+        Assert.assertFalse(closed(inUse.jarFile));
+        Assert.assertNotNull(inUse.jarFile.getInputStream(inUse.jarFile.getEntry(SOURCE)));
+        inUse.release();
+        Assert.assertTrue(closed(inUse.jarFile));
+
+        //淘汰后再读会重新打开
+        Assert.assertEquals("class Test {}", cache.read(jar.getAbsolutePath(), SOURCE));
+    }
+
+    @Test
+    public void evictedJarNotInUseIsClosed() throws IOException {
+        File jar = writeJar("test.jar", "class Test {}");
+        SourceJarCache.OpenJar openJar = cache.acquire(jar.getAbsolutePath());
+        openJar.release();
+
+        evict();
+
+        Assert.assertTrue(closed(openJar.jarFile));
+    }
+
+    /**
+     * 缓存按segment淘汰，多读一些jar包保证之前的都被淘汰
+     */
+    private void evict() throws IOException {
+        for (int i = 0; i < 100; ++i) {
+            File other = writeJar("other-" + i + ".jar", "class Other" + i + " {}");
+            Assert.assertEquals("class Other" + i + " {}", cache.read(other.getAbsolutePath(), SOURCE));
+        }
+    }
+
+    private File writeJar(String name, String source) throws IOException {
+        File jar = new File(dir, name);
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+            out.putNextEntry(new JarEntry(SOURCE));
+            out.write(source.getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+        }
+        return jar;
+    }
+
+    private static boolean closed(JarFile jarFile) {
+        try {
+            jarFile.size();
+            return false;
+        } catch (IllegalStateException e) {
+            return true;
+        }
+    }
+}
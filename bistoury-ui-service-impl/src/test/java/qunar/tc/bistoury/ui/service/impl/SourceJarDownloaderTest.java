@@ -0,0 +1,130 @@
+package qunar.tc.bistoury.ui.service.impl;
+
+import com.google.common.io.Files;
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.AsyncHttpClientConfig;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import qunar.tc.bistoury.ui.exception.SourceFileNotFoundException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class SourceJarDownloaderTest {
+
+    private static final int SIZE = 1024 * 1024;
+
+    private JarHttpServer server;
+
+    private AsyncHttpClient httpClient;
+
+    private SourceJarDownloader downloader;
+
+    private File dir;
+
+    private File tempFile;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new JarHttpServer(SIZE);
+        //关掉http client自己的重试，断开连接时由downloader续传
+        httpClient = new AsyncHttpClient(new AsyncHttpClientConfig.Builder().setMaxRequestRetry(0).build());
+        downloader = new SourceJarDownloader(httpClient);
+        dir = Files.createTempDir();
+        tempFile = new File(dir, "test-sources.jar.tmp");
+    }
+
+    @After
+    public void tearDown() {
+        httpClient.close();
+        server.stop();
+        tempFile.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void download() throws Exception {
+        File file = downloader.download(server.url(), tempFile).get(10, TimeUnit.SECONDS);
+
+        Assert.assertArrayEquals(server.body, Files.toByteArray(file));
+        Assert.assertEquals(Arrays.asList("none"), server.ranges);
+    }
+
+    @Test
+    public void resumeFromTempFile() throws Exception {
+        Files.write(Arrays.copyOf(server.body, SIZE / 4), tempFile);
+
+        File file = downloader.download(server.url(), tempFile).get(10, TimeUnit.SECONDS);
+
+        Assert.assertArrayEquals(server.body, Files.toByteArray(file));
+        Assert.assertEquals(Arrays.asList("bytes=" + SIZE / 4 + "-"), server.ranges);
+    }
+
+    @Test
+    public void resumeAfterConnectionCut() throws Exception {
+        server.cutResponses.set(1);
+
+        File file = downloader.download(server.url(), tempFile).get(10, TimeUnit.SECONDS);
+
+        Assert.assertArrayEquals(server.body, Files.toByteArray(file));
+        Assert.assertEquals(2, server.ranges.size());
+        Assert.assertEquals("none", server.ranges.get(0));
+        Assert.assertEquals("bytes=" + SIZE / 2 + "-", server.ranges.get(1));
+    }
+
+    @Test
+    public void restartWhenRangeIsIgnored() throws Exception {
+        server.supportRange = false;
+        byte[] stale = new byte[SIZE / 4];
+        Arrays.fill(stale, (byte) 1);
+        Files.write(stale, tempFile);
+
+        File file = downloader.download(server.url(), tempFile).get(10, TimeUnit.SECONDS);
+
+        Assert.assertArrayEquals(server.body, Files.toByteArray(file));
+    }
+
+    @Test
+    public void staleTempFileIsDownloadedAgain() throws Exception {
+        byte[] stale = new byte[SIZE / 4];
+        Arrays.fill(stale, (byte) 1);
+        Files.write(stale, tempFile);
+
+        File file = downloader.download(server.url(), tempFile).get(10, TimeUnit.SECONDS);
+
+        Assert.assertArrayEquals(server.body, Files.toByteArray(file));
+        Assert.assertEquals(Arrays.asList("bytes=" + SIZE / 4 + "-", "none"), server.ranges);
+    }
+
+    @Test
+    public void hashNotMatch() throws Exception {
+        server.eTag = "\"{SHA1{0000000000000000000000000000000000000000}}\"";
+
+        try {
+            downloader.download(server.url(), tempFile).get(10, TimeUnit.SECONDS);
+            Assert.fail("hash should not match");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+        Assert.assertFalse(tempFile.exists());
+        Assert.assertEquals(1, server.ranges.size());
+    }
+
+    @Test
+    public void notFound() throws Exception {
+        server.status = 404;
+
+        try {
+            downloader.download(server.url(), tempFile).get(10, TimeUnit.SECONDS);
+            Assert.fail("should not found");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof SourceFileNotFoundException);
+        }
+        Assert.assertEquals(1, server.ranges.size());
+    }
+}
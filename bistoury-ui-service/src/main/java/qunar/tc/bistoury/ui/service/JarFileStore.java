@@ -24,6 +24,11 @@ import qunar.tc.bistoury.ui.model.MavenInfo;
  */
 public interface JarFileStore {
 
+    /**
+     * 本地没有时开始下载，不等待下载完成
+     *
+     * @throws qunar.tc.bistoury.ui.exception.SourceFileDownloadingException 还在下载中
+     */
     String getJarFile(MavenInfo mavenInfo);
 
     String getJarFileIfPresent(MavenInfo mavenInfo);
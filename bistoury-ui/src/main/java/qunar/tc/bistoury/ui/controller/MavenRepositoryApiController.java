@@ -26,6 +26,7 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import qunar.tc.bistoury.serverside.bean.ApiResult;
 import qunar.tc.bistoury.serverside.util.ResultHelper;
+import qunar.tc.bistoury.ui.exception.SourceFileDownloadingException;
 import qunar.tc.bistoury.ui.exception.SourceFileNotFoundException;
 import qunar.tc.bistoury.ui.exception.SourceFileReadException;
 import qunar.tc.bistoury.ui.model.MavenInfo;
@@ -70,6 +71,9 @@ public class MavenRepositoryApiController {
         MavenInfo mavenInfo = new MavenInfo(artifactId, groupId, version);
         try {
             return ResultHelper.success(0, getFileName(className), this.mavenRepositoryService.downSourceFile(mavenInfo, className));
+        } catch (SourceFileDownloadingException e) {
+            //下载在后台继续，页面稍后再请求
+            return ResultHelper.fail(-3, e.getMessage());
         } catch (SourceFileNotFoundException e) {
             logger.error("源码下载失败，maven: {}, class name: {}", mavenInfo, className, e);
             return ResultHelper.fail(-1, "源码下载失败");
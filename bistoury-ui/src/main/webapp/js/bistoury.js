@@ -176,6 +176,53 @@
             }
         });
     }
+    //同一个页面复用一个des key，proxy对每个连接缓存解出的key，只在第一次请求时做rsa解密
+    var sessionKey = null;
+
+    Bistoury.prototype.encrypt = function (content) {
+        if (sessionKey == null) {
+            sessionKey = createSessionKey();
+        }
+        var dataEnc = encryptByDES(content, sessionKey.key);
+        return "{\"0\":\"" + sessionKey.keyEnc + "\",\"1\":\"" + dataEnc + "\"}";
+    }
+
+    function createSessionKey() {
+        var k1 = makeid();
+
+        var publicKey = '-----BEGIN PUBLIC KEY-----\n' +
+            'MIGfMA0GCSqGSIb3DQEBAQUAA4GNADCBiQKBgQCzYgJiPl4ltUdOvTIx8yu5iw0+\n' +
+            'k7jANyrVzXOJy+478EhBaf8MoHaHvbH06PfaLjmFJXsRZKv9Qq5SieQcLlnG60Uu\n' +
+            'utpen1Nf490au+nPCP++nK3L5ZBqaSCAq4GUAniARR1wWl9TYW0walBCpD2N2Swy\n' +
+            'MLu9z+Lnhd7auqYSzwIDAQAB\n' +
+            '-----END PUBLIC KEY-----';
+        var crypt = new JSEncrypt();
+        crypt.setPublicKey(publicKey);
+        var k1Enc = crypt.encrypt(k1);
+
+        return {key: k1, keyEnc: k1Enc};
+    }
+
+    function makeid() {
+        var text = "";
+        var possible = "0123456789abcdef";
+
+        for (var i = 0; i < 8; i++) {
+            text += possible.charAt(Math.floor(Math.random() * possible.length));
+        }
+
+        return text;
+    }
+
+    function encryptByDES(message, key) {
+        var keyHex = CryptoJS.enc.Utf8.parse(key);
+        var encrypted = CryptoJS.DES.encrypt(message, keyHex, {
+            mode: CryptoJS.mode.ECB,
+            padding: CryptoJS.pad.Pkcs7
+        });
+        return encrypted.toString();
+    }
+
     window.bistoury = new Bistoury();
     $.ajaxSetup({
         complete: function (context) {
@@ -5,6 +5,7 @@ $(document).ready(function () {
     var jarDebug = false;
     var decompilerFile = false;
     var downSourceAllow = false;
+    var downSourceTimer = null;
     var lineMapping = {};
     var linePrefix = "line";
     var interval = 3000;
@@ -342,6 +343,9 @@ $(document).ready(function () {
     }
 
     function downSource(mavenInfo, className) {
+        //切换类以后不再轮询之前的类
+        clearTimeout(downSourceTimer);
+        downSourceTimer = null;
         $.ajax({
             url: "/api/maven/repository/downsource.do",
             method: 'POST',
@@ -353,7 +357,17 @@ $(document).ready(function () {
                 className: className
             },
             success: function (res) {
+                if (className != currentClass) {
+                    return;
+                }
                 $("#down-source").hide();
+                if (res.status == -3) {
+                    //源码还在下载，稍后再请求
+                    downSourceTimer = setTimeout(function () {
+                        downSource(mavenInfo, className);
+                    }, 2000);
+                    return;
+                }
                 if (res.status == 0) {
                     bistoury.info("源码下载完成");
                     //成功时message存储的是文件名
@@ -364,6 +378,9 @@ $(document).ready(function () {
             },
             error: function (error) {
                 console.log(error);
+                if (className != currentClass) {
+                    return;
+                }
                 bistoury.error("源码下载失败")
             }
         })
@@ -871,6 +888,8 @@ $(document).ready(function () {
             currentClass = row.name;
             //每个文件初始化为不可下载
             downSourceAllow = false;
+            clearTimeout(downSourceTimer);
+            downSourceTimer = null;
             $("#down-source").hide();
             $("#down-source").unbind("click");
 
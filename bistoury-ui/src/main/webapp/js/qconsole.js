@@ -684,7 +684,7 @@ $(document).ready(function () {
                         command: input,
                         token: getToken()
                     };
-                    var data = encrypt(JSON.stringify(content));
+                    var data = bistoury.encrypt(JSON.stringify(content));
 
                     ws.send(data);
                 }).fail(function () {
@@ -1113,45 +1113,8 @@ $(document).ready(function () {
         dialog.on("dialogfocus", function (event, ui) {
             $(this).closest(".ui-dialog").css("z-index", 101);
         });
-
-        function encrypt(content) {
-            var k1 = makeid();
-            var dataEnc = encryptByDES(content, k1);
-
-
-            var publicKey = '-----BEGIN PUBLIC KEY-----\n' +
-                'MIGfMA0GCSqGSIb3DQEBAQUAA4GNADCBiQKBgQCzYgJiPl4ltUdOvTIx8yu5iw0+\n' +
-                'k7jANyrVzXOJy+478EhBaf8MoHaHvbH06PfaLjmFJXsRZKv9Qq5SieQcLlnG60Uu\n' +
-                'utpen1Nf490au+nPCP++nK3L5ZBqaSCAq4GUAniARR1wWl9TYW0walBCpD2N2Swy\n' +
-                'MLu9z+Lnhd7auqYSzwIDAQAB\n' +
-                '-----END PUBLIC KEY-----';
-            var crypt = new JSEncrypt();
-            crypt.setPublicKey(publicKey);
-            var k1Enc = crypt.encrypt(k1);
-
-            return "{\"0\":\"" + k1Enc + "\",\"1\":\"" + dataEnc + "\"}";
-        }
     });
 
-    function encryptByDES(message, key) {
-        var keyHex = CryptoJS.enc.Utf8.parse(key);
-        var encrypted = CryptoJS.DES.encrypt(message, keyHex, {
-            mode: CryptoJS.mode.ECB,
-            padding: CryptoJS.pad.Pkcs7
-        });
-        return encrypted.toString();
-    }
-
-    function makeid() {
-        var text = "";
-        var possible = "0123456789abcdef";
-
-        for (var i = 0; i < 8; i++)
-            text += possible.charAt(Math.floor(Math.random() * possible.length));
-
-        return text;
-    }
-
     function get_col_width(list, size, line_num, col_index) {
         var i, start, len, max_len = 0;
 